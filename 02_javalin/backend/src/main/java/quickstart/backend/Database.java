@@ -7,12 +7,21 @@ import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
 
 /**
  * Database has all our logic for connecting to and interacting with SQLite
  *
- * NB: Since the backend is concurrent, this class needs to be thread-safe,
- * achieved by making all methods "synchronized".
+ * NB: Since the backend is concurrent, this class needs to be thread-safe.
+ * There are two ways to achieve that:
+ *
+ * - By default, there is one connection, and every method runs its SQL while
+ * holding the Database's lock (as if the methods were "synchronized").
+ *
+ * - With a pool of readers, every write goes to a SqliteWriter, which runs
+ * writes one at a time (in batched transactions) on its own connection, and
+ * each read borrows one of several read-only connections. WAL mode lets those
+ * readers run at the same time as each other and as the writer.
  */
 public class Database implements AutoCloseable {
     // load the sqlite-JDBC driver using the current class loader
@@ -25,9 +34,18 @@ public class Database implements AutoCloseable {
         }
     }
 
-    /** A connection to a SQLite db, or null */
+    /** A connection to a SQLite db, or null (null when using a reader pool) */
     private Connection conn;
 
+    /** The writer, when using a reader pool, or null */
+    private SqliteWriter writer;
+
+    /** The idle read-only connections, when using a reader pool, or null */
+    private ArrayBlockingQueue<Connection> readers;
+
+    /** All of the read-only connections, so that they can be closed */
+    private final List<Connection> allReaders = new ArrayList<>();
+
     /**
      * Use dbFile to create a connection to a database, and stores it in the
      * constructed Database object
@@ -36,13 +54,148 @@ public class Database implements AutoCloseable {
      * @throws SQLException if a connection cannot be created
      */
     public Database(String dbFile) throws SQLException {
+        this(dbFile, SqliteProfile.DEFAULT);
+    }
+
+    /**
+     * Use dbFile to create a connection to a database, configure it according
+     * to a SqliteProfile, and store it in the constructed Database object
+     *
+     * @param dbFile  the connection string for the database
+     * @param profile the PRAGMAs to apply to the connection
+     * @throws SQLException if a connection cannot be created
+     */
+    public Database(String dbFile, SqliteProfile profile) throws SQLException {
+        this(dbFile, profile, 0);
+    }
+
+    /**
+     * Use dbFile to create connections to a database, configure them according
+     * to a SqliteProfile, and store them in the constructed Database object
+     *
+     * @param dbFile  the connection string for the database
+     * @param profile the PRAGMAs to apply to each connection
+     * @param readers the number of read-only connections to use, or 0 for a
+     *                single connection that does everything. When readers is
+     *                more than 0, the database is switched to WAL mode, and a
+     *                writer thread is started.
+     * @throws SQLException if a connection cannot be created
+     */
+    public Database(String dbFile, SqliteProfile profile, int readers) throws SQLException {
         if (dbFile == null)
             throw new RuntimeException("Insufficient information to connect to database. Bye.");
-        conn = DriverManager.getConnection("jdbc:sqlite:" + dbFile);
-        // NB: SQLite is odd: we need to opt-in for referential integrity
-        try (var ps = conn.prepareStatement("PRAGMA foreign_keys = ON;")) {
+        var first = DriverManager.getConnection("jdbc:sqlite:" + dbFile);
+        profile.apply(first);
+        createSearchIndex(first);
+        if (readers <= 0) {
+            conn = first;
+            System.out.println("sqlite profile " + profile + ": " + SqliteProfile.report(conn));
+            return;
+        }
+        // Readers can't run alongside the writer without WAL
+        try (var ps = first.prepareStatement("PRAGMA journal_mode = WAL;")) {
             ps.execute();
         }
+        System.out.println("sqlite profile " + profile + " (writer): " + SqliteProfile.report(first));
+        writer = new SqliteWriter(first);
+        this.readers = new ArrayBlockingQueue<>(readers);
+        for (int i = 0; i < readers; ++i) {
+            var reader = DriverManager.getConnection("jdbc:sqlite:" + dbFile);
+            profile.apply(reader);
+            try (var ps = reader.prepareStatement("PRAGMA query_only = ON;")) {
+                ps.execute();
+            }
+            allReaders.add(reader);
+            this.readers.add(reader);
+        }
+        System.out.println("sqlite engine: 1 writer thread, " + readers + " reader connections");
+    }
+
+    /**
+     * Make sure that tblMessageSearch, the full-text index of messages, exists.
+     * It is an FTS5 table whose content lives in tblMessage, and it is kept
+     * current by triggers, so every insert, update, and delete of a message
+     * (from the backend or the admin app) updates the index too. Each piece is
+     * checked by name, so a missing trigger is put back even when the index
+     * itself exists (e.g., after tblMessage was dropped and recreated, which
+     * drops its triggers). Whenever anything had to be created, the index is
+     * rebuilt from tblMessage, since it may have missed some changes.
+     *
+     * @param conn A writable connection
+     *
+     * @throws SQLException if the index cannot be created
+     */
+    private static void createSearchIndex(Connection conn) throws SQLException {
+        try (var ps = conn.prepareStatement("""
+                SELECT COUNT(*) FILTER (WHERE name = 'tblMessage'), COUNT(*) FROM sqlite_master
+                WHERE name IN ('tblMessage', 'tblMessageSearch', 'trgMessageSearchInsert',
+                    'trgMessageSearchDelete', 'trgMessageSearchUpdate');""");
+                var rs = ps.executeQuery()) {
+            // Nothing to do if there's no tblMessage yet, or if everything exists
+            if (rs.next() && (rs.getInt(1) == 0 || rs.getInt(2) == 5))
+                return;
+        }
+        var statements = List.of("""
+                CREATE VIRTUAL TABLE IF NOT EXISTS tblMessageSearch USING fts5 (
+                    subject, details, content = 'tblMessage', content_rowid = 'id');""", """
+                CREATE TRIGGER IF NOT EXISTS trgMessageSearchInsert AFTER INSERT ON tblMessage BEGIN
+                    INSERT INTO tblMessageSearch (rowid, subject, details)
+                    VALUES (new.id, new.subject, new.details);
+                END;""", """
+                CREATE TRIGGER IF NOT EXISTS trgMessageSearchDelete AFTER DELETE ON tblMessage BEGIN
+                    INSERT INTO tblMessageSearch (tblMessageSearch, rowid, subject, details)
+                    VALUES ('delete', old.id, old.subject, old.details);
+                END;""", """
+                CREATE TRIGGER IF NOT EXISTS trgMessageSearchUpdate AFTER UPDATE ON tblMessage BEGIN
+                    INSERT INTO tblMessageSearch (tblMessageSearch, rowid, subject, details)
+                    VALUES ('delete', old.id, old.subject, old.details);
+                    INSERT INTO tblMessageSearch (rowid, subject, details)
+                    VALUES (new.id, new.subject, new.details);
+                END;""", """
+                INSERT INTO tblMessageSearch (tblMessageSearch) VALUES ('rebuild');""");
+        for (var sql : statements) {
+            try (var ps = conn.prepareStatement(sql)) {
+                ps.execute();
+            }
+        }
+        System.out.println("sqlite full-text index (re)built");
+    }
+
+    /**
+     * Run some reads, either on the only connection (while holding the lock),
+     * or on a borrowed reader connection
+     */
+    private <T> T read(SqliteWriter.Work<T> work) throws SQLException {
+        if (readers == null) {
+            synchronized (this) {
+                return work.run(conn);
+            }
+        }
+        Connection reader;
+        try {
+            reader = readers.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+        try {
+            return work.run(reader);
+        } finally {
+            readers.add(reader);
+        }
+    }
+
+    /**
+     * Run a write, either on the only connection (while holding the lock), or
+     * on the writer thread
+     */
+    private <T> T write(SqliteWriter.Work<T> work) throws SQLException {
+        if (writer == null) {
+            synchronized (this) {
+                return work.run(conn);
+            }
+        }
+        return writer.write(work);
     }
 
     /**
@@ -52,6 +205,24 @@ public class Database implements AutoCloseable {
      */
     @Override
     public void close() throws Exception {
+        if (writer != null) {
+            try {
+                System.out.println(writer);
+                writer.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            } finally {
+                writer = null;
+            }
+        }
+        for (var reader : allReaders) {
+            try {
+                reader.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+        allReaders.clear();
         if (conn != null) {
             try {
                 conn.close();
@@ -77,15 +248,17 @@ public class Database implements AutoCloseable {
      *
      * @throws SQLException on any error
      */
-    public synchronized List<PersonShort> getAllPerson() throws SQLException {
-        try (var ps = conn.prepareStatement("SELECT id, name FROM tblPerson ORDER BY name;");
-                var rs = ps.executeQuery();) {
-            var results = new ArrayList<PersonShort>();
-            while (rs.next()) {
-                results.add(new PersonShort(rs.getInt("id"), rs.getString("name")));
+    public List<PersonShort> getAllPerson() throws SQLException {
+        return read(conn -> {
+            try (var ps = conn.prepareStatement("SELECT id, name FROM tblPerson ORDER BY name;");
+                    var rs = ps.executeQuery();) {
+                var results = new ArrayList<PersonShort>();
+                while (rs.next()) {
+                    results.add(new PersonShort(rs.getInt("id"), rs.getString("name")));
+                }
+                return results;
             }
-            return results;
-        }
+        });
     }
 
     /** Person is a Java object with all the data from a row of tblPerson */
@@ -96,16 +269,18 @@ public class Database implements AutoCloseable {
      * Look up a user by their email address, to support start-of-session
      * authentication
      */
-    public synchronized Person getPersonByEmail(String email) throws SQLException {
-        try (var stmt = conn.prepareStatement("SELECT * FROM tblPerson WHERE email = ?;")) {
-            stmt.setString(1, email);
-            try (var rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return new Person(rs.getInt("id"), rs.getString("email"), rs.getString("name"));
+    public Person getPersonByEmail(String email) throws SQLException {
+        return read(conn -> {
+            try (var stmt = conn.prepareStatement("SELECT * FROM tblPerson WHERE email = ?;")) {
+                stmt.setString(1, email);
+                try (var rs = stmt.executeQuery()) {
+                    if (rs.next()) {
+                        return new Person(rs.getInt("id"), rs.getString("email"), rs.getString("name"));
+                    }
+                    return null;
                 }
-                return null;
             }
-        }
+        });
     }
 
     /**
@@ -118,16 +293,18 @@ public class Database implements AutoCloseable {
      *
      * @throws SQLException on any error
      */
-    public synchronized Person getOnePerson(int id) throws SQLException {
-        try (var stmt = conn.prepareStatement("SELECT * FROM tblPerson WHERE id = ?;")) {
-            stmt.setInt(1, id);
-            try (var rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return new Person(rs.getInt("id"), rs.getString("email"), rs.getString("name"));
+    public Person getOnePerson(int id) throws SQLException {
+        return read(conn -> {
+            try (var stmt = conn.prepareStatement("SELECT * FROM tblPerson WHERE id = ?;")) {
+                stmt.setInt(1, id);
+                try (var rs = stmt.executeQuery()) {
+                    if (rs.next()) {
+                        return new Person(rs.getInt("id"), rs.getString("email"), rs.getString("name"));
+                    }
+                    return null;
                 }
-                return null;
             }
-        }
+        });
     }
 
     /**
@@ -152,13 +329,16 @@ public class Database implements AutoCloseable {
      * @throws SQLException     If the person cannot be updated
      * @throws RuntimeException If the provided data is invalid
      */
-    public synchronized void updatePersonName(int id, NameChangeRequest req) throws SQLException, RuntimeException {
+    public void updatePersonName(int id, NameChangeRequest req) throws SQLException, RuntimeException {
         req.validate();
-        try (var stmt = conn.prepareStatement("UPDATE tblPerson SET name = ? WHERE id = ?;")) {
-            stmt.setString(1, req.name);
-            stmt.setInt(2, id);
-            stmt.executeUpdate();
-        }
+        write(conn -> {
+            try (var stmt = conn.prepareStatement("UPDATE tblPerson SET name = ? WHERE id = ?;")) {
+                stmt.setString(1, req.name);
+                stmt.setInt(2, id);
+                stmt.executeUpdate();
+            }
+            return null;
+        });
     }
 
     /**
@@ -186,27 +366,29 @@ public class Database implements AutoCloseable {
      * @throws SQLException     If the message cannot be created
      * @throws RuntimeException If the provided data is invalid
      */
-    public synchronized long insertMessage(NewMessageRequest req, int creatorId) throws SQLException, RuntimeException {
+    public long insertMessage(NewMessageRequest req, int creatorId) throws SQLException, RuntimeException {
         req.validate();
-        try (
-                var stmt = conn.prepareStatement("""
-                        INSERT INTO tblMessage
-                            (subject, details, as_of, creatorId)
-                        VALUES (?, ?, ?, ?);
-                        """,
-                        PreparedStatement.RETURN_GENERATED_KEYS)) {
-            stmt.setString(1, req.subject);
-            stmt.setString(2, req.details);
-            stmt.setDate(3, new java.sql.Date(new java.util.Date().getTime()));
-            stmt.setInt(4, creatorId);
-            stmt.executeUpdate();
-            try (var rs = stmt.getGeneratedKeys()) {
-                if (rs.next()) {
-                    return rs.getLong(1);
+        return write(conn -> {
+            try (
+                    var stmt = conn.prepareStatement("""
+                            INSERT INTO tblMessage
+                                (subject, details, as_of, creatorId)
+                            VALUES (?, ?, ?, ?);
+                            """,
+                            PreparedStatement.RETURN_GENERATED_KEYS)) {
+                stmt.setString(1, req.subject);
+                stmt.setString(2, req.details);
+                stmt.setDate(3, new java.sql.Date(new java.util.Date().getTime()));
+                stmt.setInt(4, creatorId);
+                stmt.executeUpdate();
+                try (var rs = stmt.getGeneratedKeys()) {
+                    if (rs.next()) {
+                        return rs.getLong(1);
+                    }
                 }
             }
-        }
-        return -1;
+            return -1L;
+        });
     }
 
     /**
@@ -223,15 +405,17 @@ public class Database implements AutoCloseable {
      *
      * @throws SQLException on any error
      */
-    public synchronized List<MessageShort> getAllMessage() throws SQLException {
-        var results = new ArrayList<MessageShort>();
-        try (var ps = conn.prepareStatement("SELECT * FROM viewMessage ORDER BY as_of DESC;");
-                var rs = ps.executeQuery()) {
-            while (rs.next()) {
-                results.add(new MessageShort(rs.getInt("id"), rs.getString("subject"), rs.getDate("as_of")));
+    public List<MessageShort> getAllMessage() throws SQLException {
+        return read(conn -> {
+            var results = new ArrayList<MessageShort>();
+            try (var ps = conn.prepareStatement("SELECT * FROM viewMessage ORDER BY as_of DESC;");
+                    var rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    results.add(new MessageShort(rs.getInt("id"), rs.getString("subject"), rs.getDate("as_of")));
+                }
+                return results;
             }
-            return results;
-        }
+        });
     }
 
     /** Message is a Java object with all the data from a row of tblMessage */
@@ -249,17 +433,82 @@ public class Database implements AutoCloseable {
      *
      * @throws SQLException on any error
      */
-    public synchronized Message getOneMessage(int id) throws SQLException {
-        try (var stmt = conn.prepareStatement("SELECT * FROM viewMessage WHERE id = ?;")) {
-            stmt.setInt(1, id);
-            try (var rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return new Message(rs.getInt("id"), rs.getString("subject"), rs.getString("details"),
-                            rs.getDate("as_of"), rs.getInt("creatorId"), rs.getString("email"), rs.getString("name"));
+    public Message getOneMessage(int id) throws SQLException {
+        return read(conn -> {
+            try (var stmt = conn.prepareStatement("SELECT * FROM viewMessage WHERE id = ?;")) {
+                stmt.setInt(1, id);
+                try (var rs = stmt.executeQuery()) {
+                    if (rs.next()) {
+                        return new Message(rs.getInt("id"), rs.getString("subject"), rs.getString("details"),
+                                rs.getDate("as_of"), rs.getInt("creatorId"), rs.getString("email"), rs.getString("name"));
+                    }
                 }
+                return null;
             }
-            return null;
+        });
+    }
+
+    /**
+     * SearchResult is one message that matched a search, with a snippet of the
+     * text that matched
+     */
+    public static record SearchResult(int id, String subject, Date as_of, String snippet) {
+    }
+
+    /**
+     * Turn a user's search into an FTS5 query, by quoting each word. That way,
+     * punctuation and words like AND or NEAR are treated as plain text. A
+     * message matches if it contains all of the words.
+     *
+     * @return the FTS5 query, or null if there are no words
+     */
+    static String toMatchQuery(String q) {
+        var sb = new StringBuilder();
+        for (var word : q.trim().split("\\s+")) {
+            if (word.isEmpty())
+                continue;
+            sb.append(sb.length() == 0 ? "" : " ").append('"').append(word.replace("\"", "\"\"")).append('"');
         }
+        return sb.length() == 0 ? null : sb.toString();
+    }
+
+    /**
+     * Search the subjects and details of messages, best matches first
+     *
+     * @param q      The words to search for
+     * @param limit  The most results to return
+     * @param offset The number of results to skip (for paging)
+     *
+     * @return a List with zero or more SearchResult objects
+     *
+     * @throws SQLException on any error
+     */
+    public List<SearchResult> searchMessages(String q, int limit, int offset) throws SQLException {
+        var match = toMatchQuery(q);
+        if (match == null)
+            return List.of();
+        return read(conn -> {
+            // bm25() is smaller for better matches
+            try (var ps = conn.prepareStatement("""
+                    SELECT tblMessage.id, tblMessage.subject, tblMessage.as_of,
+                        snippet(tblMessageSearch, 1, '[', ']', '...', 12) AS snippet
+                    FROM tblMessageSearch INNER JOIN tblMessage ON tblMessage.id = tblMessageSearch.rowid
+                    WHERE tblMessageSearch MATCH ?
+                    ORDER BY bm25(tblMessageSearch), tblMessage.id DESC
+                    LIMIT ? OFFSET ?;""")) {
+                ps.setString(1, match);
+                ps.setInt(2, limit);
+                ps.setInt(3, offset);
+                try (var rs = ps.executeQuery()) {
+                    var results = new ArrayList<SearchResult>();
+                    while (rs.next()) {
+                        results.add(new SearchResult(rs.getInt("id"), rs.getString("subject"), rs.getDate("as_of"),
+                                rs.getString("snippet")));
+                    }
+                    return results;
+                }
+            }
+        });
     }
 
     /**
@@ -287,24 +536,27 @@ public class Database implements AutoCloseable {
      * @throws SQLException     If the message cannot be updated
      * @throws RuntimeException If the provided data is invalid
      */
-    public synchronized void updateMessage(int id, UpdateMessageRequest req, int creatorId)
+    public void updateMessage(int id, UpdateMessageRequest req, int creatorId)
             throws SQLException, RuntimeException {
         req.validate();
-        try (var stmt = conn.prepareStatement("""
-                UPDATE tblMessage
-                SET
-                  details = ?,
-                  as_of = ?
-                WHERE
-                  id = ? AND
-                  creatorId = ?;
-                """);) {
-            stmt.setString(1, req.details);
-            stmt.setDate(2, new java.sql.Date(new java.util.Date().getTime()));
-            stmt.setInt(3, id);
-            stmt.setInt(4, creatorId);
-            stmt.executeUpdate();
-        }
+        write(conn -> {
+            try (var stmt = conn.prepareStatement("""
+                    UPDATE tblMessage
+                    SET
+                      details = ?,
+                      as_of = ?
+                    WHERE
+                      id = ? AND
+                      creatorId = ?;
+                    """);) {
+                stmt.setString(1, req.details);
+                stmt.setDate(2, new java.sql.Date(new java.util.Date().getTime()));
+                stmt.setInt(3, id);
+                stmt.setInt(4, creatorId);
+                stmt.executeUpdate();
+            }
+            return null;
+        });
     }
 
     /**
@@ -316,11 +568,14 @@ public class Database implements AutoCloseable {
      *
      * @throws SQLException If the message cannot be deleted
      */
-    public synchronized void deleteMessage(int id, int creatorId) throws SQLException {
-        try (var stmt = conn.prepareStatement("DELETE FROM tblMessage WHERE id = ? and creatorId = ?");) {
-            stmt.setInt(1, id);
-            stmt.setInt(2, creatorId);
-            stmt.executeUpdate();
-        }
+    public void deleteMessage(int id, int creatorId) throws SQLException {
+        write(conn -> {
+            try (var stmt = conn.prepareStatement("DELETE FROM tblMessage WHERE id = ? and creatorId = ?");) {
+                stmt.setInt(1, id);
+                stmt.setInt(2, creatorId);
+                stmt.executeUpdate();
+            }
+            return null;
+        });
     }
 }
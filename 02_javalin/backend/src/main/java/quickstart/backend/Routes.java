@@ -190,6 +190,39 @@ public class Routes {
         }
     }
 
+    /** The number of search results per page, when the client doesn't say */
+    static final int SEARCH_PAGE_SIZE = 20;
+
+    /** The most search results that a client may ask for at once */
+    static final int SEARCH_MAX_PAGE_SIZE = 100;
+
+    /**
+     * Search the messages. The query string has the words to find (`q`), and
+     * optionally the page to return (`page`, starting at 0) and the number of
+     * results per page (`pageSize`).
+     *
+     * @param ctx  The HTTP context, with cookies, querystring, etc
+     * @param db   The database
+     * @param gson A thread-safe object for converting to/from JSON
+     */
+    public static void readMessageSearch(Context ctx, Database db, Gson gson) {
+        ctx.status(200);
+        ctx.contentType(ContentType.APPLICATION_JSON);
+        try {
+            String q = ctx.queryParam("q");
+            if (q == null || q.isBlank())
+                throw new Exception("Missing search query");
+            int page = ctx.queryParamAsClass("page", Integer.class).getOrDefault(0);
+            int pageSize = ctx.queryParamAsClass("pageSize", Integer.class).getOrDefault(SEARCH_PAGE_SIZE);
+            if (page < 0 || pageSize < 1 || pageSize > SEARCH_MAX_PAGE_SIZE)
+                throw new Exception("Invalid page");
+            ctx.result(gson.toJson(new StructuredResponse("ok", null,
+                    db.searchMessages(q, pageSize, page * pageSize))));
+        } catch (Exception e) {
+            ctx.result(gson.toJson(new StructuredResponse("error", e.getMessage(), null)));
+        }
+    }
+
     /**
      * Get everything about a single message
      *
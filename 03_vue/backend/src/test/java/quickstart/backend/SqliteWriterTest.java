@@ -0,0 +1,145 @@
+package quickstart.backend;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Tests for the single-writer, many-reader SQLite engine */
+public class SqliteWriterTest {
+    /** The number of threads in the concurrent tests */
+    private static final int THREADS = 16;
+
+    /** The number of operations each thread performs */
+    private static final int OPS = 200;
+
+    /** Run a task on many threads at once, and return all of their results */
+    private static <T> ArrayList<T> onThreads(int threads, Callable<T> task) throws Exception {
+        var pool = Executors.newFixedThreadPool(threads);
+        try {
+            var futures = new ArrayList<Future<T>>();
+            for (int t = 0; t < threads; ++t)
+                futures.add(pool.submit(task));
+            var results = new ArrayList<T>();
+            for (var f : futures)
+                results.add(f.get(60, TimeUnit.SECONDS));
+            return results;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** A write that fails should not undo the other writes in its batch */
+    @Test
+    @DisplayName("a failed write should only roll back itself")
+    public void givenFailingWrites_whenBatched_thenOthersCommit(@TempDir Path dir) throws Exception {
+        var url = "jdbc:sqlite:" + dir.resolve("w.db");
+        try (var setup = DriverManager.getConnection(url); var stmt = setup.createStatement()) {
+            stmt.execute("CREATE TABLE t (x INTEGER UNIQUE);");
+        }
+        try (var writer = new SqliteWriter(DriverManager.getConnection(url))) {
+            // Every thread inserts the same values, so all but one insert of
+            // each value must fail
+            var failures = onThreads(THREADS, () -> {
+                int failed = 0;
+                for (int i = 0; i < OPS; ++i) {
+                    int x = i;
+                    try {
+                        writer.write(conn -> {
+                            try (var ps = conn.prepareStatement("INSERT INTO t (x) VALUES (?);")) {
+                                ps.setInt(1, x);
+                                return ps.executeUpdate();
+                            }
+                        });
+                    } catch (SQLException e) {
+                        ++failed;
+                    }
+                }
+                return failed;
+            });
+            assertEquals((THREADS - 1) * OPS, failures.stream().mapToInt(Integer::intValue).sum());
+            System.out.println(writer);
+        }
+        try (var check = DriverManager.getConnection(url);
+                var rs = check.createStatement().executeQuery("SELECT COUNT(*) FROM t;")) {
+            rs.next();
+            assertEquals(OPS, rs.getInt(1));
+        }
+    }
+
+    /** Once closed, the writer should refuse new work */
+    @Test
+    @DisplayName("write should fail after close")
+    public void givenClosedWriter_whenWriting_thenFail(@TempDir Path dir) throws Exception {
+        var writer = new SqliteWriter(DriverManager.getConnection("jdbc:sqlite:" + dir.resolve("w.db")));
+        writer.close();
+        assertThrows(SQLException.class, () -> writer.write(conn -> 1));
+    }
+
+    /** Concurrent inserts and reads through the pooled Database should all work */
+    @Test
+    @DisplayName("pooled Database should handle concurrent reads and writes")
+    public void givenReaderPool_whenUsedConcurrently_thenAllWritesLand(@TempDir Path dir) throws Exception {
+        var file = dir.resolve("bench.db");
+        SqliteProfileTest.createSchema(file);
+        try (var db = new Database(file.toString(), SqliteProfile.BALANCED, 4)) {
+            var ids = onThreads(THREADS, () -> {
+                var mine = new ArrayList<Long>();
+                var req = new Database.NewMessageRequest("subject", "details");
+                for (int i = 0; i < OPS; ++i) {
+                    mine.add(db.insertMessage(req, 1));
+                    assertTrue(db.getOnePerson(1) != null);
+                }
+                return mine;
+            });
+            var unique = new HashSet<Long>();
+            ids.forEach(unique::addAll);
+            assertEquals(THREADS * OPS, unique.size());
+            assertEquals(THREADS * OPS, db.getAllMessage().size());
+        }
+    }
+
+    /**
+     * Compare the single-connection engine with the writer and reader pool,
+     * with many threads doing a mix of reads and writes. The numbers are
+     * printed, rather than checked, because they depend on the machine.
+     */
+    @Test
+    @DisplayName("benchmark the engines")
+    public void givenEachEngine_whenUnderLoad_thenReportThroughput(@TempDir Path dir) throws Exception {
+        for (int readers : new int[] { 0, 4 }) {
+            var file = dir.resolve("bench" + readers + ".db");
+            SqliteProfileTest.createSchema(file);
+            try (var db = new Database(file.toString(), SqliteProfile.DURABLE, readers)) {
+                var req = new Database.NewMessageRequest("subject", "details ".repeat(20));
+                db.insertMessage(req, 1);
+                long start = System.nanoTime();
+                onThreads(THREADS, () -> {
+                    for (int i = 0; i < OPS; ++i) {
+                        // One write for every ten reads
+                        if (i % 10 == 0)
+                            db.insertMessage(req, 1);
+                        else
+                            db.getOneMessage(1);
+                    }
+                    return null;
+                });
+                long nanos = System.nanoTime() - start;
+                System.out.printf("readers=%d: %.0f ops/sec%n", readers, THREADS * OPS * 1e9 / nanos);
+            }
+        }
+    }
+}
@@ -17,6 +17,8 @@ public class App {
         String clientId = System.getenv("CLIENT_ID");
         String clientSecret = System.getenv("CLIENT_SECRET");
         String serverName = System.getenv("SERVER_NAME");
+        String sqliteProfile = System.getenv("SQLITE_PROFILE");
+        int sqliteReaders = Integer.parseInt(System.getenv().getOrDefault("SQLITE_READERS", "0"));
         // #region get_env
         String staticLocation = System.getenv("STATIC_LOCATION");
         // #endregion get_env
@@ -30,6 +32,8 @@ public class App {
         System.out.printf("  CLIENT_SECRET=%s%s%n", "*".repeat(clientSecret.length() - 5),
                 clientSecret.substring(clientSecret.length() - 5, clientSecret.length()));
         System.out.println("  SERVER_NAME=" + serverName);
+        System.out.println("  SQLITE_PROFILE=" + sqliteProfile);
+        System.out.println("  SQLITE_READERS=" + sqliteReaders);
         // #region report_env
         System.out.println("  STATIC_LOCATION=" + staticLocation);
         // #endregion report_env
@@ -47,7 +51,7 @@ public class App {
         // setting up the server, because failures will be fatal
         Database db;
         try {
-            db = new Database(dbFile);
+            db = new Database(dbFile, SqliteProfile.of(sqliteProfile), sqliteReaders);
         } catch (SQLException e) {
             e.printStackTrace();
             return;
@@ -144,6 +148,8 @@ public class App {
         app.post("/messages", ctx -> Routes.createMessage(ctx, db, gson, sessions));
         // Get a list of all the messages in the system
         app.get("/messages", ctx -> Routes.readMessageAll(ctx, db, gson));
+        // Search the messages (this must come before /messages/{id})
+        app.get("/messages/search", ctx -> Routes.readMessageSearch(ctx, db, gson));
         // Get all details for a specific message
         app.get("/messages/{id}", ctx -> Routes.readMessageOne(ctx, db, gson));
         // Update a message's fields
@@ -0,0 +1,196 @@
+package quickstart.backend;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * SqliteWriter owns the only connection that may write to a SQLite database.
+ * Callers hand it work, and one dedicated thread runs that work in the order
+ * it arrived.
+ *
+ * SQLite only allows one writer at a time, so having many threads take turns
+ * on the database lock is all cost and no benefit. Instead, the writer thread
+ * drains everything that is waiting (up to MAX_BATCH tasks) and runs it in
+ * a single transaction, which means one commit (and one fsync) for the whole
+ * batch. Each task runs inside its own SAVEPOINT, so a task that fails is
+ * rolled back without affecting the rest of its batch. A task's caller is
+ * only told that it succeeded once the batch has committed.
+ */
+class SqliteWriter implements AutoCloseable {
+    /** The most tasks to run in one transaction */
+    static final int MAX_BATCH = 256;
+
+    /**
+     * Work is something to do with the writer's connection
+     *
+     * @param <T> The type of the result
+     */
+    interface Work<T> {
+        T run(Connection conn) throws SQLException;
+    }
+
+    /** A task in the queue: some work, and the future for its result */
+    private static record Task<T>(Work<T> work, CompletableFuture<T> result) {
+    }
+
+    /** A task that tells the writer thread to exit */
+    private static final Task<Void> STOP = new Task<>(c -> null, new CompletableFuture<>());
+
+    /** The connection that all writes use */
+    private final Connection conn;
+
+    /** The tasks that are waiting to run */
+    private final LinkedBlockingQueue<Task<?>> queue = new LinkedBlockingQueue<>();
+
+    /** The thread that runs the tasks */
+    private final Thread thread;
+
+    /** Set once close() has been called */
+    private volatile boolean closed;
+
+    /** The number of transactions committed */
+    private final LongAdder batches = new LongAdder();
+
+    /** The number of tasks run */
+    private final LongAdder tasks = new LongAdder();
+
+    /**
+     * Start a writer thread
+     *
+     * @param conn The connection to write with. The writer takes ownership of
+     *             it, and closes it when the writer is closed.
+     */
+    SqliteWriter(Connection conn) throws SQLException {
+        this.conn = conn;
+        conn.setAutoCommit(false);
+        this.thread = new Thread(this::loop, "sqlite-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Run some work on the writer thread, and wait for it to commit
+     *
+     * @return the work's result
+     *
+     * @throws SQLException     if the work (or the commit) failed
+     * @throws RuntimeException if the work threw a RuntimeException
+     */
+    <T> T write(Work<T> work) throws SQLException {
+        var task = new Task<T>(work, new CompletableFuture<>());
+        if (closed)
+            throw new SQLException("The writer has been closed");
+        queue.add(task);
+        // If close() raced with us, the task might never run
+        if (closed && queue.remove(task))
+            throw new SQLException("The writer has been closed");
+        try {
+            return task.result().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a write", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException se)
+                throw se;
+            if (e.getCause() instanceof RuntimeException re)
+                throw re;
+            throw new SQLException(e.getCause());
+        }
+    }
+
+    /** The writer thread's main loop */
+    private void loop() {
+        var batch = new ArrayList<Task<?>>(MAX_BATCH);
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+            boolean stop = batch.remove(STOP);
+            runBatch(batch);
+            batch.clear();
+            if (stop)
+                break;
+        }
+    }
+
+    /** Run a batch of tasks in one transaction */
+    private void runBatch(ArrayList<Task<?>> batch) {
+        if (batch.isEmpty())
+            return;
+        var results = new ArrayList<Object>(batch.size());
+        var errors = new ArrayList<Throwable>(batch.size());
+        for (var task : batch) {
+            try {
+                var sp = conn.setSavepoint();
+                try {
+                    results.add(task.work().run(conn));
+                    errors.add(null);
+                    conn.releaseSavepoint(sp);
+                } catch (SQLException | RuntimeException e) {
+                    conn.rollback(sp);
+                    results.add(null);
+                    errors.add(e);
+                }
+            } catch (SQLException e) { // the savepoint itself failed
+                results.add(null);
+                errors.add(e);
+            }
+        }
+        try {
+            conn.commit();
+        } catch (SQLException e) {
+            try {
+                conn.rollback();
+            } catch (SQLException e2) {
+                e.addSuppressed(e2);
+            }
+            for (var task : batch)
+                task.result().completeExceptionally(e);
+            return;
+        }
+        batches.increment();
+        tasks.add(batch.size());
+        for (int i = 0; i < batch.size(); ++i)
+            complete(batch.get(i), results.get(i), errors.get(i));
+    }
+
+    /** Finish a task's future */
+    @SuppressWarnings("unchecked")
+    private static <T> void complete(Task<T> task, Object result, Throwable error) {
+        if (error != null)
+            task.result().completeExceptionally(error);
+        else
+            task.result().complete((T) result);
+    }
+
+    @Override
+    public String toString() {
+        long b = batches.sum(), t = tasks.sum();
+        return String.format("sqlite writer: %d writes in %d transactions (%.1f per transaction)", t, b,
+                b == 0 ? 0.0 : (double) t / b);
+    }
+
+    /** Finish all queued work, stop the thread, and close the connection */
+    @Override
+    public void close() throws SQLException {
+        closed = true;
+        queue.add(STOP);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Anything that arrived after STOP will never run
+        for (var task : queue)
+            task.result().completeExceptionally(new SQLException("The writer has been closed"));
+        conn.close();
+    }
+}
@@ -0,0 +1,111 @@
+package quickstart.backend;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Tests for full-text search of messages */
+public class SearchTest {
+    /** Searches should find messages by subject or details, best match first */
+    @Test
+    @DisplayName("searchMessages should rank and page results")
+    public void givenMessages_whenSearching_thenBestMatchesComeFirst(@TempDir Path dir) throws Exception {
+        var file = dir.resolve("s.db");
+        SqliteProfileTest.createSchema(file);
+        try (var db = new Database(file.toString())) {
+            db.insertMessage(new Database.NewMessageRequest("lunch", "anyone want tacos today?"), 1);
+            long best = db.insertMessage(new Database.NewMessageRequest("tacos", "tacos tacos tacos"), 1);
+            db.insertMessage(new Database.NewMessageRequest("homework", "problem 3 is hard"), 1);
+
+            var results = db.searchMessages("tacos", 10, 0);
+            assertEquals(2, results.size());
+            assertEquals(best, results.get(0).id());
+            assertTrue(results.get(1).snippet().contains("[tacos]"));
+
+            assertEquals(1, db.searchMessages("tacos", 1, 1).size());
+            assertEquals(0, db.searchMessages("tacos homework", 10, 0).size());
+            // FTS5 syntax in the query is treated as plain text
+            assertEquals(0, db.searchMessages("\"AND* NEAR(", 10, 0).size());
+            assertEquals(0, db.searchMessages("   ", 10, 0).size());
+        }
+    }
+
+    /** Updates and deletes should be reflected in the index right away */
+    @Test
+    @DisplayName("the index should follow updates and deletes")
+    public void givenChangedMessages_whenSearching_thenIndexIsCurrent(@TempDir Path dir) throws Exception {
+        var file = dir.resolve("s.db");
+        SqliteProfileTest.createSchema(file);
+        try (var db = new Database(file.toString(), SqliteProfile.BALANCED, 2)) {
+            int id = (int) db.insertMessage(new Database.NewMessageRequest("pets", "my cat is orange"), 1);
+            assertEquals(1, db.searchMessages("cat", 10, 0).size());
+
+            db.updateMessage(id, new Database.UpdateMessageRequest("my dog is brown"), 1);
+            assertEquals(0, db.searchMessages("cat", 10, 0).size());
+            assertEquals(1, db.searchMessages("dog", 10, 0).size());
+
+            db.deleteMessage(id, 1);
+            assertEquals(0, db.searchMessages("dog", 10, 0).size());
+            assertNull(db.getOneMessage(id));
+        }
+    }
+
+    /** Messages that existed before the index should be indexed when it's created */
+    @Test
+    @DisplayName("the index should be filled when it is created")
+    public void givenExistingMessages_whenIndexIsCreated_thenTheyAreFound(@TempDir Path dir) throws Exception {
+        var file = dir.resolve("s.db");
+        SqliteProfileTest.createSchema(file);
+        try (var conn = java.sql.DriverManager.getConnection("jdbc:sqlite:" + file);
+                var stmt = conn.createStatement()) {
+            stmt.execute("INSERT INTO tblMessage (subject, details, as_of, creatorId) VALUES ('old', 'news', 0, 1);");
+        }
+        try (var db = new Database(file.toString())) {
+            assertEquals(1, db.searchMessages("news", 10, 0).size());
+        }
+    }
+
+    /** Recreating tblMessage drops its triggers; they should come back */
+    @Test
+    @DisplayName("the index should be repaired after tblMessage is recreated")
+    public void givenRecreatedMessageTable_whenReopening_thenSearchStillWorks(@TempDir Path dir) throws Exception {
+        var file = dir.resolve("s.db");
+        SqliteProfileTest.createSchema(file);
+        try (var db = new Database(file.toString())) {
+            db.insertMessage(new Database.NewMessageRequest("gone", "stale words"), 1);
+        }
+        try (var conn = java.sql.DriverManager.getConnection("jdbc:sqlite:" + file);
+                var stmt = conn.createStatement()) {
+            stmt.execute("DROP VIEW viewMessage;");
+            stmt.execute("DROP TABLE tblMessage;");
+            stmt.execute("""
+                    CREATE TABLE tblMessage (
+                        id INTEGER PRIMARY KEY,
+                        subject VARCHAR(50) NOT NULL,
+                        details VARCHAR(500) NOT NULL,
+                        as_of DATE NOT NULL,
+                        creatorId INTEGER,
+                        FOREIGN KEY (creatorId) REFERENCES tblPerson(id));""");
+            stmt.execute("""
+                    CREATE VIEW viewMessage AS
+                    SELECT tblMessage.id as id, tblMessage.subject as subject, tblMessage.details as details,
+                        tblMessage.as_of as as_of, tblMessage.creatorId as creatorId, tblPerson.email as email,
+                        tblPerson.name as name
+                    FROM tblMessage INNER JOIN tblPerson on tblMessage.creatorId = tblPerson.id;""");
+        }
+        try (var db = new Database(file.toString())) {
+            assertEquals(0, db.searchMessages("stale", 10, 0).size());
+            int id = (int) db.insertMessage(new Database.NewMessageRequest("fresh", "new words"), 1);
+            assertEquals(1, db.searchMessages("words", 10, 0).size());
+            db.updateMessage(id, new Database.UpdateMessageRequest("changed text"), 1);
+            assertEquals(0, db.searchMessages("words", 10, 0).size());
+            assertEquals(1, db.searchMessages("changed", 10, 0).size());
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package quickstart.backend;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.sql.DriverManager;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+/** Tests (and a benchmark) for the SQLite PRAGMA profiles */
+public class SqliteProfileTest {
+    /** The number of single-row commits in the benchmark */
+    private static final int WRITES = 500;
+
+    /** The number of single-row reads in the benchmark */
+    private static final int READS = 5000;
+
+    /** Create the tables and view that the backend expects, with one person */
+    static void createSchema(Path file) throws Exception {
+        try (var conn = DriverManager.getConnection("jdbc:sqlite:" + file);
+                var stmt = conn.createStatement()) {
+            stmt.execute("""
+                    CREATE TABLE tblPerson (
+                        id INTEGER PRIMARY KEY,
+                        email VARCHAR(30) NOT NULL UNIQUE COLLATE NOCASE,
+                        name VARCHAR(50));""");
+            stmt.execute("""
+                    CREATE TABLE tblMessage (
+                        id INTEGER PRIMARY KEY,
+                        subject VARCHAR(50) NOT NULL,
+                        details VARCHAR(500) NOT NULL,
+                        as_of DATE NOT NULL,
+                        creatorId INTEGER,
+                        FOREIGN KEY (creatorId) REFERENCES tblPerson(id));""");
+            stmt.execute("""
+                    CREATE VIEW viewMessage AS
+                    SELECT tblMessage.id as id, tblMessage.subject as subject, tblMessage.details as details,
+                        tblMessage.as_of as as_of, tblMessage.creatorId as creatorId, tblPerson.email as email,
+                        tblPerson.name as name
+                    FROM tblMessage INNER JOIN tblPerson on tblMessage.creatorId = tblPerson.id;""");
+            stmt.execute("INSERT INTO tblPerson (email, name) VALUES ('a@b.com', 'A');");
+        }
+    }
+
+    /** Unknown profile names should be rejected, and null should be DEFAULT */
+    @Test
+    @DisplayName("of should find profiles by name")
+    public void givenName_whenLookingUpProfile_thenFindIt() {
+        assertEquals(SqliteProfile.BALANCED, SqliteProfile.of("balanced"));
+        assertEquals(SqliteProfile.DEFAULT, SqliteProfile.of(null));
+        assertThrows(RuntimeException.class, () -> SqliteProfile.of("turbo"));
+    }
+
+    /** BALANCED should switch to WAL and synchronous=NORMAL */
+    @Test
+    @DisplayName("apply should set the profile's PRAGMAs")
+    public void givenBalancedProfile_whenApplied_thenPragmasAreSet(@TempDir Path dir) throws Exception {
+        try (var conn = DriverManager.getConnection("jdbc:sqlite:" + dir.resolve("t.db"))) {
+            SqliteProfile.BALANCED.apply(conn);
+            var report = SqliteProfile.report(conn);
+            assertTrue(report.contains("journal_mode=wal"), report);
+            assertTrue(report.contains("synchronous=1"), report);
+            assertTrue(report.contains("foreign_keys=1"), report);
+        }
+    }
+
+    /**
+     * Time single-row commits and reads under each profile. The numbers are
+     * printed, rather than checked, because they depend on the disk.
+     */
+    @ParameterizedTest
+    @EnumSource(SqliteProfile.class)
+    @DisplayName("benchmark each profile")
+    public void givenProfile_whenWritingAndReading_thenReportThroughput(SqliteProfile profile, @TempDir Path dir)
+            throws Exception {
+        var file = dir.resolve("bench.db");
+        createSchema(file);
+        try (var db = new Database(file.toString(), profile)) {
+            var req = new Database.NewMessageRequest("subject", "details ".repeat(20));
+            long start = System.nanoTime();
+            for (int i = 0; i < WRITES; ++i)
+                db.insertMessage(req, 1);
+            long writeNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < READS; ++i)
+                db.getOneMessage(1 + i % WRITES);
+            long readNanos = System.nanoTime() - start;
+
+            assertEquals(WRITES, db.getAllMessage().size());
+            System.out.printf("%-8s %8.0f commits/sec %9.0f reads/sec%n", profile, WRITES * 1e9 / writeNanos,
+                    READS * 1e9 / readNanos);
+        }
+    }
+}
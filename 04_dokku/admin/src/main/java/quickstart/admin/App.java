@@ -15,10 +15,18 @@ public class App {
         // get the SQLite configuration from environment variables;
         String dbFile = System.getenv("DB_FILE");
         String dbUrl = System.getenv("DATABASE_URL");
+        String sqliteProfile = System.getenv("SQLITE_PROFILE");
+        String scriptFile = System.getenv("SCRIPT_FILE");
+        boolean scriptTransaction = Boolean.parseBoolean(System.getenv().getOrDefault("SCRIPT_TRANSACTION", "false"));
+        int workers = Integer.parseInt(System.getenv().getOrDefault("ADMIN_WORKERS", "1"));
         System.out.println("Using the following environment variables:");
         System.out.println("-".repeat(45));
         System.out.println("  DB_FILE=" + dbFile);
         System.out.println("  DATABASE_URL=" + dbUrl);
+        System.out.println("  SQLITE_PROFILE=" + sqliteProfile);
+        System.out.println("  SCRIPT_FILE=" + scriptFile);
+        System.out.println("  SCRIPT_TRANSACTION=" + scriptTransaction);
+        System.out.println("  ADMIN_WORKERS=" + workers);
         System.out.println("-".repeat(45));
 
         if (dbFile == null && dbUrl == null) {
@@ -28,98 +36,390 @@ public class App {
         }
 
         // Get a fully-configured connection to the database, or exit immediately
-        try (Database db = new Database(dbUrl == null, (dbUrl == null ? dbFile : dbUrl))) {
+        boolean ok = true;
+        try (Database db = new Database(dbUrl == null, (dbUrl == null ? dbFile : dbUrl),
+                SqliteProfile.of(sqliteProfile))) {
+            if (scriptFile != null) {
+                ok = runScript(db, scriptFile, scriptTransaction,
+                        new Settings(dbUrl == null, dbUrl == null ? dbFile : dbUrl, workers));
+                return;
+            }
             // Start reading requests and processing them
             BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
-            while (true) {
-                switch (prompt(in)) {
-                    case "?": // help
-                        menu();
-                        break;
-                    case "q": // quit
-                        return;
-                    case "C": // create tables and views
-                        db.createTables();
-                        db.createViews();
-                        break;
-                    case "D": // drop tables and views
-                        db.dropViews();
-                        db.dropTables();
-                        break;
-                    case "1p": // query for one person row
-                        var person = db.getOnePerson(getInt(in, "Enter the person ID"));
-                        if (person != null) {
-                            System.out.println(" " + person.id() + " | " + person.email() + " | " + person.name());
-                        }
-                        break;
-                    case "*p": // query for all person rows
-                        System.out.println("  tblPerson");
-                        System.out.println("  -------------------------");
-                        for (var row : db.getAllPerson()) {
-                            System.out.println(" " + row.id() + " | " + row.email() + " | " + row.name());
-                        }
-                        break;
-                    case "-p": // delete a person
-                        db.deletePerson(getInt(in, "Enter the person ID"));
-                        break;
-                    case "+p": // insert a person
-                        int newPid = db.insertPerson(
-                                getString(in, "Enter the email"),
-                                getString(in, "Enter the name"));
-                        System.out.println("id of newly inserted person: " + newPid);
-                        break;
-                    case "~p": // update a person
-                        db.updatePerson(
-                                getInt(in, "Enter the person ID"),
-                                getString(in, "Enter the new email"),
-                                getString(in, "Enter the new name"));
-                        break;
-                    case "1m": // query for one message row
-                        var msg = db.getOneMessage(getInt(in, "Enter the message ID"));
-                        if (msg != null) {
-                            System.out.println(" " + msg.id() + " | " + msg.subject() + " | " + msg.details() + " | "
-                                    + new java.util.Date(msg.as_of().getTime()) + " | " + msg.creatorId() + " | "
-                                    + msg.email() + " | " + msg.name());
-                        }
-                        break;
-                    case "*m": // query for all message rows
-                        System.out.println("  tblMessage");
-                        System.out.println("  -------------------------");
-                        for (var row : db.getAllMessage()) {
-                            System.out.println(" " + row.id() + " | " + row.subject() + " | " + row.details() + " | "
-                                    + new java.util.Date(row.as_of().getTime()) + " | " + row.creatorId() + " | "
-                                    + row.email() + " | " + row.name());
-                        }
-                        break;
-                    case "-m": // delete a message
-                        db.deleteMessage(getInt(in, "Enter the message ID"));
+            var settings = new Settings(dbUrl == null, dbUrl == null ? dbFile : dbUrl, workers);
+            while (execute(prompt(in), in, db, settings)) {
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            ok = false;
+        } finally {
+            // Let cron (or whatever ran the script) know that it failed
+            if (!ok)
+                System.exit(1);
+        }
+    }
+
+    /**
+     * Settings describes how to reach the database, for commands that open
+     * more connections
+     *
+     * @param useSQLite True for SQLite, false for PostgreSQL
+     * @param dbStr     The connection string
+     * @param workers   The number of connections that bulk maintenance can use
+     */
+    static record Settings(boolean useSQLite, String dbStr, int workers) {
+        /** Create a pool of workers for bulk maintenance */
+        Parallel parallel(Database db) {
+            return new Parallel(db, useSQLite, dbStr, workers);
+        }
+    }
+
+    /**
+     * Run one menu command
+     *
+     * @param action   The command
+     * @param in       Where to read the command's fields from
+     * @param db       The database
+     * @param settings How to open more connections
+     *
+     * @return false if the command was "q", true otherwise
+     */
+    static boolean execute(String action, BufferedReader in, Database db, Settings settings) throws Exception {
+        switch (action) {
+            case "?": // help
+                menu();
+                break;
+            case "q": // quit
+                return false;
+            case "C": // create tables and views
+                db.createTables();
+                db.createViews();
+                db.migrate();
+                break;
+            case "D": // drop tables and views
+                db.dropViews();
+                db.dropTables();
+                break;
+            case "M": // apply pending migrations
+                System.out.println("Applied " + db.migrate() + " migration(s)");
+                break;
+            case "R": // rebuild derived tables
+                rebuild(db, settings);
+                break;
+            case "*M": // list applied migrations
+                System.out.println("  tblSchemaVersion");
+                System.out.println("  -------------------------");
+                for (var row : db.getSchemaVersions()) {
+                    System.out.println(" " + row.version() + " | " + row.description() + " | "
+                            + row.checksum().substring(0, 12) + " | " + row.appliedAt());
+                }
+                break;
+            case "1p": // query for one person row
+                var person = db.getOnePerson(getInt(in, "Enter the person ID"));
+                if (person != null) {
+                    System.out.println(" " + person.id() + " | " + person.email() + " | " + person.name());
+                }
+                break;
+            case "*p": // query for all person rows
+                new Listing(null).people(db, Listing.FETCH_SIZE);
+                break;
+            case "-p": // delete a person
+                db.deletePerson(getInt(in, "Enter the person ID"));
+                break;
+            case "+p": // insert a person
+                int newPid = db.insertPerson(
+                        getString(in, "Enter the email"),
+                        getString(in, "Enter the name"));
+                System.out.println("id of newly inserted person: " + newPid);
+                break;
+            case "~p": { // update a person, unless someone else changes them first
+                int id = getInt(in, "Enter the person ID");
+                var current = db.getOnePerson(id);
+                var version = db.getPersonVersion(id);
+                if (current == null || version == null) {
+                    System.out.println("Update: " + Database.UpdateResult.NOT_FOUND);
+                    break;
+                }
+                System.out.println(" " + current.id() + " | " + current.email() + " | " + current.name()
+                        + " | version " + version);
+                System.out.println("Update: " + db.updatePerson(id,
+                        getString(in, "Enter the new email"),
+                        getString(in, "Enter the new name"), version));
+                break;
+            }
+            case "1m": // query for one message row
+                var msg = db.getOneMessage(getInt(in, "Enter the message ID"));
+                if (msg != null) {
+                    System.out.println(" " + msg.id() + " | " + msg.subject() + " | " + msg.details() + " | "
+                            + new java.util.Date(msg.as_of().getTime()) + " | " + msg.creatorId() + " | "
+                            + msg.email() + " | " + msg.name());
+                }
+                break;
+            case "*m": // query for all message rows
+                new Listing(null).messages(db, Database.MessageFilter.NONE, Listing.FETCH_SIZE);
+                break;
+            case "Fm": { // find messages by creator and date, a page at a time
+                var filter = new Database.MessageFilter(
+                        optionalInt(getString(in, "Enter the creator ID (blank for anyone)")),
+                        optionalDate(getString(in, "Enter the first date (yyyy-mm-dd, blank for no limit)")),
+                        optionalDate(getString(in, "Enter the last date (yyyy-mm-dd, blank for no limit)")));
+                int pageSize = getInt(in, "Enter the page size");
+                if (pageSize < 1)
+                    throw new RuntimeException("Invalid page size");
+                // Scripts can't answer "more?", so they get every page
+                new Listing(in instanceof Script ? null : in).messages(db, filter, pageSize);
+                break;
+            }
+            case "-m": // delete a message
+                db.deleteMessage(getInt(in, "Enter the message ID"));
+                break;
+            case "+m": // insert a message
+                db.insertMessage(getString(in, "Enter the subject"),
+                        getString(in, "Enter the message"),
+                        getInt(in, "Enter the person ID"));
+                break;
+            case "Ip": // import people from a file
+                try (var rows = new Importer(java.nio.file.Path.of(getString(in, "Enter the file name")),
+                        Importer.PERSON_COLUMNS)) {
+                    System.out.println("Import: " + db.importPeople(rows, IMPORT_CHUNK_SIZE));
+                }
+                break;
+            case "Im": // import messages from a file
+                try (var rows = new Importer(java.nio.file.Path.of(getString(in, "Enter the file name")),
+                        Importer.MESSAGE_COLUMNS); var par = settings.parallel(db)) {
+                    if (par.workers() == 1) {
+                        System.out.println("Import: " + db.importMessages(rows, IMPORT_CHUNK_SIZE));
                         break;
-                    case "+m": // insert a message
-                        db.insertMessage(getString(in, "Enter the subject"),
-                                getString(in, "Enter the message"),
-                                getInt(in, "Enter the person ID"));
+                    }
+                    // Hand each chunk of rows to whichever worker is free
+                    while (rows.hasNext()) {
+                        var chunk = new java.util.ArrayList<Importer.Row>(IMPORT_CHUNK_SIZE);
+                        while (rows.hasNext() && chunk.size() < IMPORT_CHUNK_SIZE)
+                            chunk.add(rows.next());
+                        par.submit(w -> w.importMessages(chunk.iterator(), IMPORT_CHUNK_SIZE).inserted());
+                    }
+                    System.out.println("Import: inserted " + par.join());
+                }
+                break;
+            case "G": { // generate synthetic people and messages
+                var generate = new Generator.Settings(
+                        getInt(in, "Enter the number of people"),
+                        getInt(in, "Enter the number of messages"),
+                        getInt(in, "Enter the seed"),
+                        Double.parseDouble(getString(in, "Enter the creator skew (0 = uniform, 1 = Zipf)")),
+                        getInt(in, "Enter the number of days to spread messages over"),
+                        getInt(in, "Enter the average details length"),
+                        GENERATOR_SUBJECT_MIN, GENERATOR_SUBJECT_MAX,
+                        getInt(in, "Enter the number of threads"),
+                        IMPORT_CHUNK_SIZE);
+                System.out.println("Generator: "
+                        + new Generator(generate).run(db, settings.useSQLite(), settings.dbStr()));
+                break;
+            }
+            case "A": { // archive old messages
+                int days = getInt(in, "Archive messages older than how many days");
+                long start = System.nanoTime();
+                var cutoff = java.sql.Date.valueOf(java.time.LocalDate.now().minusDays(days));
+                try (var par = settings.parallel(db)) {
+                    if (par.workers() == 1) {
+                        long moved = db.archiveMessages(cutoff, ARCHIVE_BATCH_SIZE, ARCHIVE_PAUSE_MS);
+                        System.out.printf("Archived %d messages dated before %s in %.1f ms%n", moved, cutoff,
+                                (System.nanoTime() - start) / 1e6);
                         break;
-                    case "~m": // update a message
-                        db.updateMessage(getInt(in, "Enter the message ID"),
-                                getString(in, "Enter the subject"),
-                                getString(in, "Enter the message"));
+                    }
+                    var ids = db.idRange("tblMessage");
+                    if (ids != null)
+                        par.submitRanges(ids[0], ids[1] + 1, (w, from, to) -> w.archiveMessages(cutoff,
+                                ARCHIVE_BATCH_SIZE, ARCHIVE_PAUSE_MS, from, to));
+                    System.out.println("Archived messages dated before " + cutoff + ": " + par.join());
+                }
+                break;
+            }
+            case "S": // copy everything from a SQLite database
+                try (var source = new Database(true, getString(in, "Enter the SQLite file to copy from"))) {
+                    long start = System.nanoTime();
+                    for (var result : db.copyFromSqlite(source, IMPORT_CHUNK_SIZE))
+                        System.out.println("Copied " + result);
+                    System.out.printf("Copy committed and verified in %.1f ms%n", (System.nanoTime() - start) / 1e6);
+                }
+                break;
+            case "P": // profile the backends' queries
+                new Profiler(db, settings.useSQLite()).run(getInt(in, "Enter the number of runs per query"));
+                break;
+            case "Xp": // export people to a file
+                export(db, getString(in, "Enter the file name"), true);
+                break;
+            case "Xm": // export messages to a file
+                export(db, getString(in, "Enter the file name"), false);
+                break;
+            case "~m": { // update a message, unless someone else changes it first
+                int id = getInt(in, "Enter the message ID");
+                var current = db.getOneMessage(id);
+                var version = db.getMessageVersion(id);
+                if (current == null || version == null) {
+                    System.out.println("Update: " + Database.UpdateResult.NOT_FOUND);
+                    break;
+                }
+                System.out.println(" " + current.id() + " | " + current.subject() + " | " + current.details()
+                        + " | version " + version);
+                System.out.println("Update: " + db.updateMessage(id,
+                        getString(in, "Enter the subject"),
+                        getString(in, "Enter the message"), version));
+                break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Run the commands in a script, without prompts, and print how long each
+     * kind of command took. Output is buffered, so that printing doesn't slow
+     * down big jobs. The script stops at the first command that fails.
+     *
+     * @param db             The database
+     * @param scriptFile     The script, or "-" to read it from stdin
+     * @param oneTransaction True to run the whole script in one transaction,
+     *                       so that it either all happens or none of it does
+     * @param settings       How to open more connections
+     *
+     * @return true if every command succeeded
+     */
+    static boolean runScript(Database db, String scriptFile, boolean oneTransaction, Settings settings)
+            throws IOException, java.sql.SQLException {
+        var console = System.out;
+        var buffered = new java.io.PrintStream(new java.io.BufferedOutputStream(console, 1 << 16), false);
+        // For each kind of command: how many ran, their total time, and the
+        // longest one
+        var stats = new java.util.TreeMap<String, long[]>();
+        long start = System.nanoTime();
+        boolean ok = false;
+        System.setOut(buffered);
+        try (var script = new Script(scriptFile.equals("-") ? new InputStreamReader(System.in)
+                : java.nio.file.Files.newBufferedReader(java.nio.file.Path.of(scriptFile)))) {
+            if (oneTransaction)
+                db.begin();
+            try {
+                String action;
+                while ((action = script.nextCommand()) != null) {
+                    if (!menuOptions.contains(action))
+                        throw new RuntimeException("Unknown command '" + action + "'");
+                    long t = System.nanoTime();
+                    boolean more = execute(action, script, db, settings);
+                    script.endCommand();
+                    t = System.nanoTime() - t;
+                    var s = stats.computeIfAbsent(action, k -> new long[3]);
+                    s[0]++;
+                    s[1] += t;
+                    s[2] = Math.max(s[2], t);
+                    if (!more)
                         break;
                 }
+                if (oneTransaction)
+                    db.commit();
+                ok = true;
+            } catch (Exception e) {
+                buffered.flush();
+                System.err.println("Script failed at line " + script.line() + ": " + e);
+                if (oneTransaction) {
+                    db.rollback();
+                    System.err.println("Rolled back the script's transaction");
+                }
             }
-        } catch (Exception e) {
-            e.printStackTrace();
+        } finally {
+            buffered.flush();
+            System.setOut(console);
+        }
+        long commands = stats.values().stream().mapToLong(s -> s[0]).sum();
+        System.out.printf("Script: %d command(s) in %.1f ms%s%n", commands, (System.nanoTime() - start) / 1e6,
+                oneTransaction ? (ok ? ", committed as one transaction" : ", rolled back") : "");
+        for (var e : stats.entrySet()) {
+            var s = e.getValue();
+            System.out.printf("  %-3s %8d run(s) %10.1f ms total %8.3f ms avg %8.3f ms max%n", e.getKey(), s[0],
+                    s[1] / 1e6, s[1] / 1e6 / s[0], s[2] / 1e6);
+        }
+        return ok;
+    }
+
+    /**
+     * Rebuild the tables and indexes that are derived from tblPerson and
+     * tblMessage. With more than one worker, tblMessageSummary and the message
+     * counts are rebuilt one id range at a time, in parallel.
+     *
+     * @param db       The database
+     * @param settings How to open more connections
+     */
+    static void rebuild(Database db, Settings settings) throws Exception {
+        try (var par = settings.parallel(db)) {
+            if (par.workers() == 1) {
+                System.out.println("tblMessageSummary rebuilt with " + db.rebuildMessageSummary() + " rows");
+            } else {
+                // NB: Unlike the serial rebuild, this isn't atomic: until it
+                // finishes, some messages will be missing from listings
+                db.clearMessageSummary();
+                var ids = db.idRange("tblMessage");
+                if (ids != null)
+                    par.submitRanges(ids[0], ids[1] + 1, (w, from, to) -> w.refillMessageSummary(from, to));
+                System.out.println("tblMessageSummary rebuilt: " + par.join());
+            }
+            db.rebuildSearchIndex();
+            System.out.println("Full-text index rebuilt");
+            if (par.workers() == 1) {
+                System.out.println("Message counts fixed for " + db.reconcilePersonStats() + " people");
+            } else {
+                var ids = db.idRange("tblPerson");
+                if (ids != null)
+                    par.submitRanges(ids[0], ids[1] + 1, (w, from, to) -> w.reconcilePersonStats(from, to));
+                System.out.println("Message counts fixed: " + par.join());
+            }
+        }
+    }
+
+    /**
+     * Export people or messages to a file, and report on how long it took
+     *
+     * @param db       The database
+     * @param fileName The file to create; its extension picks the format
+     * @param people   True to export people, false to export messages
+     */
+    static void export(Database db, String fileName, boolean people) throws IOException, java.sql.SQLException {
+        var file = java.nio.file.Path.of(fileName);
+        long start = System.nanoTime();
+        long rows;
+        try (var out = new Exporter(file)) {
+            rows = people ? db.exportPeople(out) : db.exportMessages(out);
         }
+        double secs = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Exported %d rows to %s in %.1f ms (%.0f rows/sec, %.1f MB)%n", rows, file, secs * 1000,
+                rows / secs, java.nio.file.Files.size(file) / 1e6);
     }
 
+    /** The number of rows per transaction when importing */
+    static final int IMPORT_CHUNK_SIZE = 5000;
+
+    /** The shortest subject that the generator creates */
+    static final int GENERATOR_SUBJECT_MIN = 5;
+
+    /** The longest subject that the generator creates */
+    static final int GENERATOR_SUBJECT_MAX = 50;
+
+    /** The number of messages to archive per transaction */
+    static final int ARCHIVE_BATCH_SIZE = 1000;
+
+    /** How long to pause between archive batches, so other clients can write */
+    static final long ARCHIVE_PAUSE_MS = 10;
+
     /** All of the valid menu options of the program */
-    static List<String> menuOptions = Arrays.asList("C", "D", "1p", "*p", "-p", "+p", "~p", "1m", "*m", "-m", "+m",
-            "~m", "q", "?");
+    static List<String> menuOptions = Arrays.asList("C", "D", "M", "*M", "R", "1p", "*p", "-p", "+p", "~p", "1m", "*m", "-m", "+m",
+            "~m", "Ip", "Im", "Xp", "Xm", "G", "A", "P", "S", "Fm", "q", "?");
 
     /** Print the menu for the program */
     static void menu() {
         System.out.println("Main Menu");
-        System.out.println("  [C] Create tables and views");
+        System.out.println("  [C] Create tables and views, and apply migrations");
         System.out.println("  [D] Drop tables and views");
+        System.out.println("  [M] Apply pending schema migrations");
+        System.out.println("  [*M] List applied schema migrations");
+        System.out.println("  [R] Rebuild derived tables (tblMessageSummary, the full-text index, and message counts)");
         System.out.println("  [1p] Query for a person");
         System.out.println("  [*p] Query for all person rows");
         System.out.println("  [-p] Delete a person");
@@ -127,9 +427,18 @@ public class App {
         System.out.println("  [~p] Update a person");
         System.out.println("  [1m] Query for a specific message");
         System.out.println("  [*m] Query for all message rows");
+        System.out.println("  [Fm] Find messages by creator and date, a page at a time");
         System.out.println("  [-m] Delete a message");
         System.out.println("  [+m] Insert a new message");
         System.out.println("  [~m] Update a message");
+        System.out.println("  [Ip] Import people from a CSV, JSONL, or .bin file (email,name)");
+        System.out.println("  [Im] Import messages from a CSV, JSONL, or .bin file (subject,details,creatorId[,as_of])");
+        System.out.println("  [Xp] Export people to a .csv, .jsonl, or .bin file");
+        System.out.println("  [Xm] Export messages to a .csv, .jsonl, or .bin file");
+        System.out.println("  [G] Generate synthetic people and messages");
+        System.out.println("  [A] Archive old messages into tblMessageArchive");
+        System.out.println("  [P] Profile the backends' queries (plans and latency percentiles)");
+        System.out.println("  [S] Copy all people and messages from a SQLite file (PostgreSQL only)");
         System.out.println("  [q] Quit Program");
         System.out.println("  [?] Help (this message)");
     }
@@ -174,9 +483,11 @@ public class App {
      */
     static String getString(BufferedReader in, String message) {
         try {
-            System.out.print(message + " :> ");
+            ask(in, message);
             return in.readLine();
         } catch (IOException e) {
+            if (in instanceof Script)
+                throw new RuntimeException(e.getMessage());
             e.printStackTrace();
             return "";
         }
@@ -192,11 +503,43 @@ public class App {
      */
     static int getInt(BufferedReader in, String message) {
         try {
-            System.out.print(message + " :> ");
+            ask(in, message);
             return Integer.parseInt(in.readLine());
         } catch (Exception e) {
+            // A script shouldn't carry on with a made-up value
+            if (in instanceof Script)
+                throw new RuntimeException(message + ": " + e.getMessage());
             e.printStackTrace();
             return -1;
         }
     }
+
+    /** Parse an optional number: a blank string means null */
+    static Integer optionalInt(String s) {
+        try {
+            return s == null || s.isBlank() ? null : Integer.valueOf(s.strip());
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("Invalid number: " + s);
+        }
+    }
+
+    /** Parse an optional yyyy-mm-dd date: a blank string means null */
+    static java.sql.Date optionalDate(String s) {
+        try {
+            return s == null || s.isBlank() ? null : java.sql.Date.valueOf(s.strip());
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException("Invalid date: " + s);
+        }
+    }
+
+    /**
+     * Print a prompt, unless the input is a script
+     *
+     * @param in      Where the answer will come from
+     * @param message A message to display when asking for input
+     */
+    static void ask(BufferedReader in, String message) {
+        if (!(in instanceof Script))
+            System.out.print(message + " :> ");
+    }
 }
@@ -0,0 +1,87 @@
+package quickstart.admin;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Csv has the (small) amount of logic needed for reading and writing
+ * comma-separated values. Fields can be quoted with '"', and a quoted field can
+ * contain commas, newlines, and doubled quotes.
+ */
+class Csv {
+    /**
+     * Read one record from a CSV file
+     *
+     * @param in The reader, positioned at the start of a record
+     *
+     * @return The fields of the record, or null at end of file
+     *
+     * @throws IOException if the file cannot be read, or a quoted field is never
+     *                     closed
+     */
+    static List<String> readRecord(BufferedReader in) throws IOException {
+        String line = in.readLine();
+        if (line == null)
+            return null;
+        var fields = new ArrayList<String>();
+        var field = new StringBuilder();
+        boolean quoted = false;
+        int i = 0;
+        while (true) {
+            if (i == line.length()) {
+                if (!quoted)
+                    break;
+                // A quoted field continues onto the next line
+                line = in.readLine();
+                if (line == null)
+                    throw new IOException("Unterminated quoted field");
+                field.append('\n');
+                i = 0;
+                continue;
+            }
+            char c = line.charAt(i++);
+            if (quoted) {
+                if (c != '"')
+                    field.append(c);
+                else if (i < line.length() && line.charAt(i) == '"') {
+                    field.append('"');
+                    ++i;
+                } else
+                    quoted = false;
+            } else if (c == '"')
+                quoted = true;
+            else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else
+                field.append(c);
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    /**
+     * Quote a field, if needed, so that it can be written to a CSV file. A null
+     * field becomes an empty, unquoted field.
+     */
+    static String quote(String field) {
+        if (field == null)
+            return "";
+        if (field.isEmpty() || field.indexOf(',') >= 0 || field.indexOf('"') >= 0 || field.indexOf('\n') >= 0
+                || field.indexOf('\r') >= 0)
+            return "\"" + field.replace("\"", "\"\"") + "\"";
+        return field;
+    }
+
+    /** Append one record, with a trailing newline, to a StringBuilder */
+    static void appendRecord(StringBuilder sb, String... fields) {
+        for (int i = 0; i < fields.length; ++i) {
+            if (i > 0)
+                sb.append(',');
+            sb.append(quote(fields[i]));
+        }
+        sb.append('\n');
+    }
+}
@@ -42,16 +42,29 @@ public class Database implements AutoCloseable {
      * @throws SQLException if a connection cannot be created
      */
     public Database(boolean useSQLite, String dbStr) throws SQLException {
+        this(useSQLite, dbStr, SqliteProfile.DEFAULT);
+    }
+
+    /**
+     * Use dbStr to create a connection to a database, and store it in the
+     * constructed Database object
+     *
+     * @param useSQLite true if using a local sqlite db, false if using postgresql
+     * @param dbStr     the connection string for the database (path for sqlite,
+     *                  DATABASE_URL for postgresql)
+     * @param profile   the PRAGMAs to apply to a sqlite connection
+     * @throws SQLException if a connection cannot be created
+     */
+    public Database(boolean useSQLite, String dbStr, SqliteProfile profile) throws SQLException {
         if (useSQLite) {
             this.sqlite = true;
             // Connect to the database or fail
             conn = DriverManager.getConnection("jdbc:sqlite:" + dbStr);
             System.out.printf("sqlite connected to file: %s%n", dbStr);
-            // SQLite is odd: we need to opt-in for referential integrity
-            try (var stmt = conn.prepareStatement("PRAGMA foreign_keys = ON;")) {
-                stmt.execute();
-                getPragmaForeignKeysStatus();
-            }
+            // The profile turns on referential integrity, among other things
+            profile.apply(conn);
+            getPragmaForeignKeysStatus();
+            System.out.println("sqlite profile " + profile + ": " + SqliteProfile.report(conn));
         } else { // assume postgresql
             this.sqlite = false;
 
@@ -193,6 +206,14 @@ public class Database implements AutoCloseable {
      * @throws SQLException if any table cannot be dropped
      */
     synchronized void dropTables() throws SQLException {
+        // The indexes and tables that migrations created must go, along with
+        // the record of which migrations were applied
+        for (var table : List.of("tblSchemaVersion", "tblMessageSummary", "tblMessageSearch",
+                "tblMessageArchive")) {
+            try (var ps = conn.prepareStatement("DROP TABLE IF EXISTS " + table + ";")) {
+                ps.execute();
+            }
+        }
         var dropTblMessage = "DROP TABLE tblMessage;";
         try (var ps = conn.prepareStatement(dropTblMessage)) {
             ps.execute();
@@ -217,6 +238,395 @@ public class Database implements AutoCloseable {
         System.out.println("Views dropped successfully");
     }
 
+    /**
+     * SchemaVersion is a Java object that matches the contents of
+     * tblSchemaVersion
+     */
+    public static record SchemaVersion(int version, String description, String checksum, java.sql.Timestamp appliedAt) {
+    }
+
+    /**
+     * Create the table that tracks which migrations have been applied, if it
+     * doesn't exist yet
+     *
+     * @throws SQLException if the table cannot be created
+     */
+    private void createSchemaVersionTable() throws SQLException {
+        try (var ps = conn.prepareStatement("""
+                CREATE TABLE IF NOT EXISTS tblSchemaVersion (
+                    version INTEGER PRIMARY KEY,
+                    description VARCHAR(100) NOT NULL,
+                    checksum CHAR(64) NOT NULL,
+                    applied_at TIMESTAMP NOT NULL
+                );""")) {
+            ps.execute();
+        }
+    }
+
+    /**
+     * Get the list of migrations that have been applied to the database
+     *
+     * @return A List with zero or more SchemaVersion objects, in order
+     *
+     * @throws SQLException on any error
+     */
+    synchronized List<SchemaVersion> getSchemaVersions() throws SQLException {
+        createSchemaVersionTable();
+        try (var ps = conn.prepareStatement("SELECT * FROM tblSchemaVersion ORDER BY version;");
+                var rs = ps.executeQuery();) {
+            var results = new ArrayList<SchemaVersion>();
+            while (rs.next()) {
+                results.add(new SchemaVersion(rs.getInt("version"), rs.getString("description"),
+                        rs.getString("checksum"), rs.getTimestamp("applied_at")));
+            }
+            return results;
+        }
+    }
+
+    /**
+     * Apply every migration that hasn't been applied yet, in order. Each
+     * migration runs in its own transaction, together with the insert that
+     * records it, so a failure leaves the database at the previous version.
+     * Running this again once everything is applied does nothing.
+     *
+     * @apiNote If this function throws a SQLException, the connection
+     *          autocommit setting can be in an undefined or invalid state.
+     *          Callers should treat SQLExceptions as fatal.
+     *
+     * @return the number of migrations that were applied
+     *
+     * @throws SQLException     If a migration cannot be applied
+     * @throws RuntimeException If an applied migration's SQL has since changed
+     */
+    synchronized int migrate() throws SQLException, RuntimeException {
+        var applied = new java.util.HashMap<Integer, String>();
+        for (var v : getSchemaVersions()) {
+            applied.put(v.version(), v.checksum());
+        }
+        int count = 0;
+        for (var m : Migrations.ALL) {
+            String checksum = m.checksum(sqlite);
+            if (applied.containsKey(m.version())) {
+                if (!applied.get(m.version()).equals(checksum)) {
+                    throw new RuntimeException("Migration " + m.version() + " has changed since it was applied");
+                }
+                continue;
+            }
+            inTransaction(() -> {
+                for (var sql : m.statements(sqlite)) {
+                    try (var ps = conn.prepareStatement(sql)) {
+                        ps.execute();
+                    }
+                }
+                try (var ps = conn.prepareStatement(
+                        "INSERT INTO tblSchemaVersion (version, description, checksum, applied_at) VALUES (?, ?, ?, ?);")) {
+                    ps.setInt(1, m.version());
+                    ps.setString(2, m.description());
+                    ps.setString(3, checksum);
+                    ps.setTimestamp(4, new java.sql.Timestamp(System.currentTimeMillis()));
+                    return ps.executeUpdate();
+                }
+            });
+            System.out.println("Applied migration " + m.version() + ": " + m.description());
+            ++count;
+        }
+        return count;
+    }
+
+    /**
+     * SqlWork is a piece of database work that can be run inside a transaction
+     */
+    @FunctionalInterface
+    interface SqlWork<T> {
+        /** Do the work */
+        T run() throws SQLException;
+    }
+
+    /** True while a transaction that was started by begin() is open */
+    private boolean outerTransaction;
+
+    /**
+     * Start a transaction that lasts until commit() or rollback(). Until then,
+     * work that would have committed on its own becomes part of this
+     * transaction instead.
+     *
+     * @throws SQLException If the transaction cannot be started
+     */
+    synchronized void begin() throws SQLException {
+        conn.setAutoCommit(false);
+        outerTransaction = true;
+    }
+
+    /**
+     * Commit the transaction that begin() started
+     *
+     * @throws SQLException If the commit fails
+     */
+    synchronized void commit() throws SQLException {
+        try {
+            conn.commit();
+        } finally {
+            outerTransaction = false;
+            conn.setAutoCommit(true); // return to non-transaction mode
+        }
+    }
+
+    /**
+     * Roll back the transaction that begin() started
+     *
+     * @throws SQLException If the rollback fails
+     */
+    synchronized void rollback() throws SQLException {
+        try {
+            conn.rollback();
+        } finally {
+            outerTransaction = false;
+            conn.setAutoCommit(true); // return to non-transaction mode
+        }
+    }
+
+    /** Report if a transaction that was started by begin() is open */
+    synchronized boolean inOuterTransaction() {
+        return outerTransaction;
+    }
+
+    /**
+     * Run some work in a transaction. If the work throws, the transaction is
+     * rolled back. Either way, the connection is returned to autocommit mode.
+     * If begin() has been called, the work just joins that transaction.
+     *
+     * @param work The work to do
+     *
+     * @return The result of the work
+     *
+     * @throws SQLException If the work, the commit, or the rollback fails
+     */
+    private <T> T inTransaction(SqlWork<T> work) throws SQLException {
+        if (outerTransaction)
+            return work.run();
+        conn.setAutoCommit(false);
+        try {
+            T result = work.run();
+            conn.commit();
+            return result;
+        } catch (SQLException | RuntimeException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true); // return to non-transaction mode
+        }
+    }
+
+    /**
+     * Rebuild tblMessageSummary from tblMessage and tblPerson, in case it has
+     * somehow drifted from them
+     *
+     * @return the number of rows in the rebuilt table
+     *
+     * @throws SQLException If the table cannot be rebuilt
+     */
+    synchronized int rebuildMessageSummary() throws SQLException {
+        return inTransaction(() -> {
+            try (var ps = conn.prepareStatement("DELETE FROM tblMessageSummary;")) {
+                ps.executeUpdate();
+            }
+            try (var ps = conn.prepareStatement(Migrations.REFILL_MESSAGE_SUMMARY + ";")) {
+                return ps.executeUpdate();
+            }
+        });
+    }
+
+    /**
+     * Empty tblMessageSummary, so that refillMessageSummary can rebuild it one
+     * range at a time
+     *
+     * @throws SQLException If the table cannot be emptied
+     */
+    synchronized void clearMessageSummary() throws SQLException {
+        try (var ps = conn.prepareStatement(sqlite ? "DELETE FROM tblMessageSummary;" : "TRUNCATE tblMessageSummary;")) {
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Copy the messages whose ids are in [fromId, toId) into tblMessageSummary
+     *
+     * @return the number of rows copied
+     *
+     * @throws SQLException If the rows cannot be copied
+     */
+    synchronized int refillMessageSummary(long fromId, long toId) throws SQLException {
+        return inTransaction(() -> {
+            try (var ps = conn.prepareStatement(
+                    Migrations.REFILL_MESSAGE_SUMMARY + " WHERE tblMessage.id >= ? AND tblMessage.id < ?;")) {
+                ps.setLong(1, fromId);
+                ps.setLong(2, toId);
+                return ps.executeUpdate();
+            }
+        });
+    }
+
+    /**
+     * Like reconcilePersonStats(), but only for the people whose ids are in
+     * [fromId, toId)
+     */
+    synchronized int reconcilePersonStats(long fromId, long toId) throws SQLException {
+        return inTransaction(() -> {
+            try (var ps = conn.prepareStatement("""
+                    WITH stats AS (
+                        SELECT creatorId, COUNT(*) AS n, MAX(as_of) AS latest
+                        FROM (SELECT creatorId, as_of FROM tblMessage WHERE creatorId >= ? AND creatorId < ?
+                              UNION ALL SELECT creatorId, as_of FROM tblMessageArchive
+                              WHERE creatorId >= ? AND creatorId < ?) m
+                        GROUP BY creatorId)
+                    UPDATE tblPerson SET messageCount = t.n, lastActivity = t.latest
+                    FROM (SELECT q.id, COALESCE(s.n, 0) AS n, s.latest
+                          FROM tblPerson q LEFT JOIN stats s ON s.creatorId = q.id
+                          WHERE q.id >= ? AND q.id < ?) t
+                    WHERE tblPerson.id = t.id
+                        AND (tblPerson.messageCount <> t.n OR tblPerson.lastActivity IS DISTINCT FROM t.latest);""")) {
+                for (int i = 0; i < 6; i += 2) {
+                    ps.setLong(i + 1, fromId);
+                    ps.setLong(i + 2, toId);
+                }
+                return ps.executeUpdate();
+            }
+        });
+    }
+
+    /**
+     * Find the smallest and largest ids in a table
+     *
+     * @param table tblPerson, tblMessage, or tblMessageArchive
+     *
+     * @return {min, max}, or null if the table is empty
+     *
+     * @throws SQLException If the table cannot be read
+     */
+    synchronized long[] idRange(String table) throws SQLException {
+        if (!List.of("tblPerson", "tblMessage", "tblMessageArchive").contains(table))
+            throw new RuntimeException("Unknown table: " + table);
+        try (var ps = conn.prepareStatement("SELECT MIN(id), MAX(id) FROM " + table + ";");
+                var rs = ps.executeQuery()) {
+            rs.next();
+            long min = rs.getLong(1);
+            return rs.wasNull() ? null : new long[] { min, rs.getLong(2) };
+        }
+    }
+
+    /**
+     * Ask the database how it runs a query. On PostgreSQL, this uses EXPLAIN
+     * (ANALYZE, BUFFERS), which really runs the query. On SQLite, it uses
+     * EXPLAIN QUERY PLAN, and then runs the query to count its rows.
+     *
+     * @param sql    The query, without a trailing ';'
+     * @param params The query's parameters
+     *
+     * @return the plan
+     *
+     * @throws SQLException If the query cannot be explained
+     */
+    synchronized Profiler.Plan explain(String sql, Object... params) throws SQLException {
+        var lines = new ArrayList<String>();
+        if (sqlite) {
+            // Each row is a step: (id, parent, notused, detail)
+            var depth = new java.util.HashMap<Integer, Integer>();
+            try (var ps = prepare("EXPLAIN QUERY PLAN " + sql + ";", params); var rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    int d = depth.getOrDefault(rs.getInt(2), -1) + 1;
+                    depth.put(rs.getInt(1), d);
+                    lines.add("  ".repeat(d) + rs.getString(4));
+                }
+            }
+            long rows = 0;
+            try (var ps = prepare(sql + ";", params); var rs = ps.executeQuery()) {
+                while (rs.next())
+                    ++rows;
+            }
+            return new Profiler.Plan(lines, -1, rows, -1);
+        }
+        try (var ps = prepare("EXPLAIN (ANALYZE, BUFFERS) " + sql + ";", params); var rs = ps.executeQuery()) {
+            while (rs.next())
+                lines.add(rs.getString(1));
+        }
+        // The first line is the top of the plan, e.g.
+        // "Sort (cost=1.0..2.0 rows=10 width=8) (actual time=0.1..0.2 rows=9 loops=1)"
+        var m = java.util.regex.Pattern.compile("rows=(\\d+)").matcher(lines.isEmpty() ? "" : lines.get(0));
+        long estimated = m.find() ? Long.parseLong(m.group(1)) : -1;
+        long actual = m.find() ? Long.parseLong(m.group(1)) : -1;
+        double ms = -1;
+        for (var line : lines)
+            if (line.startsWith("Execution Time:"))
+                ms = Double.parseDouble(line.replaceAll("[^0-9.]", ""));
+        return new Profiler.Plan(lines, estimated, actual, ms);
+    }
+
+    /**
+     * Run a query and read all of its rows
+     *
+     * @param sql    The query, without a trailing ';'
+     * @param params The query's parameters
+     *
+     * @return how long it took, in nanoseconds
+     *
+     * @throws SQLException If the query fails
+     */
+    synchronized long timeQuery(String sql, Object... params) throws SQLException {
+        long start = System.nanoTime();
+        try (var ps = prepare(sql + ";", params); var rs = ps.executeQuery()) {
+            while (rs.next()) {
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    /** Prepare a statement and bind its parameters */
+    private java.sql.PreparedStatement prepare(String sql, Object... params) throws SQLException {
+        var ps = conn.prepareStatement(sql);
+        try {
+            for (int i = 0; i < params.length; ++i)
+                ps.setObject(i + 1, params[i]);
+            return ps;
+        } catch (SQLException e) {
+            ps.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Recompute each person's messageCount and lastActivity, in case the
+     * triggers that maintain them have somehow been bypassed
+     *
+     * @return the number of people whose counters were wrong
+     *
+     * @throws SQLException If the counters cannot be recomputed
+     */
+    synchronized int reconcilePersonStats() throws SQLException {
+        return inTransaction(() -> {
+            try (var ps = conn.prepareStatement(Migrations.RECONCILE_PERSON_STATS)) {
+                return ps.executeUpdate();
+            }
+        });
+    }
+
+    /**
+     * Rebuild the full-text index of messages. On SQLite, this refills the
+     * tblMessageSearch FTS5 table from tblMessage. On PostgreSQL, the tsvector
+     * columns are always current, so this rebuilds their GIN indexes, on both
+     * tblMessage and tblMessageArchive (which searches also read).
+     *
+     * @throws SQLException If the index cannot be rebuilt
+     */
+    synchronized void rebuildSearchIndex() throws SQLException {
+        var statements = sqlite ? List.of("INSERT INTO tblMessageSearch (tblMessageSearch) VALUES ('rebuild');")
+                : List.of("REINDEX INDEX idxMessageSearch;", "REINDEX INDEX idxMessageArchiveSearch;");
+        for (var sql : statements) {
+            try (var ps = conn.prepareStatement(sql)) {
+                ps.execute();
+            }
+        }
+    }
+
     /**
      * Perform lightweight validation of the provided email address.
      *
@@ -292,49 +702,88 @@ public class Database implements AutoCloseable {
     /**
      * Update a person's data in the database
      *
-     * @apiNote If this function throws a SQLException, the connection
-     *          autocommit setting can be in an undefined or invalid state.
-     *          Callers will not be able to recover in that case, so they should
-     *          treat SQLExceptions as fatal.
+     * @param id      The Id of the person to update
+     * @param email   The email (might be the same as before)
+     * @param name    The name (might be the same as before)
+     * @param version The version of the person that the caller read, or null
+     *                to update whatever the current version is
      *
-     * @param id    The Id of the person to update
-     * @param email The email (might be the same as before)
-     * @param name  The name (might be the same as before)
+     * @return UPDATED, NOT_FOUND, DUPLICATE_EMAIL, or CONFLICT
      *
      * @throws SQLException     If the person cannot be updated
      * @throws RuntimeException If the provided data is invalid
      */
-    synchronized void updatePerson(int id, String email, String name) throws SQLException, RuntimeException {
+    synchronized UpdateResult updatePerson(int id, String email, String name, Integer version)
+            throws SQLException, RuntimeException {
         Database.validateEmail(email);
         Database.validateName(name);
 
         // Even though this is "demonstration" code, and not actually something
         // you'd want to have in a real system, it's important for it to be
         // correct. The issue is that technically, this code can change a user's
-        // email address. When inserting, the code ensured that emails were
-        // unique, using a transaction. That effort is useless unless this code
-        // also enforces uniqueness. Hence a transaction is needed here, too.
-        conn.setAutoCommit(false);
-
-        try (var stmt = conn.prepareStatement("SELECT * FROM tblPerson WHERE email = ? and id <> ?");) {
-            stmt.setString(1, email);
-            stmt.setInt(2, id);
-            try (var rs = stmt.executeQuery();) {
-                if (rs.next()) {
-                    conn.commit();
-                    conn.setAutoCommit(true); // return to non-transaction mode
-                    throw new RuntimeException("Email already in use");
-                }
-            }
-        }
-        try (var stmt = conn.prepareStatement("UPDATE tblPerson SET email = ?, name = ? WHERE id = ?;");) {
+        // email address, and emails must be unique. Rather than checking first
+        // (which would need a transaction), we let the UNIQUE constraint on
+        // email do the check. The person's messages in tblMessageSummary are
+        // updated by a trigger, so this is one statement. When the caller says
+        // which version it read, the update only happens if the person is
+        // still at that version.
+        try (var stmt = conn.prepareStatement("UPDATE tblPerson SET email = ?, name = ?, version = version + 1 WHERE id = ?"
+                + (version == null ? ";" : " AND version = ?;"));) {
             stmt.setString(1, email);
             stmt.setString(2, name);
             stmt.setInt(3, id);
-            stmt.executeUpdate();
-            conn.commit();
-            conn.setAutoCommit(true); // return to non-transaction mode
+            if (version != null)
+                stmt.setInt(4, version);
+            if (stmt.executeUpdate() == 1)
+                return UpdateResult.UPDATED;
+        } catch (SQLException e) {
+            if (isUniqueViolation(e))
+                return UpdateResult.DUPLICATE_EMAIL;
+            throw e;
         }
+        return version != null && getPersonVersion(id) != null ? UpdateResult.CONFLICT : UpdateResult.NOT_FOUND;
+    }
+
+    /**
+     * Get the current version of a person, which updatePerson can check
+     *
+     * @param id The Id of the person
+     *
+     * @return the version, or null if there is no such person
+     *
+     * @throws SQLException on any error
+     */
+    synchronized Integer getPersonVersion(int id) throws SQLException {
+        return getVersion("tblPerson", id);
+    }
+
+    /** Get the version of a row of tblPerson, tblMessage, or tblMessageArchive, or null */
+    private Integer getVersion(String table, int id) throws SQLException {
+        try (var stmt = conn.prepareStatement("SELECT version FROM " + table + " WHERE id = ?;")) {
+            stmt.setInt(1, id);
+            try (var rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : null;
+            }
+        }
+    }
+
+    /** The outcome of an update */
+    public static enum UpdateResult {
+        /** The row was updated */
+        UPDATED,
+        /** There is no row with that id */
+        NOT_FOUND,
+        /** The new email belongs to someone else */
+        DUPLICATE_EMAIL,
+        /** The row was changed since the caller read it */
+        CONFLICT
+    }
+
+    /** Check if an exception was caused by a UNIQUE constraint */
+    private static boolean isUniqueViolation(SQLException e) {
+        // 23505 is PostgreSQL's unique_violation; 19 is SQLITE_CONSTRAINT
+        return "23505".equals(e.getSQLState())
+                || (e.getErrorCode() == 19 && e.getMessage() != null && e.getMessage().contains("UNIQUE"));
     }
 
     /** Person is a Java object that matches the contents of tblPerson */
@@ -421,50 +870,127 @@ public class Database implements AutoCloseable {
             throws SQLException, RuntimeException {
         Database.validateSubject(subject);
         Database.validateDetails(details);
-        try (var stmt = conn.prepareStatement(
-                "INSERT INTO tblMessage (subject, details, as_of, creatorId) VALUES (?, ?, ?, ?);");) {
-            stmt.setString(1, subject);
-            stmt.setString(2, details);
-            stmt.setDate(3, new java.sql.Date(new java.util.Date().getTime()));
-            stmt.setInt(4, creatorId);
-            stmt.executeUpdate();
-        }
+        // The message and its tblMessageSummary row are created together
+        inTransaction(() -> {
+            int id = Integer.MIN_VALUE;
+            try (var stmt = conn.prepareStatement(
+                    "INSERT INTO tblMessage (subject, details, as_of, creatorId) VALUES (?, ?, ?, ?) RETURNING id;");) {
+                stmt.setString(1, subject);
+                stmt.setString(2, details);
+                stmt.setDate(3, new java.sql.Date(new java.util.Date().getTime()));
+                stmt.setInt(4, creatorId);
+                try (var rs = stmt.executeQuery()) {
+                    if (rs.next()) {
+                        id = rs.getInt(1);
+                    }
+                }
+            }
+            try (var stmt = conn.prepareStatement(Migrations.FILL_MESSAGE_SUMMARY + " WHERE tblMessage.id = ?;")) {
+                stmt.setInt(1, id);
+                stmt.executeUpdate();
+            }
+            return id;
+        });
     }
 
     /**
-     * Update a message in the database
+     * Update a message in the database. An archived message is moved back to
+     * tblMessage with its new contents, as the backend does, since it is
+     * recent again.
      *
      * @param id      The Id of the message to update
      * @param subject The subject (might be the same as before)
      * @param details The details (might be the same as before)
+     * @param version The version of the message that the caller read, or null
+     *                to update whatever the current version is
+     *
+     * @return UPDATED, NOT_FOUND, or CONFLICT
      *
      * @throws SQLException     If the message cannot be updated
      * @throws RuntimeException If the provided data is invalid
      */
-    synchronized void updateMessage(int id, String subject, String details) throws SQLException, RuntimeException {
+    synchronized UpdateResult updateMessage(int id, String subject, String details, Integer version)
+            throws SQLException, RuntimeException {
         Database.validateSubject(subject);
         Database.validateDetails(details);
-        try (var stmt = conn
-                .prepareStatement("UPDATE tblMessage SET subject = ?, details = ?, as_of = ? WHERE id = ?;");) {
+        var versionCheck = version == null ? ";" : " AND version = ?;";
+        var now = new java.sql.Date(new java.util.Date().getTime());
+        // A trigger updates the message's tblMessageSummary row
+        try (var stmt = conn.prepareStatement(
+                "UPDATE tblMessage SET subject = ?, details = ?, as_of = ?, version = version + 1 WHERE id = ?"
+                        + versionCheck);) {
             stmt.setString(1, subject);
             stmt.setString(2, details);
-            stmt.setDate(3, new java.sql.Date(new java.util.Date().getTime()));
+            stmt.setDate(3, now);
             stmt.setInt(4, id);
-            stmt.executeUpdate();
+            if (version != null)
+                stmt.setInt(5, version);
+            if (stmt.executeUpdate() == 1)
+                return UpdateResult.UPDATED;
         }
+        // The message might have been archived. If so, move it back, with its
+        // new contents. (The backend does this with one PostgreSQL statement;
+        // these statements work on SQLite, too.) The person's message count is
+        // unchanged, since the counter triggers add one for the insert and
+        // remove one for the delete.
+        boolean restored = inTransaction(() -> {
+            try (var stmt = conn.prepareStatement("""
+                    INSERT INTO tblMessage (id, subject, details, as_of, creatorId, version)
+                    SELECT id, ?, ?, ?, creatorId, version + 1 FROM tblMessageArchive WHERE id = ?"""
+                    + versionCheck)) {
+                stmt.setString(1, subject);
+                stmt.setString(2, details);
+                stmt.setDate(3, now);
+                stmt.setInt(4, id);
+                if (version != null)
+                    stmt.setInt(5, version);
+                if (stmt.executeUpdate() != 1)
+                    return false;
+            }
+            for (var sql : List.of("DELETE FROM tblMessageArchive WHERE id = ?;",
+                    Migrations.REFILL_MESSAGE_SUMMARY + " WHERE tblMessage.id = ?;")) {
+                try (var stmt = conn.prepareStatement(sql)) {
+                    stmt.setInt(1, id);
+                    stmt.executeUpdate();
+                }
+            }
+            return true;
+        });
+        if (restored)
+            return UpdateResult.UPDATED;
+        return version != null && getMessageVersion(id) != null ? UpdateResult.CONFLICT : UpdateResult.NOT_FOUND;
     }
 
     /**
-     * Delete a message from the database
+     * Get the current version of a message, whether or not it has been
+     * archived, which updateMessage can check
+     *
+     * @param id The Id of the message
+     *
+     * @return the version, or null if there is no such message
+     *
+     * @throws SQLException on any error
+     */
+    synchronized Integer getMessageVersion(int id) throws SQLException {
+        var version = getVersion("tblMessage", id);
+        return version != null ? version : getVersion("tblMessageArchive", id);
+    }
+
+    /**
+     * Delete a message from the database, whether or not it has been archived.
+     * Its tblMessageSummary row is removed by the ON DELETE CASCADE foreign key.
      *
      * @param id The Id of the message to delete
      *
      * @throws SQLException If the message cannot be deleted
      */
     synchronized void deleteMessage(int id) throws SQLException {
-        try (var stmt = conn.prepareStatement("DELETE FROM tblMessage WHERE id = ?");) {
-            stmt.setInt(1, id);
-            stmt.executeUpdate();
+        // The message might have been archived
+        for (var table : List.of("tblMessage", "tblMessageArchive")) {
+            try (var stmt = conn.prepareStatement("DELETE FROM " + table + " WHERE id = ?");) {
+                stmt.setInt(1, id);
+                stmt.executeUpdate();
+            }
         }
     }
 
@@ -473,6 +999,84 @@ public class Database implements AutoCloseable {
             String name) {
     }
 
+    /**
+     * MessageFilter narrows down a listing of messages. Null fields don't
+     * filter anything.
+     *
+     * @param creatorId only messages by this person
+     * @param from      only messages dated on or after this
+     * @param to        only messages dated on or before this
+     */
+    static record MessageFilter(Integer creatorId, Date from, Date to) {
+        /** A filter that keeps every message */
+        static final MessageFilter NONE = new MessageFilter(null, null, null);
+    }
+
+    /**
+     * Get one page of people, in id order
+     *
+     * @param afterId Only return people whose ids are greater than this (use 0
+     *                for the first page, and the last id of the previous page
+     *                after that)
+     * @param limit   The most people to return
+     *
+     * @return A List with zero or more Person objects
+     *
+     * @throws SQLException on any error
+     */
+    synchronized List<Person> getPersonPage(int afterId, int limit) throws SQLException {
+        try (var ps = conn.prepareStatement("SELECT id, email, name FROM tblPerson WHERE id > ? ORDER BY id LIMIT ?;")) {
+            ps.setInt(1, afterId);
+            ps.setInt(2, limit);
+            try (var rs = ps.executeQuery()) {
+                var results = new ArrayList<Person>(limit);
+                while (rs.next())
+                    results.add(new Person(rs.getInt("id"), rs.getString("email"), rs.getString("name")));
+                return results;
+            }
+        }
+    }
+
+    /**
+     * Get one page of the messages that match a filter, in id order. The
+     * filter is part of the query, so the database can use its indexes on
+     * creatorId and as_of, and non-matching rows never leave the database.
+     *
+     * @param filter  Which messages to return
+     * @param afterId Only return messages whose ids are greater than this
+     * @param limit   The most messages to return
+     *
+     * @return A List with zero or more Message objects
+     *
+     * @throws SQLException on any error
+     */
+    synchronized List<Message> getMessagePage(MessageFilter filter, int afterId, int limit) throws SQLException {
+        var sql = new StringBuilder("SELECT * FROM viewMessage WHERE id > ?");
+        var params = new ArrayList<Object>(List.of(afterId));
+        if (filter.creatorId() != null) {
+            sql.append(" AND creatorId = ?");
+            params.add(filter.creatorId());
+        }
+        if (filter.from() != null) {
+            sql.append(" AND as_of >= ?");
+            params.add(filter.from());
+        }
+        if (filter.to() != null) {
+            sql.append(" AND as_of <= ?");
+            params.add(filter.to());
+        }
+        sql.append(" ORDER BY id LIMIT ?;");
+        params.add(limit);
+        try (var ps = prepare(sql.toString(), params.toArray()); var rs = ps.executeQuery()) {
+            var results = new ArrayList<Message>(limit);
+            while (rs.next()) {
+                results.add(new Message(rs.getInt("id"), rs.getString("subject"), rs.getString("details"),
+                        rs.getDate("as_of"), rs.getInt("creatorId"), rs.getString("email"), rs.getString("name")));
+            }
+            return results;
+        }
+    }
+
     /**
      * Get all data for a single message
      *
@@ -484,18 +1088,28 @@ public class Database implements AutoCloseable {
      * @throws SQLException on any error
      */
     synchronized Message getOneMessage(int id) throws SQLException {
-        try (var stmt = conn.prepareStatement("SELECT * FROM viewMessage WHERE id = ?;");) {
-            stmt.setInt(1, id);
-            try (var rs = stmt.executeQuery();) {
-                if (rs.next()) {
-                    return new Message(rs.getInt("id"), rs.getString("subject"), rs.getString("details"),
-                            rs.getDate("as_of"), rs.getInt("creatorId"), rs.getString("email"), rs.getString("name"));
+        // Look in the (small) table of recent messages first, then the archive
+        for (var sql : List.of("SELECT * FROM viewMessage WHERE id = ?;", SELECT_ARCHIVED_MESSAGE)) {
+            try (var stmt = conn.prepareStatement(sql);) {
+                stmt.setInt(1, id);
+                try (var rs = stmt.executeQuery();) {
+                    if (rs.next()) {
+                        return new Message(rs.getInt("id"), rs.getString("subject"), rs.getString("details"),
+                                rs.getDate("as_of"), rs.getInt("creatorId"), rs.getString("email"),
+                                rs.getString("name"));
+                    }
                 }
             }
         }
         return null;
     }
 
+    /** Get an archived message, with the same columns as viewMessage */
+    private static final String SELECT_ARCHIVED_MESSAGE = """
+            SELECT a.id, a.subject, a.details, a.as_of, a.creatorId, p.email, p.name
+            FROM tblMessageArchive a INNER JOIN tblPerson p ON a.creatorId = p.id
+            WHERE a.id = ?;""";
+
     /**
      * Get all data for all messages in the database
      *
@@ -514,4 +1128,592 @@ public class Database implements AutoCloseable {
             return results;
         }
     }
+
+    /**
+     * ImportResult reports on a bulk import
+     *
+     * @param read     the number of rows read from the file
+     * @param inserted the number of rows that were inserted
+     * @param rejected the number of rows that were skipped (invalid, or rejected
+     *                 by a constraint)
+     * @param nanos    how long the import took
+     */
+    public static record ImportResult(long read, long inserted, long rejected, long nanos) {
+        /** The import's throughput */
+        double rowsPerSecond() {
+            return nanos == 0 ? 0 : read * 1e9 / nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("read %d rows, inserted %d, rejected %d, in %.1f ms (%.0f rows/sec)", read,
+                    inserted, rejected, nanos / 1e6, rowsPerSecond());
+        }
+    }
+
+    /**
+     * Parse an optional date from an imported row
+     *
+     * @param asOf The date, as yyyy-mm-dd, or null/empty for today
+     *
+     * @throws RuntimeException if the date is malformed
+     */
+    private static java.sql.Date parseAsOf(String asOf) throws RuntimeException {
+        if (asOf == null || asOf.isEmpty())
+            return new java.sql.Date(new java.util.Date().getTime());
+        try {
+            return java.sql.Date.valueOf(asOf);
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException("Invalid as_of");
+        }
+    }
+
+    /**
+     * Import people from a stream of rows. Each row is validated with the same
+     * rules as insertPerson. Valid rows are inserted in chunks, each in its own
+     * transaction: PostgreSQL uses COPY into a staging table, and SQLite uses a
+     * batched prepared statement. Invalid rows and rows whose email is already
+     * in use are skipped (and reported), without affecting other rows.
+     *
+     * @param rows      The rows, with fields in Importer.PERSON_COLUMNS order
+     * @param chunkSize The number of rows per transaction
+     *
+     * @return a report on the import
+     *
+     * @throws SQLException If a chunk cannot be written
+     */
+    synchronized ImportResult importPeople(java.util.Iterator<Importer.Row> rows, int chunkSize)
+            throws SQLException {
+        long start = System.nanoTime(), read = 0, inserted = 0, valid = 0;
+        var chunk = new ArrayList<String[]>(chunkSize);
+        while (rows.hasNext()) {
+            var row = rows.next();
+            ++read;
+            try {
+                if (row.error() != null)
+                    throw new RuntimeException(row.error());
+                // tblPerson holds lower-case addresses (postgres enforces it)
+                String email = row.fields().get(0) == null ? null : row.fields().get(0).toLowerCase();
+                String name = row.fields().get(1);
+                Database.validateEmail(email);
+                Database.validateName(name);
+                chunk.add(new String[] { email, name });
+                ++valid;
+            } catch (RuntimeException e) {
+                System.err.println("  line " + row.line() + ": " + e.getMessage());
+            }
+            if (chunk.size() == chunkSize) {
+                inserted += inTransaction(() -> sqlite ? batchPeople(chunk) : copyPeople(chunk));
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty())
+            inserted += inTransaction(() -> sqlite ? batchPeople(chunk) : copyPeople(chunk));
+        if (valid > inserted)
+            System.err.println("  " + (valid - inserted) + " row(s) skipped because the email was already in use");
+        return new ImportResult(read, inserted, read - inserted, System.nanoTime() - start);
+    }
+
+    /** Insert a chunk of people into SQLite with one batched statement */
+    private int batchPeople(List<String[]> chunk) throws SQLException {
+        try (var ps = conn.prepareStatement("INSERT OR IGNORE INTO tblPerson (email, name) VALUES (?, ?);")) {
+            for (var p : chunk) {
+                ps.setString(1, p[0]);
+                ps.setString(2, p[1]);
+                ps.addBatch();
+            }
+            return java.util.Arrays.stream(ps.executeBatch()).sum();
+        }
+    }
+
+    /** Insert a chunk of people into PostgreSQL with COPY and a staging table */
+    private int copyPeople(List<String[]> chunk) throws SQLException {
+        try (var ps = conn.prepareStatement(
+                "CREATE TEMP TABLE IF NOT EXISTS stagePerson (email VARCHAR(30), name VARCHAR(50));")) {
+            ps.execute();
+        }
+        try (var ps = conn.prepareStatement("TRUNCATE stagePerson;")) {
+            ps.execute();
+        }
+        var csv = new StringBuilder();
+        for (var p : chunk)
+            Csv.appendRecord(csv, p);
+        copyIn("COPY stagePerson (email, name) FROM STDIN WITH (FORMAT csv)", csv);
+        try (var ps = conn.prepareStatement("""
+                INSERT INTO tblPerson (email, name)
+                SELECT email, name FROM stagePerson
+                ON CONFLICT (email) DO NOTHING;""")) {
+            return ps.executeUpdate();
+        }
+    }
+
+    /** Send CSV text to a PostgreSQL COPY ... FROM STDIN statement */
+    private long copyIn(String sql, CharSequence csv) throws SQLException {
+        try {
+            return conn.unwrap(org.postgresql.PGConnection.class).getCopyAPI().copyIn(sql,
+                    new java.io.StringReader(csv.toString()));
+        } catch (java.io.IOException e) {
+            throw new SQLException("COPY failed", e);
+        }
+    }
+
+    /**
+     * Import messages from a stream of rows. Each row is validated with the
+     * same rules as insertMessage. Valid rows are inserted in chunks, each in
+     * its own transaction, along with their tblMessageSummary rows. Invalid
+     * rows and rows whose creatorId doesn't exist are skipped (and reported),
+     * without affecting other rows.
+     *
+     * @param rows      The rows, with fields in Importer.MESSAGE_COLUMNS order
+     * @param chunkSize The number of rows per transaction
+     *
+     * @return a report on the import
+     *
+     * @throws SQLException If a chunk cannot be written
+     */
+    synchronized ImportResult importMessages(java.util.Iterator<Importer.Row> rows, int chunkSize)
+            throws SQLException {
+        long start = System.nanoTime(), read = 0, inserted = 0, valid = 0;
+        var chunk = new ArrayList<Object[]>(chunkSize);
+        while (rows.hasNext()) {
+            var row = rows.next();
+            ++read;
+            try {
+                if (row.error() != null)
+                    throw new RuntimeException(row.error());
+                var f = row.fields();
+                Database.validateSubject(f.get(0));
+                Database.validateDetails(f.get(1));
+                int creatorId;
+                try {
+                    creatorId = Integer.parseInt(f.get(2));
+                } catch (NumberFormatException e) {
+                    throw new RuntimeException("Invalid creatorId");
+                }
+                chunk.add(new Object[] { f.get(0), f.get(1), parseAsOf(f.get(3)), creatorId });
+                ++valid;
+            } catch (RuntimeException e) {
+                System.err.println("  line " + row.line() + ": " + e.getMessage());
+            }
+            if (chunk.size() == chunkSize) {
+                inserted += inTransaction(() -> sqlite ? batchMessages(chunk) : copyMessages(chunk));
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty())
+            inserted += inTransaction(() -> sqlite ? batchMessages(chunk) : copyMessages(chunk));
+        if (valid > inserted)
+            System.err.println("  " + (valid - inserted) + " row(s) skipped because the creatorId does not exist");
+        return new ImportResult(read, inserted, read - inserted, System.nanoTime() - start);
+    }
+
+    /** Insert a chunk of messages into SQLite with one batched statement */
+    private int batchMessages(List<Object[]> chunk) throws SQLException {
+        // SQLite has one writer, so within this transaction, every new row has
+        // an id greater than the current maximum
+        long maxId;
+        try (var ps = conn.prepareStatement("SELECT COALESCE(MAX(id), 0) FROM tblMessage;");
+                var rs = ps.executeQuery()) {
+            rs.next();
+            maxId = rs.getLong(1);
+        }
+        int count;
+        try (var ps = conn.prepareStatement("""
+                INSERT INTO tblMessage (subject, details, as_of, creatorId)
+                SELECT ?, ?, ?, ? WHERE EXISTS (SELECT 1 FROM tblPerson WHERE id = ?);""")) {
+            for (var m : chunk) {
+                ps.setString(1, (String) m[0]);
+                ps.setString(2, (String) m[1]);
+                ps.setDate(3, (java.sql.Date) m[2]);
+                ps.setInt(4, (Integer) m[3]);
+                ps.setInt(5, (Integer) m[3]);
+                ps.addBatch();
+            }
+            count = java.util.Arrays.stream(ps.executeBatch()).sum();
+        }
+        try (var ps = conn.prepareStatement(Migrations.FILL_MESSAGE_SUMMARY + " WHERE tblMessage.id > ?;")) {
+            ps.setLong(1, maxId);
+            ps.executeUpdate();
+        }
+        return count;
+    }
+
+    /** Insert a chunk of messages into PostgreSQL with COPY and a staging table */
+    private int copyMessages(List<Object[]> chunk) throws SQLException {
+        try (var ps = conn.prepareStatement("""
+                CREATE TEMP TABLE IF NOT EXISTS stageMessage (
+                    subject VARCHAR(50), details VARCHAR(500), as_of DATE, creatorId INTEGER);""")) {
+            ps.execute();
+        }
+        try (var ps = conn.prepareStatement("TRUNCATE stageMessage;")) {
+            ps.execute();
+        }
+        var csv = new StringBuilder();
+        for (var m : chunk)
+            Csv.appendRecord(csv, (String) m[0], (String) m[1], m[2].toString(), m[3].toString());
+        copyIn("COPY stageMessage (subject, details, as_of, creatorId) FROM STDIN WITH (FORMAT csv)", csv);
+        // Insert the messages, and use the returned rows to fill in
+        // tblMessageSummary in the same statement
+        try (var ps = conn.prepareStatement("""
+                WITH ins AS (
+                    INSERT INTO tblMessage (subject, details, as_of, creatorId)
+                    SELECT s.subject, s.details, s.as_of, s.creatorId
+                    FROM stageMessage s INNER JOIN tblPerson p ON s.creatorId = p.id
+                    RETURNING id, subject, details, as_of, creatorId)
+                INSERT INTO tblMessageSummary (id, subject, details, as_of, creatorId, email, name)
+                SELECT ins.id, ins.subject, ins.details, ins.as_of, ins.creatorId, p.email, p.name
+                FROM ins INNER JOIN tblPerson p ON ins.creatorId = p.id;""")) {
+            return ps.executeUpdate();
+        }
+    }
+
+    /** The number of rows to fetch from the server at a time when exporting */
+    static final int EXPORT_FETCH_SIZE = 10_000;
+
+    /**
+     * Run a query and hand each row to a consumer, without ever holding more
+     * than EXPORT_FETCH_SIZE rows in memory.
+     *
+     * NB: PostgreSQL only uses a server-side cursor (and honors the fetch size)
+     * inside a transaction, so the query runs in one. SQLite always steps
+     * through its results one row at a time.
+     */
+    private long stream(String sql, RowSink sink, Object... params) throws SQLException {
+        return inTransaction(() -> {
+            try (var ps = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                ps.setFetchSize(EXPORT_FETCH_SIZE);
+                for (int i = 0; i < params.length; ++i)
+                    ps.setObject(i + 1, params[i]);
+                long count = 0;
+                try (var rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        sink.accept(rs);
+                        ++count;
+                    }
+                }
+                return count;
+            } catch (java.io.IOException e) {
+                throw new SQLException("Export failed", e);
+            }
+        });
+    }
+
+    /** A function that consumes one row of a ResultSet */
+    private interface RowSink {
+        void accept(ResultSet rs) throws SQLException, java.io.IOException;
+    }
+
+    /**
+     * Export all of tblPerson, in id order
+     *
+     * @param out Where to write the rows
+     *
+     * @return the number of rows exported
+     *
+     * @throws SQLException on any error, including an error writing the file
+     */
+    synchronized long exportPeople(Exporter out) throws SQLException {
+        return stream("SELECT id, email, name FROM tblPerson ORDER BY id;",
+                rs -> out.write(new Person(rs.getInt(1), rs.getString(2), rs.getString(3))));
+    }
+
+    /**
+     * Stream the people whose emails match a LIKE pattern, in id order
+     *
+     * @param pattern The pattern for the email address
+     * @param action  What to do with each person
+     *
+     * @return the number of people found
+     *
+     * @throws SQLException on any error
+     */
+    synchronized long forEachPersonWithEmailLike(String pattern, java.util.function.Consumer<Person> action)
+            throws SQLException {
+        return stream("SELECT id, email, name FROM tblPerson WHERE email LIKE ? ORDER BY id;",
+                rs -> action.accept(new Person(rs.getInt(1), rs.getString(2), rs.getString(3))), pattern);
+    }
+
+    /**
+     * Export all messages, archived or not, along with their creators' emails
+     * and names, in id order
+     *
+     * @param out Where to write the rows
+     *
+     * @return the number of rows exported
+     *
+     * @throws SQLException on any error, including an error writing the file
+     */
+    synchronized long exportMessages(Exporter out) throws SQLException {
+        return stream("""
+                SELECT m.id, m.subject, m.details, m.as_of, m.creatorId, p.email, p.name
+                FROM (SELECT id, subject, details, as_of, creatorId FROM tblMessage
+                      UNION ALL SELECT id, subject, details, as_of, creatorId FROM tblMessageArchive) m
+                INNER JOIN tblPerson p ON m.creatorId = p.id
+                ORDER BY m.id;""",
+                rs -> out.write(new Message(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getDate(4),
+                        rs.getInt(5), rs.getString(6), rs.getString(7))));
+    }
+
+    /**
+     * Move one batch of old messages from tblMessage to tblMessageArchive, in
+     * one short transaction. The messages' tblMessageSummary rows go away with
+     * them (ON DELETE CASCADE), so listings only ever see recent messages.
+     *
+     * On PostgreSQL, this is a single statement, and rows that another
+     * transaction has locked are skipped (they'll be moved next time). On
+     * SQLite, the newest message is never moved, because SQLite would
+     * otherwise re-use its id for the next new message.
+     *
+     * @param cutoff    Messages dated before this are moved
+     * @param batchSize The most messages to move
+     *
+     * @return the number of messages moved
+     *
+     * @throws SQLException If the messages cannot be moved
+     */
+    synchronized int archiveBatch(Date cutoff, int batchSize) throws SQLException {
+        return archiveBatch(cutoff, batchSize, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Like archiveBatch(cutoff, batchSize), but only consider messages whose
+     * ids are in [fromId, toId), so that several connections can archive
+     * different parts of the table at once
+     */
+    synchronized int archiveBatch(Date cutoff, int batchSize, long fromId, long toId) throws SQLException {
+        if (!sqlite) {
+            try (var ps = conn.prepareStatement("""
+                    WITH moved AS (
+                        DELETE FROM tblMessage WHERE id IN (
+                            SELECT id FROM tblMessage WHERE as_of < ? AND id >= ? AND id < ?
+                            ORDER BY id LIMIT ? FOR UPDATE SKIP LOCKED)
+                        RETURNING id, subject, details, as_of, creatorId, version)
+                    INSERT INTO tblMessageArchive (id, subject, details, as_of, creatorId, version)
+                    SELECT id, subject, details, as_of, creatorId, version FROM moved;""")) {
+                ps.setDate(1, cutoff);
+                ps.setLong(2, fromId);
+                ps.setLong(3, toId);
+                ps.setInt(4, batchSize);
+                return ps.executeUpdate();
+            }
+        }
+        return inTransaction(() -> {
+            var batch = """
+                    SELECT id FROM tblMessage
+                    WHERE as_of < ? AND id >= ? AND id < ? AND id < (SELECT MAX(id) FROM tblMessage)
+                    ORDER BY id LIMIT ?""";
+            try (var ps = conn.prepareStatement("""
+                    INSERT INTO tblMessageArchive (id, subject, details, as_of, creatorId, version)
+                    SELECT id, subject, details, as_of, creatorId, version FROM tblMessage
+                    WHERE id IN (""" + batch + ");")) {
+                ps.setDate(1, cutoff);
+                ps.setLong(2, fromId);
+                ps.setLong(3, toId);
+                ps.setInt(4, batchSize);
+                ps.executeUpdate();
+            }
+            // Nothing else can write in between, so this is the same batch
+            try (var ps = conn.prepareStatement("DELETE FROM tblMessage WHERE id IN (" + batch + ");")) {
+                ps.setDate(1, cutoff);
+                ps.setLong(2, fromId);
+                ps.setLong(3, toId);
+                ps.setInt(4, batchSize);
+                return ps.executeUpdate();
+            }
+        });
+    }
+
+    /**
+     * Move all messages older than a cutoff into tblMessageArchive, one batch
+     * at a time. Each batch commits on its own, and there is a pause between
+     * batches, so that other clients never wait long for a lock.
+     *
+     * @param cutoff    Messages dated before this are moved
+     * @param batchSize The most messages to move per transaction
+     * @param pauseMs   How long to wait between batches
+     *
+     * @return the number of messages moved
+     *
+     * @throws SQLException If a batch cannot be moved
+     */
+    long archiveMessages(Date cutoff, int batchSize, long pauseMs) throws SQLException, InterruptedException {
+        return archiveMessages(cutoff, batchSize, pauseMs, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Like archiveMessages(cutoff, batchSize, pauseMs), but only for messages
+     * whose ids are in [fromId, toId)
+     */
+    long archiveMessages(Date cutoff, int batchSize, long pauseMs, long fromId, long toId)
+            throws SQLException, InterruptedException {
+        long total = 0;
+        while (true) {
+            int moved = archiveBatch(cutoff, batchSize, fromId, toId);
+            total += moved;
+            if (moved < batchSize)
+                return total;
+            Thread.sleep(pauseMs);
+        }
+    }
+
+    /**
+     * CopyResult reports on copying one table from SQLite to PostgreSQL
+     *
+     * @param table    the table
+     * @param rows     the number of rows copied
+     * @param checksum a checksum of the rows, which matched on both sides
+     * @param nanos    how long the copy and the check took
+     */
+    static record CopyResult(String table, long rows, String checksum, long nanos) {
+        @Override
+        public String toString() {
+            return String.format("%-18s %9d rows in %8.1f ms (%.0f rows/sec), checksum %s", table, rows, nanos / 1e6,
+                    rows * 1e9 / Math.max(1, nanos), checksum.substring(0, 12));
+        }
+    }
+
+    /**
+     * The tables that copyFromSqlite copies, in order, and their columns.
+     * Everything else (versions, counts, tblMessageSummary, the search index)
+     * is derived, so it's rebuilt rather than copied.
+     */
+    private static final List<List<String>> COPIED_TABLES = List.of(
+            List.of("tblPerson", "id", "email", "name"),
+            List.of("tblMessage", "id", "subject", "details", "as_of", "creatorId"),
+            List.of("tblMessageArchive", "id", "subject", "details", "as_of", "creatorId"));
+
+    /**
+     * Copy every person and message from a SQLite database into this
+     * (PostgreSQL) database, keeping their ids. Rows are streamed from SQLite
+     * and written with COPY, one chunk at a time, so the data never has to fit
+     * in memory.
+     *
+     * Everything happens in one transaction. Afterwards, the id sequences are
+     * moved past the copied ids, and each table is read back from both
+     * databases and compared by row count and checksum. If anything doesn't
+     * match, the transaction is rolled back.
+     *
+     * @param source    The SQLite database
+     * @param chunkSize The number of rows per COPY
+     *
+     * @return a report for each table
+     *
+     * @throws SQLException     If the data cannot be copied
+     * @throws RuntimeException If this isn't an empty PostgreSQL database, or
+     *                          the copy doesn't match the source
+     */
+    synchronized List<CopyResult> copyFromSqlite(Database source, int chunkSize) throws SQLException {
+        if (sqlite || !source.sqlite)
+            throw new RuntimeException("Can only copy from SQLite to PostgreSQL");
+        for (var table : List.of("tblPerson", "tblMessage", "tblMessageArchive"))
+            if (idRange(table) != null)
+                throw new RuntimeException(table + " is not empty; copy into a new database");
+        return inTransaction(() -> {
+            var results = new ArrayList<CopyResult>();
+            for (var spec : COPIED_TABLES) {
+                var table = spec.get(0);
+                var columns = spec.subList(1, spec.size());
+                if (!source.hasTable(table))
+                    continue;
+                long start = System.nanoTime();
+                var select = "SELECT " + String.join(", ", columns) + " FROM " + table + " ORDER BY id;";
+                var copy = "COPY " + table + " (" + String.join(", ", columns) + ") FROM STDIN WITH (FORMAT csv)";
+                var csv = new StringBuilder();
+                long rows = 0;
+                try (var ps = source.conn.prepareStatement(select); var rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        Csv.appendRecord(csv, copiedFields(rs, columns));
+                        if (++rows % chunkSize == 0) {
+                            copyIn(copy, csv);
+                            csv.setLength(0);
+                        }
+                    }
+                }
+                if (csv.length() > 0)
+                    copyIn(copy, csv);
+
+                // Check what arrived against what was sent
+                var expected = source.checksum(select, columns);
+                var actual = checksum(select, columns);
+                if (!expected.equals(actual))
+                    throw new RuntimeException(table + " does not match after copying: expected " + expected
+                            + ", found " + actual);
+                results.add(new CopyResult(table, rows, actual.substring(actual.indexOf(' ') + 1),
+                        System.nanoTime() - start));
+            }
+
+            // New rows must get ids after the copied ones. (Archived messages
+            // keep the ids they had in tblMessage.)
+            try (var ps = conn.prepareStatement("""
+                    SELECT setval(pg_get_serial_sequence('tblPerson', 'id'), MAX(id)) FROM tblPerson
+                    HAVING MAX(id) IS NOT NULL;""")) {
+                ps.execute();
+            }
+            try (var ps = conn.prepareStatement("""
+                    SELECT setval(pg_get_serial_sequence('tblMessage', 'id'), MAX(id))
+                    FROM (SELECT id FROM tblMessage UNION ALL SELECT id FROM tblMessageArchive) m
+                    HAVING MAX(id) IS NOT NULL;""")) {
+                ps.execute();
+            }
+            try (var ps = conn.prepareStatement(Migrations.REFILL_MESSAGE_SUMMARY + ";")) {
+                ps.executeUpdate();
+            }
+            return results;
+        });
+    }
+
+    /**
+     * Read one row's fields as strings, the way PostgreSQL stores them: dates
+     * as yyyy-mm-dd, and emails in lower case
+     */
+    private static String[] copiedFields(ResultSet rs, List<String> columns) throws SQLException {
+        var fields = new String[columns.size()];
+        for (int i = 0; i < fields.length; ++i) {
+            fields[i] = switch (columns.get(i)) {
+                case "as_of" -> rs.getDate(i + 1).toString();
+                case "email" -> rs.getString(i + 1).toLowerCase();
+                default -> rs.getString(i + 1);
+            };
+        }
+        return fields;
+    }
+
+    /**
+     * Compute a checksum of a query's rows
+     *
+     * @return "{row count} {SHA-256 in hex}"
+     */
+    private String checksum(String select, List<String> columns) throws SQLException {
+        try {
+            var md = java.security.MessageDigest.getInstance("SHA-256");
+            long rows = 0;
+            try (var ps = conn.prepareStatement(select)) {
+                ps.setFetchSize(EXPORT_FETCH_SIZE);
+                try (var rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        for (var field : copiedFields(rs, columns)) {
+                            // Keep NULL and "" apart
+                            md.update(field == null ? new byte[] { 0 }
+                                    : (field + '\u001f').getBytes(java.nio.charset.StandardCharsets.UTF_8));
+                        }
+                        md.update((byte) '\n');
+                        ++rows;
+                    }
+                }
+            }
+            return rows + " " + java.util.HexFormat.of().formatHex(md.digest());
+        } catch (java.security.NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 is not available", e);
+        }
+    }
+
+    /** Check if a (SQLite) database has a table */
+    private boolean hasTable(String table) throws SQLException {
+        try (var ps = conn.prepareStatement("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = ?;")) {
+            ps.setString(1, table);
+            try (var rs = ps.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
 }
@@ -0,0 +1,192 @@
+package quickstart.admin;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import com.google.gson.Strictness;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Exporter writes rows to a CSV, JSONL, or binary file, one at a time, through
+ * a large buffer, so that tables of any size can be exported in constant
+ * memory.
+ *
+ * The format is chosen by the file's extension: ".csv", ".jsonl", or ".bin".
+ * CSV files start with a header row. Importer can read every format back:
+ * it picks the columns it needs by the CSV header or the JSON property names,
+ * and skips the rest (ids, and a message's creator email and name). Dates are
+ * written as yyyy-mm-dd. NB: a message's creatorId is imported as-is, so the
+ * people must be imported first, into a database where they get the same ids.
+ *
+ * The binary format is a DataOutputStream: the magic string "cse216", a
+ * format version (int), and then, for each row, a 1 byte followed by the
+ * row's fields. A 0 byte marks the end of the file. Strings use writeUTF, with
+ * a boolean before any field that may be null; dates are a long of
+ * milliseconds since the epoch.
+ */
+class Exporter implements AutoCloseable {
+    /** The formats that Exporter can write */
+    enum Format {
+        CSV, JSONL, BINARY
+    }
+
+    /** The version number written into binary files */
+    static final int BINARY_VERSION = 1;
+
+    /** The size of the output buffer */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** The format being written */
+    private final Format format;
+
+    /** The output, for CSV and JSONL */
+    private final Writer text;
+
+    /** The output, for binary */
+    private final DataOutputStream binary;
+
+    /** Writes JSONL objects onto `text` */
+    private final JsonWriter json;
+
+    /** A reusable buffer for building one CSV record */
+    private final StringBuilder record = new StringBuilder();
+
+    /** True once the CSV header has been written */
+    private boolean wroteHeader;
+
+    /** The number of rows written */
+    private long rows;
+
+    /**
+     * Create (or replace) a file for exporting
+     *
+     * @param file The file to write
+     *
+     * @throws IOException if the file cannot be created
+     */
+    Exporter(Path file) throws IOException {
+        this.format = formatOf(file);
+        var out = new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE);
+        if (format == Format.BINARY) {
+            this.text = null;
+            this.json = null;
+            this.binary = new DataOutputStream(out);
+            binary.writeBytes("cse216");
+            binary.writeInt(BINARY_VERSION);
+        } else {
+            this.binary = null;
+            this.text = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            this.json = new JsonWriter(text);
+            // LENIENT allows one top-level object per line
+            json.setStrictness(Strictness.LENIENT);
+        }
+    }
+
+    /** Choose a format from a file's extension */
+    static Format formatOf(Path file) {
+        var name = file.toString().toLowerCase();
+        if (name.endsWith(".jsonl"))
+            return Format.JSONL;
+        if (name.endsWith(".bin"))
+            return Format.BINARY;
+        if (name.endsWith(".csv"))
+            return Format.CSV;
+        throw new RuntimeException("Unknown export format (use .csv, .jsonl, or .bin): " + file);
+    }
+
+    /** The number of rows written so far */
+    long rows() {
+        return rows;
+    }
+
+    /** Write one row of tblPerson */
+    void write(Database.Person p) throws IOException {
+        switch (format) {
+            case CSV:
+                record.setLength(0);
+                if (!wroteHeader)
+                    Csv.appendRecord(record, "id", "email", "name");
+                wroteHeader = true;
+                Csv.appendRecord(record, Integer.toString(p.id()), p.email(), p.name());
+                text.append(record);
+                break;
+            case JSONL:
+                json.beginObject();
+                json.name("id").value(p.id());
+                json.name("email").value(p.email());
+                json.name("name").value(p.name());
+                json.endObject();
+                text.write('\n');
+                break;
+            case BINARY:
+                binary.writeByte(1);
+                binary.writeInt(p.id());
+                binary.writeUTF(p.email());
+                writeNullable(p.name());
+                break;
+        }
+        ++rows;
+    }
+
+    /** Write one message, with its creator's email and name */
+    void write(Database.Message m) throws IOException {
+        switch (format) {
+            case CSV:
+                record.setLength(0);
+                if (!wroteHeader)
+                    Csv.appendRecord(record, "id", "subject", "details", "as_of", "creatorId", "email", "name");
+                wroteHeader = true;
+                Csv.appendRecord(record, Integer.toString(m.id()), m.subject(), m.details(), m.as_of().toString(),
+                        Integer.toString(m.creatorId()), m.email(), m.name());
+                text.append(record);
+                break;
+            case JSONL:
+                json.beginObject();
+                json.name("id").value(m.id());
+                json.name("subject").value(m.subject());
+                json.name("details").value(m.details());
+                json.name("as_of").value(m.as_of().toString());
+                json.name("creatorId").value(m.creatorId());
+                json.name("email").value(m.email());
+                json.name("name").value(m.name());
+                json.endObject();
+                text.write('\n');
+                break;
+            case BINARY:
+                binary.writeByte(1);
+                binary.writeInt(m.id());
+                binary.writeUTF(m.subject());
+                binary.writeUTF(m.details());
+                binary.writeLong(m.as_of().getTime());
+                binary.writeInt(m.creatorId());
+                binary.writeUTF(m.email());
+                writeNullable(m.name());
+                break;
+        }
+        ++rows;
+    }
+
+    /** Write a string that may be null to a binary file */
+    private void writeNullable(String s) throws IOException {
+        binary.writeBoolean(s != null);
+        if (s != null)
+            binary.writeUTF(s);
+    }
+
+    /** Finish the file, and flush and close it */
+    @Override
+    public void close() throws IOException {
+        if (format == Format.BINARY) {
+            binary.writeByte(0);
+            binary.close();
+        } else {
+            text.close();
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package quickstart.admin;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Generator fills the database with synthetic people and messages, so that we
+ * can see how the apps behave at production scale.
+ *
+ * The output depends only on the seed and the distributions: the same seed
+ * always produces the same people and the same messages, no matter how many
+ * threads are used (though with many threads, messages may be assigned ids in
+ * a different order). To make that work, messages are generated in fixed-size
+ * blocks, each with its own Random derived from the seed. The blocks are split
+ * into one range per thread, and each thread writes its range over its own
+ * connection, using the bulk import path.
+ *
+ * Generated people have emails of the form u{n}@s{seed}.gen, so that a
+ * generated data set is easy to recognize, and so that different seeds can be
+ * loaded into the same database.
+ */
+class Generator {
+    /**
+     * Settings describes the data to generate
+     *
+     * @param people       the number of people to create
+     * @param messages     the number of messages to create
+     * @param seed         the seed for all random choices
+     * @param skew         how unevenly messages are spread among people: 0 is
+     *                     uniform, and 1 is Zipf-like (a few people write most of
+     *                     the messages)
+     * @param days         messages are dated uniformly over this many days, ending
+     *                     today
+     * @param detailsMean  the average length of a message's details (lengths are
+     *                     exponentially distributed, and capped at 500)
+     * @param subjectMin   the minimum length of a subject
+     * @param subjectMax   the maximum length of a subject
+     * @param threads      the number of connections to write messages over
+     * @param batchSize    the number of rows per transaction
+     */
+    static record Settings(int people, int messages, long seed, double skew, int days, int detailsMean,
+            int subjectMin, int subjectMax, int threads, int batchSize) {
+        /** Check that the settings make sense */
+        void validate() {
+            if (people < 1 || messages < 0 || skew < 0 || days < 1 || detailsMean < 1 || threads < 1
+                    || batchSize < 1 || subjectMin < 1 || subjectMax > 50 || subjectMin > subjectMax)
+                throw new RuntimeException("Invalid generator settings");
+            if (("u" + people + "@s" + seed + ".gen").length() > 30)
+                throw new RuntimeException("Seed is too large (generated emails must fit in 30 characters)");
+        }
+    }
+
+    /**
+     * Result reports on a generator run
+     *
+     * @param people   the number of people inserted
+     * @param messages the number of messages inserted
+     * @param nanos    how long it took
+     */
+    static record Result(long people, long messages, long nanos) {
+        @Override
+        public String toString() {
+            double secs = nanos / 1e9;
+            return String.format("generated %d people and %d messages in %.1f s (%.0f rows/sec)", people, messages,
+                    secs, (people + messages) / secs);
+        }
+    }
+
+    /** Words for building subjects, details, and names */
+    private static final String[] WORDS = ("lorem ipsum dolor sit amet consectetur adipiscing elit sed do eiusmod "
+            + "tempor incididunt ut labore et dolore magna aliqua enim ad minim veniam quis nostrud exercitation "
+            + "ullamco laboris nisi aliquip ex ea commodo consequat duis aute irure in reprehenderit voluptate "
+            + "velit esse cillum fugiat nulla pariatur excepteur sint occaecat cupidatat non proident").split(" ");
+
+    /** The number of messages generated from each Random */
+    private static final int BLOCK = 10_000;
+
+    /** The settings for this run */
+    private final Settings settings;
+
+    /** The domain of the generated emails */
+    private final String domain;
+
+    /**
+     * Create a generator
+     *
+     * @param settings What to generate
+     */
+    Generator(Settings settings) {
+        settings.validate();
+        this.settings = settings;
+        this.domain = "@s" + settings.seed() + ".gen";
+    }
+
+    /**
+     * Generate the people and messages
+     *
+     * @param db        The connection to use for people
+     * @param useSQLite True for SQLite, false for PostgreSQL
+     * @param dbStr     The connection string, for opening one connection per
+     *                  message-writing thread
+     *
+     * @return a report on what was generated
+     */
+    Result run(Database db, boolean useSQLite, String dbStr) throws SQLException, InterruptedException {
+        long start = System.nanoTime();
+        var people = db.importPeople(people(), settings.batchSize());
+        if (people.inserted() != settings.people())
+            throw new RuntimeException("Only " + people.inserted() + " of " + settings.people()
+                    + " people were inserted (was this seed already used?)");
+
+        // Map each generated person's number to its id
+        var ids = new int[settings.people()];
+        db.forEachPersonWithEmailLike("%" + domain,
+                p -> ids[Integer.parseInt(p.email().substring(1, p.email().indexOf('@')))] = p.id());
+        var cdf = creatorDistribution();
+
+        // SQLite allows one writer at a time, so extra threads would just wait.
+        // And if we're inside a longer transaction, other connections can't
+        // see the people we just inserted.
+        int threads = useSQLite || db.inOuterTransaction() ? 1
+                : Math.min(settings.threads(), Math.max(1, settings.messages()));
+        var pool = Executors.newFixedThreadPool(threads);
+        try {
+            var parts = new ArrayList<Future<Long>>();
+            for (int t = 0; t < threads; ++t) {
+                int blocks = (settings.messages() + BLOCK - 1) / BLOCK;
+                int from = (int) Math.min(settings.messages(), (long) blocks * t / threads * BLOCK);
+                int to = (int) Math.min(settings.messages(), (long) blocks * (t + 1) / threads * BLOCK);
+                parts.add(pool.submit(() -> {
+                    if (threads == 1)
+                        return db.importMessages(messages(from, to, ids, cdf), settings.batchSize()).inserted();
+                    try (var worker = new Database(useSQLite, dbStr)) {
+                        return worker.importMessages(messages(from, to, ids, cdf), settings.batchSize())
+                                .inserted();
+                    }
+                }));
+            }
+            long messages = 0;
+            for (var f : parts)
+                messages += f.get();
+            return new Result(people.inserted(), messages, System.nanoTime() - start);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException se)
+                throw se;
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** Produce the rows for all of the people */
+    private Iterator<Importer.Row> people() {
+        var rnd = new Random(settings.seed());
+        return new Iterator<Importer.Row>() {
+            int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < settings.people();
+            }
+
+            @Override
+            public Importer.Row next() {
+                int n = next++;
+                String name = capitalize(word(rnd)) + " " + capitalize(word(rnd));
+                return new Importer.Row(n + 1, List.of("u" + n + domain, name), null);
+            }
+        };
+    }
+
+    /**
+     * Produce the rows for messages [from, to). `from` must be the start of a
+     * block.
+     */
+    private Iterator<Importer.Row> messages(int from, int to, int[] ids, double[] cdf) {
+        var today = LocalDate.now();
+        return new Iterator<Importer.Row>() {
+            int next = from;
+            Random rnd;
+
+            @Override
+            public boolean hasNext() {
+                return next < to;
+            }
+
+            @Override
+            public Importer.Row next() {
+                int n = next++;
+                if (n % BLOCK == 0)
+                    rnd = new Random(settings.seed() * 31 + n / BLOCK + 1);
+                int subjectLength = settings.subjectMin()
+                        + rnd.nextInt(settings.subjectMax() - settings.subjectMin() + 1);
+                int detailsLength = (int) Math.min(500,
+                        1 + Math.round(-Math.log(1 - rnd.nextDouble()) * (settings.detailsMean() - 1)));
+                int creator = ids[pick(cdf, rnd.nextDouble())];
+                var asOf = today.minusDays(rnd.nextInt(settings.days()));
+                return new Importer.Row(n + 1, Arrays.asList(text(rnd, subjectLength), text(rnd, detailsLength),
+                        Integer.toString(creator), asOf.toString()), null);
+            }
+        };
+    }
+
+    /**
+     * Build the cumulative distribution for choosing a message's creator. The
+     * person with number r gets weight 1 / (r+1)^skew.
+     */
+    private double[] creatorDistribution() {
+        var cdf = new double[settings.people()];
+        double sum = 0;
+        for (int r = 0; r < cdf.length; ++r) {
+            sum += 1 / Math.pow(r + 1, settings.skew());
+            cdf[r] = sum;
+        }
+        for (int r = 0; r < cdf.length; ++r)
+            cdf[r] /= sum;
+        return cdf;
+    }
+
+    /** Find the person whose slice of the cumulative distribution contains u */
+    private static int pick(double[] cdf, double u) {
+        int i = Arrays.binarySearch(cdf, u);
+        return Math.min(cdf.length - 1, i >= 0 ? i : -i - 1);
+    }
+
+    /** Pick a random word */
+    private static String word(Random rnd) {
+        return WORDS[rnd.nextInt(WORDS.length)];
+    }
+
+    /** Capitalize the first letter of a word */
+    private static String capitalize(String w) {
+        return Character.toUpperCase(w.charAt(0)) + w.substring(1);
+    }
+
+    /** Build random text of exactly the given length */
+    private static String text(Random rnd, int length) {
+        var sb = new StringBuilder(length + 16);
+        while (sb.length() < length)
+            sb.append(word(rnd)).append(' ');
+        sb.setLength(length);
+        // Don't end on a space
+        if (sb.charAt(length - 1) == ' ')
+            sb.setCharAt(length - 1, '.');
+        return sb.toString();
+    }
+}
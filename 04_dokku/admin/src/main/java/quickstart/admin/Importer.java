@@ -0,0 +1,237 @@
+package quickstart.admin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.google.gson.JsonParser;
+
+/**
+ * Importer streams rows out of a CSV, JSONL, or binary file, one at a time, so
+ * that files of any size can be imported without loading them into memory.
+ *
+ * A CSV file has one record per row. If its first row names the columns (it
+ * contains the first of `columns`), fields are matched to columns by that
+ * header, and fields with other names (such as the "id" that Exporter writes)
+ * are ignored. Otherwise the fields are in the order given by `columns`, and
+ * trailing columns may be omitted. A JSONL file has one JSON object per line,
+ * with a property for each column; other properties are ignored. A binary
+ * file is one that Exporter wrote for the same kind of row.
+ */
+class Importer implements Iterator<Importer.Row>, AutoCloseable {
+    /**
+     * Row is one row from the file
+     *
+     * @param line   the line number where the row starts, for error messages
+     * @param fields the fields, in the order of `columns` (null when missing)
+     * @param error  a description of why the row could not be parsed, or null
+     */
+    static record Row(long line, List<String> fields, String error) {
+    }
+
+    /** The columns for importing people */
+    static final List<String> PERSON_COLUMNS = List.of("email", "name");
+
+    /** The columns for importing messages */
+    static final List<String> MESSAGE_COLUMNS = List.of("subject", "details", "creatorId", "as_of");
+
+    /** The file being read, for CSV and JSONL */
+    private final BufferedReader in;
+
+    /** The file being read, for binary */
+    private final DataInputStream binary;
+
+    /** True for JSONL, false for CSV and binary */
+    private final boolean jsonl;
+
+    /** The names of the columns to extract */
+    private final List<String> columns;
+
+    /**
+     * For CSV files with a header, the position of each column's field in a
+     * record (-1 when the header doesn't have it), and otherwise null
+     */
+    private int[] positions;
+
+    /** For CSV files with a header, the number of fields in the header */
+    private int headerSize;
+
+    /** The line number of the next row (for binary, the row number) */
+    private long line = 1;
+
+    /** The next row to return, or null if it hasn't been read yet */
+    private Row next;
+
+    /** True once the end of the file has been reached */
+    private boolean done;
+
+    /**
+     * Open a file for importing. The format is chosen by the file's extension:
+     * ".jsonl" for JSONL, ".bin" for binary, anything else for CSV.
+     *
+     * @param file    The file to read
+     * @param columns The names of the columns to extract; for binary files,
+     *                PERSON_COLUMNS or MESSAGE_COLUMNS
+     *
+     * @throws IOException if the file cannot be opened, or is not a binary
+     *                     file that this version of Exporter wrote
+     */
+    Importer(Path file, List<String> columns) throws IOException {
+        var name = file.toString().toLowerCase();
+        this.jsonl = name.endsWith(".jsonl");
+        this.columns = columns;
+        if (name.endsWith(".bin")) {
+            if (!columns.equals(PERSON_COLUMNS) && !columns.equals(MESSAGE_COLUMNS))
+                throw new IllegalArgumentException("Binary files only hold people or messages");
+            this.in = null;
+            this.binary = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+            var magic = new byte[6];
+            try {
+                binary.readFully(magic);
+                if (!"cse216".equals(new String(magic, StandardCharsets.US_ASCII))
+                        || binary.readInt() != Exporter.BINARY_VERSION)
+                    throw new IOException("Not a binary export (or from another version): " + file);
+            } catch (IOException e) {
+                binary.close();
+                throw e instanceof EOFException ? new IOException("Not a binary export: " + file) : e;
+            }
+        } else {
+            this.in = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+            this.binary = null;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !done)
+            next = read();
+        return next != null;
+    }
+
+    @Override
+    public Row next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        var result = next;
+        next = null;
+        return result;
+    }
+
+    /** Read the next non-blank row from the file, or return null at the end */
+    private Row read() {
+        try {
+            while (true) {
+                long start = line;
+                List<String> fields;
+                if (binary != null) {
+                    if (binary.readByte() == 0)
+                        break;
+                    ++line;
+                    fields = columns.equals(PERSON_COLUMNS) ? readPerson() : readMessage();
+                } else if (jsonl) {
+                    String text = in.readLine();
+                    if (text == null)
+                        break;
+                    ++line;
+                    if (text.isBlank())
+                        continue;
+                    try {
+                        var obj = JsonParser.parseString(text).getAsJsonObject();
+                        fields = new ArrayList<String>();
+                        for (var c : columns) {
+                            var v = obj.get(c);
+                            fields.add(v == null || v.isJsonNull() ? null : v.getAsString());
+                        }
+                    } catch (RuntimeException e) {
+                        return new Row(start, null, "invalid JSON");
+                    }
+                } else {
+                    fields = Csv.readRecord(in);
+                    if (fields == null)
+                        break;
+                    // Quoted fields can span lines
+                    line += 1 + fields.stream().mapToLong(f -> f.chars().filter(ch -> ch == '\n').count()).sum();
+                    if (fields.size() == 1 && fields.get(0).isBlank())
+                        continue;
+                    if (start == 1 && isHeader(fields)) {
+                        positions = new int[columns.size()];
+                        for (int i = 0; i < positions.length; ++i)
+                            positions[i] = indexOfIgnoreCase(fields, columns.get(i));
+                        headerSize = fields.size();
+                        continue;
+                    }
+                    if (fields.size() > (positions == null ? columns.size() : headerSize))
+                        return new Row(start, null, "too many fields");
+                    if (positions != null) {
+                        var byName = new ArrayList<String>(positions.length);
+                        for (int p : positions)
+                            byName.add(p >= 0 && p < fields.size() ? fields.get(p) : null);
+                        fields = byName;
+                    }
+                    while (fields.size() < columns.size())
+                        fields.add(null);
+                }
+                return new Row(start, fields, null);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        done = true;
+        return null;
+    }
+
+    /** A CSV record is a header if one of its fields names the first column */
+    private boolean isHeader(List<String> fields) {
+        return indexOfIgnoreCase(fields, columns.get(0)) >= 0;
+    }
+
+    /** The position of a name in a list, ignoring case, or -1 */
+    private static int indexOfIgnoreCase(List<String> names, String name) {
+        for (int i = 0; i < names.size(); ++i)
+            if (names.get(i).trim().equalsIgnoreCase(name))
+                return i;
+        return -1;
+    }
+
+    /** Read the fields of one person that Exporter wrote, as PERSON_COLUMNS */
+    private List<String> readPerson() throws IOException {
+        binary.readInt(); // id
+        var email = binary.readUTF();
+        return java.util.Arrays.asList(email, readNullable());
+    }
+
+    /** Read the fields of one message that Exporter wrote, as MESSAGE_COLUMNS */
+    private List<String> readMessage() throws IOException {
+        binary.readInt(); // id
+        var subject = binary.readUTF();
+        var details = binary.readUTF();
+        var asOf = new java.sql.Date(binary.readLong());
+        var creatorId = binary.readInt();
+        binary.readUTF(); // the creator's email
+        readNullable(); // and name
+        return java.util.Arrays.asList(subject, details, Integer.toString(creatorId), asOf.toString());
+    }
+
+    /** Read a string that may be null from a binary file */
+    private String readNullable() throws IOException {
+        return binary.readBoolean() ? binary.readUTF() : null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (binary != null)
+            binary.close();
+        else
+            in.close();
+    }
+}
@@ -0,0 +1,126 @@
+package quickstart.admin;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.sql.SQLException;
+
+/**
+ * Listing prints people and messages as aligned columns, one page at a time.
+ *
+ * Pages are fetched with a keyset cursor (WHERE id > {last id} ORDER BY id
+ * LIMIT {page size}), so each page costs the same no matter how deep into the
+ * table it is, and only one page is ever in memory. Output goes through a
+ * buffered PrintWriter that is flushed once per page, rather than once per
+ * line.
+ */
+class Listing {
+    /** The number of rows to fetch at a time when not pausing between pages */
+    static final int FETCH_SIZE = 1000;
+
+    /** The widest that a subject is printed */
+    private static final int SUBJECT_WIDTH = 30;
+
+    /** The widest that details are printed */
+    private static final int DETAILS_WIDTH = 40;
+
+    /** Where the rows are printed */
+    private final PrintWriter out = new PrintWriter(
+            new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16), false);
+
+    /** Where to read "next page?" answers from, or null to print everything */
+    private final BufferedReader in;
+
+    /**
+     * Create a listing
+     *
+     * @param in Where to ask if the user wants another page, or null to print
+     *           every row without stopping
+     */
+    Listing(BufferedReader in) {
+        this.in = in;
+    }
+
+    /**
+     * Print people
+     *
+     * @param db       The database
+     * @param pageSize The number of rows per page
+     *
+     * @return the number of rows printed
+     */
+    long people(Database db, int pageSize) throws SQLException, IOException {
+        out.printf("%8s  %-30s  %s%n", "id", "email", "name");
+        out.println("-".repeat(70));
+        int last = 0;
+        long count = 0;
+        while (true) {
+            var page = db.getPersonPage(last, pageSize);
+            for (var p : page)
+                out.printf("%8d  %-30s  %s%n", p.id(), p.email(), p.name());
+            count += page.size();
+            if (page.size() < pageSize || !more())
+                break;
+            last = page.get(page.size() - 1).id();
+        }
+        return done(count);
+    }
+
+    /**
+     * Print the messages that match a filter
+     *
+     * @param db       The database
+     * @param filter   Which messages to print
+     * @param pageSize The number of rows per page
+     *
+     * @return the number of rows printed
+     */
+    long messages(Database db, Database.MessageFilter filter, int pageSize) throws SQLException, IOException {
+        out.printf("%8s  %-10s  %8s  %-30s  %-30s  %s%n", "id", "as_of", "creator", "email", "subject", "details");
+        out.println("-".repeat(140));
+        int last = 0;
+        long count = 0;
+        while (true) {
+            var page = db.getMessagePage(filter, last, pageSize);
+            for (var m : page)
+                out.printf("%8d  %-10s  %8d  %-30s  %-30s  %s%n", m.id(), m.as_of(), m.creatorId(), m.email(),
+                        fit(m.subject(), SUBJECT_WIDTH), fit(m.details(), DETAILS_WIDTH));
+            count += page.size();
+            if (page.size() < pageSize || !more())
+                break;
+            last = page.get(page.size() - 1).id();
+        }
+        return done(count);
+    }
+
+    /**
+     * Flush the page, and (if there's someone to ask) ask if they want another
+     *
+     * @return true to keep going
+     */
+    private boolean more() throws IOException {
+        out.flush();
+        if (in == null)
+            return true;
+        System.out.print("-- Press enter for more, or q to stop :> ");
+        var answer = in.readLine();
+        return answer != null && !answer.strip().equalsIgnoreCase("q");
+    }
+
+    /** Print the row count and flush */
+    private long done(long count) {
+        out.println("(" + count + " row(s))");
+        out.flush();
+        return count;
+    }
+
+    /** Shorten text to a width, and put it on one line */
+    static String fit(String text, int width) {
+        if (text == null)
+            return "";
+        text = text.replace('\n', ' ').replace('\r', ' ');
+        return text.length() <= width ? text : text.substring(0, width - 3) + "...";
+    }
+}
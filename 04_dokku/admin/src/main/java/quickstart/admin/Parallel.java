@@ -0,0 +1,259 @@
+package quickstart.admin;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Parallel runs bulk maintenance (rebuilds, archival, imports) as many small
+ * partitions, spread over a pool of workers that each have their own
+ * connection. One connection means one PostgreSQL backend process, and so one
+ * core, no matter how big the job is; with a pool, every core can help.
+ *
+ * Most jobs are partitioned by id range. Each partition commits on its own, so
+ * a parallel job is not atomic: if it fails part way through, the partitions
+ * that finished stay finished, and the job can be re-run.
+ *
+ * SQLite only allows one writer at a time, so on SQLite (or when there is
+ * only one worker, or when a script's transaction is open) the partitions just
+ * run one after another, on the caller's thread and connection.
+ */
+class Parallel implements AutoCloseable {
+    /**
+     * Job is the work for one partition
+     */
+    @FunctionalInterface
+    interface Job {
+        /**
+         * Do the work on a worker's connection
+         *
+         * @return the number of rows processed
+         */
+        long run(Database db) throws SQLException, InterruptedException;
+    }
+
+    /**
+     * RangeJob is the work for one range of ids
+     */
+    @FunctionalInterface
+    interface RangeJob {
+        /**
+         * Do the work for the ids in [fromId, toId) on a worker's connection
+         *
+         * @return the number of rows processed
+         */
+        long run(Database db, long fromId, long toId) throws SQLException, InterruptedException;
+    }
+
+    /**
+     * Worker reports on what one worker did
+     *
+     * @param name       the worker's name
+     * @param partitions the number of partitions it ran
+     * @param rows       the number of rows it processed
+     * @param nanos      the time it spent running partitions
+     */
+    static record Worker(String name, long partitions, long rows, long nanos) {
+        @Override
+        public String toString() {
+            return String.format("  %-10s %6d partition(s) %10d rows in %8.1f ms (%.0f rows/sec)", name, partitions,
+                    rows, nanos / 1e6, nanos == 0 ? 0.0 : rows * 1e9 / nanos);
+        }
+    }
+
+    /**
+     * Result reports on a whole job
+     *
+     * @param rows    the number of rows processed
+     * @param nanos   how long the job took
+     * @param workers what each worker did
+     */
+    static record Result(long rows, long nanos, List<Worker> workers) {
+        @Override
+        public String toString() {
+            var sb = new StringBuilder(String.format("%d rows in %.1f ms (%.0f rows/sec) on %d worker(s)", rows,
+                    nanos / 1e6, rows * 1e9 / Math.max(1, nanos), workers.size()));
+            for (var w : workers)
+                sb.append('\n').append(w);
+            return sb.toString();
+        }
+    }
+
+    /**
+     * The number of partitions to make per worker, so that workers that finish
+     * early can help with the rest
+     */
+    static final int PARTITIONS_PER_WORKER = 4;
+
+    /** The caller's connection, for running serially */
+    private final Database db;
+
+    /** Whether the database is SQLite */
+    private final boolean useSQLite;
+
+    /** The connection string, for opening each worker's connection */
+    private final String dbStr;
+
+    /** The number of workers; 1 means serial */
+    private final int workers;
+
+    /** The pool, or null when running serially */
+    private final ForkJoinPool pool;
+
+    /** Each worker's connection */
+    private final Map<Thread, Database> connections = new ConcurrentHashMap<>();
+
+    /** What each worker has done: {partitions, rows, nanos} */
+    private final Map<String, long[]> stats = new ConcurrentHashMap<>();
+
+    /** Limits how many partitions can be waiting, so imports don't read ahead too far */
+    private final Semaphore inFlight;
+
+    /** The partitions that have been started */
+    private final List<Future<Long>> started = new ArrayList<>();
+
+    /** When the current job started */
+    private long start = System.nanoTime();
+
+    /**
+     * Create a pool of workers
+     *
+     * @param db        The caller's connection, for running serially
+     * @param useSQLite True for SQLite, false for PostgreSQL
+     * @param dbStr     The connection string, for opening more connections
+     * @param workers   The number of workers to use
+     */
+    Parallel(Database db, boolean useSQLite, String dbStr, int workers) {
+        this.db = db;
+        this.useSQLite = useSQLite;
+        this.dbStr = dbStr;
+        if (workers > 1 && useSQLite)
+            System.out.println("SQLite allows one writer at a time, so running serially");
+        else if (workers > 1 && db.inOuterTransaction())
+            System.out.println("Other connections can't join the script's transaction, so running serially");
+        this.workers = useSQLite || db.inOuterTransaction() ? 1 : Math.max(1, workers);
+        var names = new java.util.concurrent.atomic.AtomicInteger();
+        this.pool = this.workers == 1 ? null
+                : new ForkJoinPool(this.workers, p -> {
+                    var t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+                    t.setName("worker-" + names.incrementAndGet());
+                    return t;
+                }, null, false);
+        this.inFlight = new Semaphore(this.workers * PARTITIONS_PER_WORKER);
+    }
+
+    /** The number of workers that will run partitions */
+    int workers() {
+        return workers;
+    }
+
+    /**
+     * Run a partition. In parallel mode, this waits if too many partitions are
+     * already waiting, and otherwise returns right away.
+     *
+     * @param job The work for the partition
+     *
+     * @throws SQLException if running serially and the job fails
+     */
+    void submit(Job job) throws SQLException, InterruptedException {
+        if (pool == null) {
+            long t = System.nanoTime();
+            long rows = job.run(db);
+            record("main", rows, System.nanoTime() - t);
+            started.add(java.util.concurrent.CompletableFuture.completedFuture(rows));
+            return;
+        }
+        inFlight.acquire();
+        started.add(pool.submit(() -> {
+            try {
+                var worker = connections.get(Thread.currentThread());
+                if (worker == null) {
+                    worker = new Database(useSQLite, dbStr);
+                    connections.put(Thread.currentThread(), worker);
+                }
+                long t = System.nanoTime();
+                long rows = job.run(worker);
+                record(Thread.currentThread().getName(), rows, System.nanoTime() - t);
+                return rows;
+            } finally {
+                inFlight.release();
+            }
+        }));
+    }
+
+    /**
+     * Split the ids in [fromId, toId) into ranges, and run a partition for each
+     *
+     * @param fromId The smallest id
+     * @param toId   One more than the largest id
+     * @param job    The work for each range
+     */
+    void submitRanges(long fromId, long toId, RangeJob job) throws SQLException, InterruptedException {
+        int parts = workers == 1 ? 1 : workers * PARTITIONS_PER_WORKER;
+        long span = toId - fromId;
+        for (int i = 0; i < parts; ++i) {
+            long from = fromId + span * i / parts, to = fromId + span * (i + 1) / parts;
+            if (from < to)
+                submit(d -> job.run(d, from, to));
+        }
+    }
+
+    /**
+     * Wait for every partition to finish, and report on the job
+     *
+     * @return the report
+     *
+     * @throws SQLException if any partition failed
+     */
+    Result join() throws SQLException, InterruptedException {
+        long rows = 0;
+        SQLException failure = null;
+        for (var f : started) {
+            try {
+                rows += f.get();
+            } catch (ExecutionException e) {
+                var cause = e.getCause() instanceof SQLException se ? se : new SQLException(e.getCause());
+                if (failure == null)
+                    failure = cause;
+                else
+                    failure.addSuppressed(cause);
+            }
+        }
+        var report = stats.entrySet().stream().sorted(Map.Entry.comparingByKey())
+                .map(e -> new Worker(e.getKey(), e.getValue()[0], e.getValue()[1], e.getValue()[2])).toList();
+        var result = new Result(rows, System.nanoTime() - start, report);
+        started.clear();
+        stats.clear();
+        start = System.nanoTime();
+        if (failure != null)
+            throw failure;
+        return result;
+    }
+
+    /** Add one partition's numbers to its worker's totals */
+    private void record(String worker, long rows, long nanos) {
+        var s = stats.computeIfAbsent(worker, k -> new long[3]);
+        synchronized (s) {
+            s[0]++;
+            s[1] += rows;
+            s[2] += nanos;
+        }
+    }
+
+    /** Stop the workers, and close their connections */
+    @Override
+    public void close() throws Exception {
+        if (pool == null)
+            return;
+        pool.shutdown();
+        pool.awaitTermination(1, java.util.concurrent.TimeUnit.MINUTES);
+        for (var worker : connections.values())
+            worker.close();
+    }
+}
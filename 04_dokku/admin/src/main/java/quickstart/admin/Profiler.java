@@ -0,0 +1,157 @@
+package quickstart.admin;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Profiler shows how the database runs the queries that the backends issue
+ * most often, so that when an endpoint is slow we can see whether the plan is
+ * the problem.
+ *
+ * For each query, it prints the plan (EXPLAIN (ANALYZE, BUFFERS) on
+ * PostgreSQL, or EXPLAIN QUERY PLAN on SQLite), and then a table with the
+ * planner's row estimate, the actual row count, and latency percentiles from
+ * running the query several times.
+ *
+ * NB: These are exact copies of the backends' SQL (minus the trailing ';'),
+ * with the same '?' parameters, so that the plans are the ones the backends
+ * get. When a backend's queries change, change them here, too.
+ */
+class Profiler {
+    /**
+     * Query is one of the backends' queries
+     *
+     * @param name   a short name, for reporting
+     * @param sql    the SQL, without a trailing ';'
+     * @param params the parameters for the '?'s
+     */
+    static record Query(String name, String sql, Object... params) {
+    }
+
+    /**
+     * Plan is how the database said it would run (or ran) a query
+     *
+     * @param lines         the plan, one line per step
+     * @param estimatedRows the planner's estimate of the number of rows, or -1
+     *                      if the database doesn't say
+     * @param actualRows    the number of rows that came back
+     * @param executionMs   the time the database reports for running the
+     *                      query, or -1 if it doesn't say
+     */
+    static record Plan(List<String> lines, long estimatedRows, long actualRows, double executionMs) {
+    }
+
+    /** The page size to search with (the backend's default, SEARCH_PAGE_SIZE) */
+    private static final int SEARCH_LIMIT = 20;
+
+    /** The database */
+    private final Database db;
+
+    /** True for SQLite, false for PostgreSQL */
+    private final boolean useSQLite;
+
+    /**
+     * Create a profiler
+     *
+     * @param db        The database
+     * @param useSQLite True for SQLite, false for PostgreSQL
+     */
+    Profiler(Database db, boolean useSQLite) {
+        this.db = db;
+        this.useSQLite = useSQLite;
+    }
+
+    /**
+     * Build the list of queries to profile, with parameters that match real
+     * rows where possible
+     */
+    List<Query> queries() throws SQLException {
+        var messages = db.idRange("tblMessage");
+        var people = db.idRange("tblPerson");
+        // The newest message is never archived, and people are rarely deleted,
+        // so these lookups should find something
+        int messageId = messages == null ? 1 : (int) messages[1];
+        int personId = people == null ? 1 : (int) ((people[0] + people[1]) / 2);
+        var person = db.getOnePerson(personId);
+        String email = person == null ? "nobody@example.com" : person.email();
+        String term = "lorem";
+
+        var list = new ArrayList<Query>();
+        list.add(new Query("viewMessage listing", "SELECT * FROM viewMessage ORDER BY as_of DESC"));
+        if (useSQLite) {
+            list.add(new Query("message by id", "SELECT * FROM viewMessage WHERE id = ?", messageId));
+            list.add(new Query("message search", """
+                    SELECT tblMessage.id, tblMessage.subject, tblMessage.as_of,
+                        snippet(tblMessageSearch, 1, '[', ']', '...', 12) AS snippet
+                    FROM tblMessageSearch INNER JOIN tblMessage ON tblMessage.id = tblMessageSearch.rowid
+                    WHERE tblMessageSearch MATCH ?
+                    ORDER BY bm25(tblMessageSearch), tblMessage.id DESC
+                    LIMIT ? OFFSET ?""", "\"" + term + "\"", SEARCH_LIMIT, 0));
+        } else {
+            list.add(new Query("message listing",
+                    "SELECT id, subject, as_of FROM tblMessageSummary ORDER BY as_of DESC"));
+            list.add(new Query("message by id", "SELECT * FROM tblMessageSummary WHERE id = ?", messageId));
+            list.add(new Query("archived message by id", """
+                    SELECT a.id, a.subject, a.details, a.as_of, a.creatorId, p.email, p.name, a.version
+                    FROM tblMessageArchive a INNER JOIN tblPerson p ON a.creatorId = p.id
+                    WHERE a.id = ?""", messageId));
+            list.add(new Query("message search", """
+                    SELECT m.id, m.subject, m.as_of,
+                        ts_headline('english', m.details, query,
+                            'StartSel=[, StopSel=], MinWords=4, MaxWords=12') AS snippet
+                    FROM (SELECT id, subject, details, as_of, search FROM tblMessage
+                          UNION ALL SELECT id, subject, details, as_of, search FROM tblMessageArchive) m,
+                        websearch_to_tsquery('english', ?) query
+                    WHERE m.search @@ query
+                    ORDER BY ts_rank(m.search, query) DESC, m.id DESC
+                    LIMIT ? OFFSET ?""", term, SEARCH_LIMIT, 0));
+        }
+        list.add(new Query("people listing",
+                "SELECT id, name, messageCount, lastActivity FROM tblPerson ORDER BY name"));
+        list.add(new Query("person by id", "SELECT * FROM tblPerson WHERE id = ?", personId));
+        list.add(new Query("person by email", "SELECT * FROM tblPerson WHERE email = ?", email));
+        return list;
+    }
+
+    /**
+     * Profile every query, and print the report
+     *
+     * @param repeat The number of times to run each query for the latency
+     *               percentiles
+     */
+    void run(int repeat) throws SQLException {
+        if (repeat < 1)
+            throw new RuntimeException("Invalid repeat count");
+        var rows = new ArrayList<String>();
+        for (var q : queries()) {
+            var plan = db.explain(q.sql(), q.params());
+            System.out.println("== " + q.name());
+            for (var line : plan.lines())
+                System.out.println("   " + line);
+            // Run it once first, so the percentiles don't include a cold cache
+            db.timeQuery(q.sql(), q.params());
+            var nanos = new long[repeat];
+            for (int i = 0; i < repeat; ++i)
+                nanos[i] = db.timeQuery(q.sql(), q.params());
+            Arrays.sort(nanos);
+            rows.add(String.format("%-24s %9s %9d %9s %9.3f %9.3f %9.3f %9.3f", q.name(),
+                    plan.estimatedRows() < 0 ? "-" : Long.toString(plan.estimatedRows()), plan.actualRows(),
+                    plan.executionMs() < 0 ? "-" : String.format("%.3f", plan.executionMs()),
+                    percentile(nanos, 50) / 1e6, percentile(nanos, 90) / 1e6, percentile(nanos, 99) / 1e6,
+                    nanos[repeat - 1] / 1e6));
+        }
+        System.out.println();
+        System.out.printf("%-24s %9s %9s %9s %9s %9s %9s %9s  (%d runs each, times in ms)%n", "query", "est rows",
+                "rows", "exec", "p50", "p90", "p99", "max", repeat);
+        for (var row : rows)
+            System.out.println(row);
+    }
+
+    /** Find a percentile of some sorted numbers, by the nearest-rank method */
+    static long percentile(long[] sorted, double p) {
+        int rank = (int) Math.ceil(p / 100 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+}
@@ -0,0 +1,114 @@
+package quickstart.admin;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+
+/**
+ * Script reads admin commands from a file instead of from the keyboard, so
+ * that maintenance jobs and benchmarks can run unattended (e.g., from cron).
+ *
+ * Each record of the script is one command followed by the fields that the
+ * command would have prompted for, written as CSV:
+ *
+ * <pre>
+ * # comments and blank lines are skipped
+ * +p,alice@example.com,Alice
+ * +m,"Hello, world",My first message,1
+ * Im,messages.csv
+ * </pre>
+ *
+ * Script is a BufferedReader, so the menu code can read fields from it exactly
+ * as it reads them from the keyboard. A command may only read the fields on
+ * its own line, and must read all of them.
+ */
+class Script extends BufferedReader {
+    /** The fields of the current command that haven't been read yet */
+    private List<String> fields = List.of();
+
+    /** The number of fields of the current command that have been read */
+    private int next;
+
+    /** The line number where the current command starts */
+    private long line;
+
+    /** The line number where the next record starts */
+    private long nextLine = 1;
+
+    /**
+     * Create a script that reads from a file (or stdin)
+     *
+     * @param in The script's text
+     */
+    Script(Reader in) {
+        super(in);
+    }
+
+    /**
+     * Move to the next command in the script
+     *
+     * @return the command, or null at the end of the script
+     *
+     * @throws IOException if the script cannot be read
+     */
+    String nextCommand() throws IOException {
+        while (true) {
+            line = nextLine;
+            var record = Csv.readRecord(new LineCounter());
+            if (record == null)
+                return null;
+            var first = record.get(0).strip();
+            if ((record.size() == 1 && first.isEmpty()) || first.startsWith("#"))
+                continue;
+            fields = record;
+            next = 1;
+            return first;
+        }
+    }
+
+    /**
+     * Make sure that the current command used all of its fields
+     *
+     * @throws RuntimeException if it didn't
+     */
+    void endCommand() {
+        if (next < fields.size())
+            throw new RuntimeException("Too many fields for '" + fields.get(0).strip() + "'");
+    }
+
+    /** The line number where the current command starts, for error messages */
+    long line() {
+        return line;
+    }
+
+    /**
+     * Read the next field of the current command
+     *
+     * @throws IOException if the command has no more fields
+     */
+    @Override
+    public String readLine() throws IOException {
+        if (next >= fields.size())
+            throw new IOException("Not enough fields for '" + (fields.isEmpty() ? "" : fields.get(0).strip()) + "'");
+        return fields.get(next++);
+    }
+
+    /**
+     * LineCounter hands the script's raw lines to Csv.readRecord, and counts
+     * them so that errors can report where they happened
+     */
+    private class LineCounter extends BufferedReader {
+        LineCounter() {
+            super(Script.this, 1);
+        }
+
+        @Override
+        public String readLine() throws IOException {
+            String s = Script.super.readLine();
+            if (s != null)
+                ++nextLine;
+            return s;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package quickstart.admin;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * SqliteProfile is a named set of PRAGMAs that trade durability against
+ * throughput. A profile is applied to each connection right after it opens.
+ *
+ * - DEFAULT: SQLite's own settings (rollback journal, synchronous=FULL). Every
+ * commit is durable, and readers block writers.
+ *
+ * - DURABLE: WAL journal with synchronous=FULL. Every commit is still durable,
+ * but readers and the writer no longer block each other.
+ *
+ * - BALANCED: WAL journal with synchronous=NORMAL, plus a bigger cache, memory
+ * mapping, and in-memory temp tables. The database can't be corrupted, but a
+ * power loss may roll back the last few commits. This is usually the right
+ * choice for a web backend.
+ *
+ * - FAST: like BALANCED, but with synchronous=OFF. An OS crash or power loss
+ * can corrupt the database. Only use this for data that can be rebuilt (e.g.,
+ * loading test data).
+ *
+ * Every profile turns on foreign keys, which SQLite requires on every
+ * connection.
+ */
+enum SqliteProfile {
+    DEFAULT(),
+    DURABLE("journal_mode = WAL", "synchronous = FULL", "busy_timeout = 5000"),
+    BALANCED("journal_mode = WAL", "synchronous = NORMAL", "busy_timeout = 5000", "cache_size = -16000",
+            "mmap_size = 268435456", "temp_store = MEMORY"),
+    FAST("journal_mode = WAL", "synchronous = OFF", "busy_timeout = 5000", "cache_size = -64000",
+            "mmap_size = 1073741824", "temp_store = MEMORY");
+
+    /** The PRAGMAs that are reported at startup */
+    private static final List<String> REPORTED = List.of("foreign_keys", "journal_mode", "synchronous", "busy_timeout",
+            "cache_size", "mmap_size", "temp_store");
+
+    /** The PRAGMA assignments for this profile, without the "PRAGMA" */
+    private final List<String> pragmas;
+
+    SqliteProfile(String... pragmas) {
+        this.pragmas = List.of(pragmas);
+    }
+
+    /**
+     * Find a profile by name (case-insensitive). A null name means DEFAULT.
+     *
+     * @throws RuntimeException if there is no profile with that name
+     */
+    static SqliteProfile of(String name) {
+        if (name == null)
+            return DEFAULT;
+        try {
+            return valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException("Unknown SQLite profile: " + name);
+        }
+    }
+
+    /**
+     * Apply the profile to a connection
+     *
+     * @param conn A newly-opened SQLite connection
+     *
+     * @throws SQLException if any PRAGMA fails
+     */
+    void apply(Connection conn) throws SQLException {
+        // NB: SQLite is odd: we need to opt-in for referential integrity
+        try (var ps = conn.prepareStatement("PRAGMA foreign_keys = ON;")) {
+            ps.execute();
+        }
+        for (var pragma : pragmas) {
+            // Some PRAGMAs (e.g., journal_mode) return a row, so use execute()
+            try (var ps = conn.prepareStatement("PRAGMA " + pragma + ";")) {
+                ps.execute();
+            }
+        }
+    }
+
+    /**
+     * Describe the settings that are actually in effect on a connection
+     *
+     * @param conn A SQLite connection
+     *
+     * @return a string like "journal_mode=wal synchronous=1 ..."
+     *
+     * @throws SQLException if any PRAGMA cannot be read
+     */
+    static String report(Connection conn) throws SQLException {
+        var sb = new StringBuilder();
+        for (var pragma : REPORTED) {
+            try (var ps = conn.prepareStatement("PRAGMA " + pragma + ";");
+                    var rs = ps.executeQuery()) {
+                sb.append(sb.length() == 0 ? "" : " ").append(pragma).append('=')
+                        .append(rs.next() ? rs.getString(1) : "?");
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -2,14 +2,13 @@ package quickstart.admin;
 
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
-import java.io.File;
+import java.nio.file.Path;
 import java.sql.SQLException;
 
 import org.junit.jupiter.api.AfterAll;
@@ -19,49 +18,43 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
 
 import quickstart.admin.Database.Person;
 
 /**
  * Unit test for simple App.
- * Creates a shared test db for all tests in initAll, and deletes it at the end
- * in tearDownAll.
+ * Creates a shared SQLite test db in a temporary folder for all tests in
+ * initAll, and closes it at the end in tearDownAll (JUnit deletes the folder).
  * To better isolate each test, the tables and views are dropped after each
- * test, and recreated (empty) before each test begins.
+ * test, and recreated (empty, with every migration applied) before each test
+ * begins.
  * See https://docs.junit.org/current/user-guide/#writing-tests
  */
-@Disabled("This class is part of a feature still in development")
-// TODO: fixme
 public class AppTest {
 
     /**
      * rather than mocking, we share among tests a newly constructed database object
      */
     static Database db = null;
-    /**
-     * the test db has its own filename based on system time; we track it so we can
-     * delete it when finished
-     */
-    static String dbFileName = null;
+    /** The folder for the test db; JUnit deletes it when the tests finish */
+    @TempDir
+    static Path tempDir;
 
-    /**
-     * Ensure that DB_FILE env var is provided, has 1 or more characters, then
-     * create a db just for testing
-     */
+    /** Create a db just for testing */
     @BeforeAll
     static void initAll() {
-        String dbFile = System.getenv("DB_FILE");
-        assertNotNull(dbFile, "Missing environment variable: DB_FILE.");
-        assertFalse(dbFile.length() == 0, "DB_FILE should be 1 or more characters.");
-        dbFileName = String.format("%s_junit_%d.db", dbFile, System.currentTimeMillis());
+        String dbFileName = tempDir.resolve("admin_junit.db").toString();
         try {
-            assertDoesNotThrow(() -> db = new Database(dbFileName), "Exception thrown while creating test db.");
+            assertDoesNotThrow(() -> db = new Database(true, dbFileName), "Exception thrown while creating test db.");
         } catch (Exception e) {
             System.err.println("ERROR: AppTest.initAll failed to establish test database connection.");
         }
     }
 
-    /** Shuts down the database and deletes the file */
+    /** Shuts down the database, so that its folder can be deleted */
     @AfterAll
     static void tearDownAll() throws Exception {
         System.out.println("Cleaning up: Shutting down the test database.");
@@ -72,17 +65,6 @@ public class AppTest {
                 System.err.println("WARNING: problem closing test database.");
             }
         }
-        if (dbFileName != null) {
-            java.io.File dbFileToDelete = new File(dbFileName);
-            if (dbFileToDelete.exists()) {
-                System.out.println("Cleaning up: deleting " + dbFileName);
-                if (dbFileToDelete.delete()) {
-                    System.out.println("  Delete test database successful.");
-                } else {
-                    System.err.println("WARNING: could not delete test db " + dbFileName);
-                }
-            }
-        }
     }
 
     /** Ensures before each test that db exists, and has fresh tables and views */
@@ -93,6 +75,7 @@ public class AppTest {
         if (db != null) {
             assertDoesNotThrow(() -> db.createTables());
             assertDoesNotThrow(() -> db.createViews());
+            assertDoesNotThrow(() -> db.migrate());
         }
     }
 
@@ -125,15 +108,6 @@ public class AppTest {
         assertTrue(true);
     }
 
-    /** The app expects env var DB_FILE to exist; this ensures it does. */
-    @Test
-    @DisplayName("Verify environment variable DB_FILE")
-    public void checkEnv_DB_FILE() {
-        String dbFile = System.getenv("DB_FILE");
-        assertNotNull(dbFile, "Missing environment variable: DB_FILE.");
-        assertTrue(dbFile.length() >= 1, "DB_FILE should be 1 or more characters.");
-    }
-
     /**
      * Database::insertPerson should not be able to insert person with null email
      */
@@ -174,7 +148,7 @@ public class AppTest {
      * Should not be able to update a person's email to one in use by another user
      */
     @Test
-    @DisplayName("updatePerson should throw if the email is already in use")
+    @DisplayName("updatePerson should refuse an email that is already in use")
     public void givenPerson_whenChangingEmailToOneInUse_thenRejectUpdate() {
         assertNotNull(db);
         final String sEmail1 = "test1@email.com", sName1 = "test person1";
@@ -186,8 +160,41 @@ public class AppTest {
             return db.insertPerson(sEmail2, sName2);
         });
         assertNotEquals(idUser1, idUser2, "Two distinct users should not get the same id upon creation.");
-        var ex = assertThrows(RuntimeException.class, () -> db.updatePerson(idUser2, sEmail1, sName2));
-        assertEquals("Email already in use", ex.getMessage());
+        // The UNIQUE constraint does the check, and updatePerson reports it
+        var result = assertDoesNotThrow(() -> db.updatePerson(idUser2, sEmail1, sName2, null));
+        assertEquals(Database.UpdateResult.DUPLICATE_EMAIL, result);
+    }
+
+    /** An update based on an old read of a person should not overwrite newer changes */
+    @Test
+    @DisplayName("updatePerson should report a conflict when the person changed after it was read")
+    public void givenStaleVersion_whenUpdatingPerson_thenConflict() throws SQLException {
+        int id = db.insertPerson("test1@email.com", "test person1");
+        int version = db.getPersonVersion(id);
+        assertEquals(Database.UpdateResult.UPDATED, db.updatePerson(id, "test1@email.com", "first edit", version));
+        assertEquals(version + 1, db.getPersonVersion(id));
+        // A second edit based on the same read loses, and changes nothing
+        assertEquals(Database.UpdateResult.CONFLICT, db.updatePerson(id, "test1@email.com", "second edit", version));
+        assertEquals("first edit", db.getOnePerson(id).name());
+        assertEquals(Database.UpdateResult.NOT_FOUND, db.updatePerson(id + 1, "test2@email.com", "nobody", version));
+        assertNull(db.getPersonVersion(id + 1));
+    }
+
+    /** An update based on an old read of a message should not overwrite newer changes */
+    @Test
+    @DisplayName("updateMessage should report a conflict when the message changed after it was read")
+    public void givenStaleVersion_whenUpdatingMessage_thenConflict() throws SQLException {
+        int creatorId = db.insertPerson("test1@email.com", "test person1");
+        db.insertMessage("subject", "details", creatorId);
+        int id = db.getAllMessage().get(0).id();
+        int version = db.getMessageVersion(id);
+        assertEquals(Database.UpdateResult.UPDATED, db.updateMessage(id, "subject", "first edit", version));
+        assertEquals(Database.UpdateResult.CONFLICT, db.updateMessage(id, "subject", "second edit", version));
+        assertEquals("first edit", db.getOneMessage(id).details());
+        // Without a version, the update always happens
+        assertEquals(Database.UpdateResult.UPDATED, db.updateMessage(id, "subject", "third edit", null));
+        assertEquals(version + 2, db.getMessageVersion(id));
+        assertEquals(Database.UpdateResult.NOT_FOUND, db.updateMessage(id + 1, "subject", "details", version));
     }
 
     /**
@@ -305,4 +312,330 @@ public class AppTest {
         assertEquals(ex.getMessage(),
                 "[SQLITE_CONSTRAINT_FOREIGNKEY] A foreign key constraint failed (FOREIGN KEY constraint failed)");
     }
+
+    /** Email lookups should use the UNIQUE index, and nothing else should be kept for them */
+    @Test
+    @DisplayName("email lookups should use the UNIQUE index, and the lower(email) index should be gone")
+    public void givenMigratedDb_whenLookingUpByEmail_thenUseUniqueIndex() throws SQLException {
+        var plan = db.explain("SELECT * FROM tblPerson WHERE email = ?", "someone@example.com");
+        assertTrue(String.join("\n", plan.lines()).contains("sqlite_autoindex_tblPerson"), plan.lines().toString());
+        var leftover = db.explain("SELECT name FROM sqlite_master WHERE type = 'index' AND name = ?",
+                "idxPersonLowerEmail");
+        assertEquals(0, leftover.actualRows());
+    }
+
+    /** Whatever Exporter writes, Importer should read back into the same rows */
+    @ParameterizedTest(name = "export and import a .{0} file")
+    @ValueSource(strings = { "csv", "jsonl", "bin" })
+    @DisplayName("an exported file should import into an empty database as the same rows")
+    public void givenExportedFile_whenImportingIntoEmptyDb_thenGetSameRows(String extension) throws Exception {
+        int id1 = db.insertPerson("first@email.com", "Last, First \"Nick\"");
+        int id2 = db.insertPerson("second@email.com", "second person");
+        db.insertMessage("hello, world", "two\nlines", id1);
+        db.insertMessage("\"quoted\"", "details", id2);
+        db.insertMessage("third", "by the first person", id1);
+        var people = db.getAllPerson();
+        var messages = db.getAllMessage();
+
+        var peopleFile = tempDir.resolve("people." + extension);
+        var messagesFile = tempDir.resolve("messages." + extension);
+        try (var out = new Exporter(peopleFile)) {
+            assertEquals(2, db.exportPeople(out));
+        }
+        try (var out = new Exporter(messagesFile)) {
+            assertEquals(3, db.exportMessages(out));
+        }
+
+        tearDownEach();
+        initEach();
+        try (var rows = new Importer(peopleFile, Importer.PERSON_COLUMNS)) {
+            var result = db.importPeople(rows, 10);
+            assertEquals(2, result.read());
+            assertEquals(2, result.inserted());
+        }
+        try (var rows = new Importer(messagesFile, Importer.MESSAGE_COLUMNS)) {
+            var result = db.importMessages(rows, 10);
+            assertEquals(3, result.read());
+            assertEquals(3, result.inserted());
+        }
+        assertEquals(people, db.getAllPerson());
+        // Dates are exported as days, so compare them as days
+        assertEquals(messages.toString(), db.getAllMessage().toString());
+    }
+
+    /** Archiving a message shouldn't drop it from exports */
+    @Test
+    @DisplayName("exportMessages should include archived messages")
+    public void givenArchivedMessages_whenExporting_thenIncludeThem() throws Exception {
+        int id = db.insertPerson("old@email.com", "old poster");
+        var rows = java.util.List.of(
+                new Importer.Row(1, java.util.List.of("first", "details", Integer.toString(id), "2020-01-01"), null),
+                new Importer.Row(2, java.util.List.of("second", "details", Integer.toString(id), "2020-01-02"), null),
+                new Importer.Row(3, java.util.List.of("third", "details", Integer.toString(id), "2020-01-03"), null));
+        assertEquals(3, db.importMessages(rows.iterator(), 10).inserted());
+        // SQLite never archives the newest message
+        assertEquals(2, db.archiveBatch(java.sql.Date.valueOf("2021-01-01"), 10));
+        assertEquals(1, db.getAllMessage().size());
+
+        var file = tempDir.resolve("archived.csv");
+        try (var out = new Exporter(file)) {
+            assertEquals(3, db.exportMessages(out));
+        }
+        var subjects = new java.util.ArrayList<String>();
+        try (var in = new Importer(file, Importer.MESSAGE_COLUMNS)) {
+            in.forEachRemaining(r -> subjects.add(r.fields().get(0)));
+        }
+        assertEquals(java.util.List.of("first", "second", "third"), subjects);
+    }
+
+    /**
+     * Read a person's messageCount and lastActivity (as "count|yyyy-mm-dd"),
+     * through a second connection, the way another program would see them
+     */
+    private static String stats(int personId) throws SQLException {
+        try (var conn = java.sql.DriverManager.getConnection("jdbc:sqlite:" + tempDir.resolve("admin_junit.db"));
+                var ps = conn.prepareStatement("SELECT messageCount, lastActivity FROM tblPerson WHERE id = ?;")) {
+            ps.setInt(1, personId);
+            try (var rs = ps.executeQuery()) {
+                assertTrue(rs.next());
+                return rs.getInt(1) + "|" + rs.getDate(2);
+            }
+        }
+    }
+
+    /** Run one statement through a second connection, like a hand-written fix would */
+    private static void execute(String sql, Object... params) throws SQLException {
+        try (var conn = java.sql.DriverManager.getConnection("jdbc:sqlite:" + tempDir.resolve("admin_junit.db"));
+                var ps = conn.prepareStatement(sql)) {
+            for (int i = 0; i < params.length; ++i)
+                ps.setObject(i + 1, params[i]);
+            assertEquals(1, ps.executeUpdate());
+        }
+    }
+
+    /** A message row for importMessages */
+    private static Importer.Row messageRow(String subject, int creatorId, String asOf) {
+        return new Importer.Row(1, java.util.List.of(subject, "details", Integer.toString(creatorId), asOf), null);
+    }
+
+    /** The id of the (only) message with a subject, archived or not */
+    private static int messageId(String subject) throws SQLException {
+        try (var conn = java.sql.DriverManager.getConnection("jdbc:sqlite:" + tempDir.resolve("admin_junit.db"));
+                var ps = conn.prepareStatement("""
+                        SELECT id FROM tblMessage WHERE subject = ?
+                        UNION ALL SELECT id FROM tblMessageArchive WHERE subject = ?;""")) {
+            ps.setString(1, subject);
+            ps.setString(2, subject);
+            try (var rs = ps.executeQuery()) {
+                assertTrue(rs.next());
+                return rs.getInt(1);
+            }
+        }
+    }
+
+    /** The counter triggers should keep messageCount and lastActivity exact */
+    @Test
+    @DisplayName("messageCount and lastActivity should follow inserts, deletes, moves and archiving")
+    public void givenMessageChanges_whenTriggersRun_thenCountersMatchReconcile() throws Exception {
+        int p1 = db.insertPerson("first@email.com", "first");
+        int p2 = db.insertPerson("second@email.com", "second");
+        assertEquals("0|null", stats(p1));
+
+        // Inserts count, and move lastActivity forward only
+        db.importMessages(java.util.List.of(messageRow("a", p1, "2020-01-01"), messageRow("b", p1, "2020-02-01"),
+                messageRow("c", p2, "2020-03-01"), messageRow("d", p1, "2019-12-01")).iterator(), 10);
+        assertEquals("3|2020-02-01", stats(p1));
+        assertEquals("1|2020-03-01", stats(p2));
+        assertEquals(0, db.reconcilePersonStats());
+
+        // Deleting the latest message moves lastActivity back
+        db.deleteMessage(messageId("b"));
+        assertEquals("2|2020-01-01", stats(p1));
+        assertEquals(0, db.reconcilePersonStats());
+
+        // Changing a message's creator moves it between counters
+        execute("UPDATE tblMessage SET creatorId = ? WHERE id = ?;", p2, messageId("a"));
+        assertEquals("1|2019-12-01", stats(p1));
+        assertEquals("2|2020-03-01", stats(p2));
+        assertEquals(0, db.reconcilePersonStats());
+
+        // Changing a message's date can move lastActivity either way
+        execute("UPDATE tblMessage SET as_of = ? WHERE id = ?;", java.sql.Date.valueOf("2019-01-01"), messageId("c"));
+        assertEquals("2|2020-01-01", stats(p2));
+        execute("UPDATE tblMessage SET as_of = ? WHERE id = ?;", java.sql.Date.valueOf("2020-04-01"), messageId("d"));
+        assertEquals("1|2020-04-01", stats(p1));
+        assertEquals(0, db.reconcilePersonStats());
+
+        // Archiving doesn't change the counters, and archived messages still
+        // count when they are deleted (SQLite never archives the newest
+        // message, so add one)
+        db.importMessages(java.util.List.of(messageRow("e", p1, "2020-05-01")).iterator(), 10);
+        assertEquals(3, db.archiveBatch(java.sql.Date.valueOf("2021-01-01"), 10));
+        assertEquals("2|2020-05-01", stats(p1));
+        assertEquals("2|2020-01-01", stats(p2));
+        assertEquals(0, db.reconcilePersonStats());
+        db.deleteMessage(messageId("a"));
+        assertEquals("1|2019-01-01", stats(p2));
+        assertEquals(0, db.reconcilePersonStats());
+    }
+
+    /** Counters that drift (for example, through a bulk fix with triggers off) should be rebuilt */
+    @Test
+    @DisplayName("reconcilePersonStats should fix counters that are wrong, and only those")
+    public void givenWrongCounters_whenReconciling_thenFixThem() throws Exception {
+        int p1 = db.insertPerson("first@email.com", "first");
+        int p2 = db.insertPerson("second@email.com", "second");
+        db.importMessages(java.util.List.of(messageRow("a", p1, "2020-01-01")).iterator(), 10);
+        execute("UPDATE tblPerson SET messageCount = 7, lastActivity = NULL WHERE id = ?;", p1);
+        assertEquals(1, db.reconcilePersonStats());
+        assertEquals("1|2020-01-01", stats(p1));
+        assertEquals("0|null", stats(p2));
+        assertEquals(0, db.reconcilePersonStats());
+    }
+
+    /** The profiler should be able to plan and run every backend query */
+    @Test
+    @DisplayName("Profiler should run each backend query, with its parameters")
+    public void givenMigratedDb_whenProfiling_thenRunEveryQuery() throws Exception {
+        int id = db.insertPerson("test1@email.com", "test person1");
+        db.insertMessage("lorem ipsum", "lorem ipsum dolor", id);
+        var profiler = new Profiler(db, true);
+        for (var q : profiler.queries())
+            assertEquals(q.sql().chars().filter(c -> c == '?').count(), q.params().length, q.name());
+        assertDoesNotThrow(() -> profiler.run(2));
+    }
+
+    /** Each row of a query, with its columns joined by '|', through a second connection */
+    private static java.util.List<String> rows(String sql, Object... params) throws SQLException {
+        try (var conn = java.sql.DriverManager.getConnection("jdbc:sqlite:" + tempDir.resolve("admin_junit.db"));
+                var ps = conn.prepareStatement(sql)) {
+            for (int i = 0; i < params.length; ++i)
+                ps.setObject(i + 1, params[i]);
+            var result = new java.util.ArrayList<String>();
+            try (var rs = ps.executeQuery()) {
+                int n = rs.getMetaData().getColumnCount();
+                while (rs.next()) {
+                    var row = new java.util.StringJoiner("|");
+                    for (int i = 1; i <= n; ++i)
+                        row.add(String.valueOf(rs.getObject(i)));
+                    result.add(row.toString());
+                }
+            }
+            return result;
+        }
+    }
+
+    /** Migrations should be recorded with their checksums, and run only once */
+    @Test
+    @DisplayName("migrate should record each migration once, and refuse edited migrations")
+    public void givenMigratedDb_whenMigratingAgain_thenDoNothingUnlessAMigrationChanged() throws SQLException {
+        assertEquals(0, db.migrate());
+        var applied = db.getSchemaVersions();
+        assertEquals(Migrations.ALL.size(), applied.size());
+        for (int i = 0; i < applied.size(); ++i) {
+            assertEquals(Migrations.ALL.get(i).version(), applied.get(i).version());
+            assertEquals(Migrations.ALL.get(i).checksum(true), applied.get(i).checksum());
+        }
+        // Editing a released migration must be caught, not silently skipped
+        execute("UPDATE tblSchemaVersion SET checksum = 'edited' WHERE version = 1;");
+        var ex = assertThrows(RuntimeException.class, () -> db.migrate());
+        assertEquals("Migration 1 has changed since it was applied", ex.getMessage());
+    }
+
+    /** tblMessageSummary should always match tblMessage joined to tblPerson */
+    @Test
+    @DisplayName("tblMessageSummary should follow inserts, updates, deletes, imports and archiving")
+    public void givenMessageChanges_whenReadingSummary_thenItMatchesTheView() throws Exception {
+        var summary = "SELECT id, subject, details, creatorId, email, name FROM tblMessageSummary ORDER BY id;";
+        var view = "SELECT id, subject, details, creatorId, email, name FROM viewMessage ORDER BY id;";
+        int p1 = db.insertPerson("first@email.com", "first");
+        db.insertMessage("hello", "world", p1);
+        int m1 = messageId("hello");
+        assertEquals(java.util.List.of(m1 + "|hello|world|" + p1 + "|first@email.com|first"), rows(summary));
+
+        // Person and message updates are copied by triggers
+        assertEquals(Database.UpdateResult.UPDATED, db.updatePerson(p1, "renamed@email.com", "renamed", null));
+        assertEquals(Database.UpdateResult.UPDATED, db.updateMessage(m1, "hello", "edited", null));
+        assertEquals(java.util.List.of(m1 + "|hello|edited|" + p1 + "|renamed@email.com|renamed"), rows(summary));
+        assertEquals(java.util.List.of("1"), rows("SELECT version FROM tblMessageSummary WHERE id = ?;", m1));
+
+        // Imports add summary rows in the same transaction
+        db.importMessages(java.util.List.of(messageRow("old", p1, "2020-01-01"), messageRow("older", p1, "2019-01-01"))
+                .iterator(), 10);
+        assertEquals(3, rows(summary).size());
+        assertEquals(rows(view), rows(summary));
+
+        // Deleting or archiving a message removes its summary row (SQLite
+        // never archives the newest message, so add one)
+        db.insertMessage("later", "details", p1);
+        db.deleteMessage(messageId("older"));
+        assertEquals(1, db.archiveBatch(java.sql.Date.valueOf("2021-01-01"), 10));
+        assertEquals(java.util.List.of(m1 + "|hello|edited|" + p1 + "|renamed@email.com|renamed",
+                messageId("later") + "|later|details|" + p1 + "|renamed@email.com|renamed"), rows(summary));
+        assertEquals(rows(view), rows(summary));
+    }
+
+    /** Archiving should move old messages in batches, and they should stay reachable */
+    @Test
+    @DisplayName("archiveMessages should move old messages, which getOneMessage and deleteMessage still find")
+    public void givenOldMessages_whenArchiving_thenMoveThemInBatches() throws Exception {
+        int p1 = db.insertPerson("first@email.com", "first");
+        var old = new java.util.ArrayList<Importer.Row>();
+        for (int i = 1; i <= 5; ++i)
+            old.add(messageRow("old " + i, p1, "2020-01-0" + i));
+        db.importMessages(old.iterator(), 10);
+        db.insertMessage("new", "details", p1);
+
+        // Batches of 2 move everything before the cutoff
+        assertEquals(5, db.archiveMessages(java.sql.Date.valueOf("2021-01-01"), 2, 0));
+        assertEquals(0, db.archiveMessages(java.sql.Date.valueOf("2021-01-01"), 2, 0));
+        assertEquals(java.util.List.of("1"), rows("SELECT COUNT(*) FROM tblMessage;"));
+        assertEquals(java.util.List.of("5"), rows("SELECT COUNT(*) FROM tblMessageArchive;"));
+        assertEquals(1, db.getAllMessage().size());
+
+        // Archived messages can still be read and deleted by id
+        int archived = messageId("old 3");
+        var m = db.getOneMessage(archived);
+        assertNotNull(m);
+        assertEquals("old 3", m.subject());
+        assertEquals("first@email.com", m.email());
+        db.deleteMessage(archived);
+        assertNull(db.getOneMessage(archived));
+        assertEquals(java.util.List.of("4"), rows("SELECT COUNT(*) FROM tblMessageArchive;"));
+    }
+
+    /** Editing an archived message should bring it back, as the backend does */
+    @Test
+    @DisplayName("updateMessage should restore an archived message, or report a conflict")
+    public void givenArchivedMessage_whenUpdating_thenRestoreIt() throws Exception {
+        int p1 = db.insertPerson("first@email.com", "first");
+        db.importMessages(java.util.List.of(messageRow("old", p1, "2020-01-01")).iterator(), 10);
+        db.insertMessage("new", "details", p1);
+        assertEquals(1, db.archiveMessages(java.sql.Date.valueOf("2021-01-01"), 10, 0));
+        int id = messageId("old");
+        int version = db.getMessageVersion(id);
+
+        assertEquals(Database.UpdateResult.CONFLICT, db.updateMessage(id, "old", "edited", version + 1));
+        assertEquals(java.util.List.of("1"), rows("SELECT COUNT(*) FROM tblMessageArchive;"));
+        assertEquals(Database.UpdateResult.UPDATED, db.updateMessage(id, "old", "edited", version));
+        assertEquals(java.util.List.of("0"), rows("SELECT COUNT(*) FROM tblMessageArchive;"));
+        assertEquals(version + 1, db.getMessageVersion(id));
+        assertEquals("edited", db.getOneMessage(id).details());
+        assertEquals(java.util.List.of("edited|" + (version + 1)),
+                rows("SELECT details, version FROM tblMessageSummary WHERE id = ?;", id));
+        assertEquals(0, db.reconcilePersonStats());
+    }
+
+    /**
+     * copyFromSqlite only goes from SQLite to PostgreSQL. (The copy itself
+     * needs a PostgreSQL server, so it isn't tested here.)
+     */
+    @Test
+    @DisplayName("copyFromSqlite should refuse to copy into a SQLite database")
+    public void givenSqliteTarget_whenCopying_thenRefuse() throws Exception {
+        try (var other = new Database(true, tempDir.resolve("copy_source.db").toString())) {
+            var ex = assertThrows(RuntimeException.class, () -> db.copyFromSqlite(other, 100));
+            assertEquals("Can only copy from SQLite to PostgreSQL", ex.getMessage());
+        }
+    }
 }
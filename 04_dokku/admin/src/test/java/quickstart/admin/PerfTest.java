@@ -0,0 +1,245 @@
+package quickstart.admin;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * Performance regression tests for the admin app's Database.
+ *
+ * Each test runs one operation against a SQLite file with 10k, 100k, and 1M
+ * people and messages, and fails if the operation takes more time or
+ * allocates more memory than its budget. Budgets are per row (for listings and
+ * bulk inserts) or per call (for lookups and single inserts), so the same
+ * budget applies at every scale, and an operation that stops scaling linearly
+ * (e.g., a lost index) fails at the larger scales.
+ *
+ * Time depends on the machine, so time budgets are multiplied by the
+ * perf.slack system property (e.g., -Dperf.slack=3 on a slow CI runner).
+ * Allocation depends only on the code, so allocation budgets are not. The
+ * scales can be changed with -Dperf.scales=10000,100000.
+ *
+ * These tests are tagged "perf", and only run with `mvn -Pperf test`.
+ */
+@Tag("perf")
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class PerfTest {
+    /**
+     * Budget is the most that one operation may cost
+     *
+     * @param nanos the most time, in nanoseconds, before perf.slack
+     * @param bytes the most memory that the calling thread may allocate
+     */
+    static record Budget(long nanos, long bytes) {
+    }
+
+    /** Budgets per row of getAllPerson */
+    static final Budget GET_ALL_PERSON = new Budget(5_000, 640);
+
+    /** Budgets per row of getAllMessage */
+    static final Budget GET_ALL_MESSAGE = new Budget(20_000, 2_200);
+
+    /** Budgets per call of getOneMessage */
+    static final Budget GET_ONE_MESSAGE = new Budget(200_000, 6_500);
+
+    /** Budgets per call of insertPerson */
+    static final Budget INSERT_PERSON = new Budget(2_000_000, 2_600);
+
+    /** Budgets per call of insertMessage */
+    static final Budget INSERT_MESSAGE = new Budget(3_000_000, 5_000);
+
+    /** Budgets per row of importMessages */
+    static final Budget IMPORT_MESSAGES = new Budget(150_000, 2_000);
+
+    /** The number of times to run an operation before measuring it */
+    static final int WARMUPS = 2;
+
+    /** The number of measured runs; the cheapest one is checked */
+    static final int RUNS = 3;
+
+    /** The number of calls to time for per-call budgets */
+    static final int CALLS = 1_000;
+
+    /** The folder for the test dbs; JUnit deletes it when the tests finish */
+    @TempDir
+    static Path tempDir;
+
+    /** A database for each scale, built the first time a test needs it */
+    static final Map<Integer, Database> dbs = new HashMap<>();
+
+    /** The scales to test at */
+    static IntStream scales() {
+        return Arrays.stream(System.getProperty("perf.scales", "10000,100000,1000000").split(","))
+                .mapToInt(s -> Integer.parseInt(s.strip()));
+    }
+
+    /** How much to multiply time budgets by */
+    static double slack() {
+        return Double.parseDouble(System.getProperty("perf.slack", "1"));
+    }
+
+    /** Close the databases, so their folder can be deleted */
+    @AfterAll
+    static void tearDownAll() throws Exception {
+        for (var db : dbs.values())
+            db.close();
+        dbs.clear();
+    }
+
+    /**
+     * Get the database for a scale: `scale` people, and `scale` messages spread
+     * over them
+     */
+    static synchronized Database db(int scale) throws SQLException {
+        var db = dbs.get(scale);
+        if (db != null)
+            return db;
+        db = new Database(true, tempDir.resolve("perf_" + scale + ".db").toString());
+        db.createTables();
+        db.createViews();
+        db.migrate();
+        var people = IntStream.range(0, scale).mapToObj(
+                i -> new Importer.Row(i, List.of("p" + i + "@perf.test", "Person " + i), null)).iterator();
+        assertEquals(scale, db.importPeople(people, 10_000).inserted());
+        var messages = IntStream.range(0, scale).mapToObj(i -> messageRow(i, scale)).iterator();
+        assertEquals(scale, db.importMessages(messages, 10_000).inserted());
+        dbs.put(scale, db);
+        return db;
+    }
+
+    /** Make an import row for a message by one of `people` people */
+    static Importer.Row messageRow(int i, int people) {
+        return new Importer.Row(i, List.of("Subject " + i, "Details of message " + i + ", for the perf test",
+                "" + (1 + i % people), "2025-01-0" + (1 + i % 9)), null);
+    }
+
+    /** The number of bytes that the current thread has allocated so far */
+    static long allocated() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getCurrentThreadAllocatedBytes();
+    }
+
+    /** Something to measure */
+    @FunctionalInterface
+    interface Work {
+        void run() throws Exception;
+    }
+
+    /**
+     * Run some work a few times to warm up, then measure a few more runs, and
+     * check the cheapest against a budget. (The cheapest run is the one with
+     * the least interference from GC, the JIT, and the rest of the machine.)
+     *
+     * @param name   What is being measured, for the report
+     * @param scale  The size of the tables
+     * @param units  The number of rows or calls that the work covers
+     * @param budget The budget per row or call
+     * @param work   The work
+     */
+    static void measure(String name, int scale, long units, Budget budget, Work work) throws Exception {
+        for (int i = 0; i < WARMUPS; ++i)
+            work.run();
+        long nanos = Long.MAX_VALUE, bytes = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; ++i) {
+            long a = allocated(), t = System.nanoTime();
+            work.run();
+            nanos = Math.min(nanos, (System.nanoTime() - t) / units);
+            bytes = Math.min(bytes, (allocated() - a) / units);
+        }
+        long nanoBudget = (long) (budget.nanos() * slack());
+        System.out.printf("%-16s %8d rows: %8d ns (budget %8d), %7d bytes (budget %7d) per unit%n", name, scale,
+                nanos, nanoBudget, bytes, budget.bytes());
+        assertTrue(nanos <= nanoBudget,
+                name + " at " + scale + " took " + nanos + " ns per unit; the budget is " + nanoBudget);
+        assertTrue(bytes <= budget.bytes(),
+                name + " at " + scale + " allocated " + bytes + " bytes per unit; the budget is " + budget.bytes());
+    }
+
+    /** Listing every person should cost the same per row at every scale */
+    @Order(1)
+    @ParameterizedTest(name = "getAllPerson at {0} rows")
+    @MethodSource("scales")
+    public void getAllPerson_staysWithinBudget(int scale) throws Exception {
+        var db = db(scale);
+        measure("getAllPerson", scale, scale, GET_ALL_PERSON, () -> assertEquals(scale, db.getAllPerson().size()));
+    }
+
+    /** Listing every message should cost the same per row at every scale */
+    @Order(2)
+    @ParameterizedTest(name = "getAllMessage at {0} rows")
+    @MethodSource("scales")
+    public void getAllMessage_staysWithinBudget(int scale) throws Exception {
+        var db = db(scale);
+        measure("getAllMessage", scale, scale, GET_ALL_MESSAGE,
+                () -> assertEquals(scale, db.getAllMessage().size()));
+    }
+
+    /** Looking up a message by id should not get slower as the table grows */
+    @Order(3)
+    @ParameterizedTest(name = "getOneMessage at {0} rows")
+    @MethodSource("scales")
+    public void getOneMessage_staysWithinBudget(int scale) throws Exception {
+        var db = db(scale);
+        var ids = new Random(216).ints(CALLS, 1, scale + 1).toArray();
+        measure("getOneMessage", scale, CALLS, GET_ONE_MESSAGE, () -> {
+            for (int id : ids)
+                assertNotNull(db.getOneMessage(id));
+        });
+    }
+
+    /** Adding one person should not get slower as the table grows */
+    @Order(4)
+    @ParameterizedTest(name = "insertPerson at {0} rows")
+    @MethodSource("scales")
+    public void insertPerson_staysWithinBudget(int scale) throws Exception {
+        var db = db(scale);
+        int[] next = { 0 };
+        measure("insertPerson", scale, CALLS, INSERT_PERSON, () -> {
+            for (int i = 0; i < CALLS; ++i, ++next[0])
+                db.insertPerson("new" + next[0] + "@perf.test", "New Person");
+        });
+    }
+
+    /** Adding one message should not get slower as the table grows */
+    @Order(5)
+    @ParameterizedTest(name = "insertMessage at {0} rows")
+    @MethodSource("scales")
+    public void insertMessage_staysWithinBudget(int scale) throws Exception {
+        var db = db(scale);
+        measure("insertMessage", scale, CALLS, INSERT_MESSAGE, () -> {
+            for (int i = 0; i < CALLS; ++i)
+                db.insertMessage("New subject", "New details", 1 + i % scale);
+        });
+    }
+
+    /** Bulk-adding messages should cost the same per row at every scale */
+    @Order(6)
+    @ParameterizedTest(name = "importMessages at {0} rows")
+    @MethodSource("scales")
+    public void importMessages_staysWithinBudget(int scale) throws Exception {
+        var db = db(scale);
+        final int rows = 10_000;
+        measure("importMessages", scale, rows, IMPORT_MESSAGES, () -> assertEquals(rows,
+                db.importMessages(IntStream.range(0, rows).mapToObj(i -> messageRow(i, scale)).iterator(), 1_000)
+                        .inserted()));
+    }
+}
@@ -1,13 +1,108 @@
 package quickstart.backend;
 
 import io.javalin.Javalin;
+import io.javalin.http.Context;
 import io.javalin.http.staticfiles.Location;
 import java.sql.SQLException;
+import java.time.Duration;
 
 import com.google.gson.*;
 
 /** A backend built with the Javalin framework */
 public class App {
+    /**
+     * Create the web server, with its logger and static files, but without any
+     * routes. This doesn't start it yet!
+     *
+     * @param staticLocation The folder to serve static files from, or null to
+     *                       serve them from the JAR
+     * @param lifecycle      Counts the requests that are running
+     *
+     * @return the server
+     */
+    static Javalin createServer(String staticLocation, Lifecycle lifecycle) {
+        var app = Javalin.create(config -> {
+            // Attach a logger. Javalin calls it once the response has been
+            // sent (unlike "after" handlers, which run before the response
+            // is written), so it is also where a request stops counting as
+            // in flight.
+            config.requestLogger.http((ctx, ms) -> {
+                lifecycle.requestFinished();
+                Events.Route route = ctx.attribute(ROUTE_EVENT);
+                if (route != null) {
+                    route.path = handlerPath(ctx);
+                    route.status = ctx.statusCode();
+                    route.commit();
+                }
+                Events.setRoute(null);
+                System.out.println("=".repeat(80));
+                System.out.printf("%-6s%-8s%-25s%s%n", ctx.scheme(), ctx.method().name(), ctx.path(),
+                        ctx.fullUrl());
+                if (ctx.queryString() != null)
+                    System.out.printf("query string:%s%n", ctx.queryString());
+                if (ctx.body().length() > 0)
+                    System.out.printf("request body:%s%n", ctx.body());
+            });
+            // Serve static files from JAR or FileSystem
+            config.staticFiles.add(staticFiles -> {
+                // This path is in the JAR, under main/resources
+                if (staticLocation == null) {
+                    System.out.println("Serving files from JAR");
+                    staticFiles.location = Location.CLASSPATH;
+                    staticFiles.directory = "/public";
+                }
+                // This path is in the file system
+                else {
+                    System.out.println("Serving files from EXTERNAL LOCATION");
+                    staticFiles.location = Location.EXTERNAL;
+                    staticFiles.directory = staticLocation;
+                }
+                System.out.printf("Using staticFiles.directory=%s%n", staticFiles.directory);
+                staticFiles.precompress = false; // Don't compress/cache in mem
+            });
+            // Support single-page apps
+            if (staticLocation == null) {
+                String defaultPage = "public/index.html";
+                System.out.println(
+                        "********************** STATIC_LOCATION == null --> setting spaRoot to " + defaultPage);
+                config.spaRoot.addFile("/", defaultPage, Location.CLASSPATH);
+            } else {
+                String defaultPage = staticLocation + "/index.html";
+                System.out.println(
+                        "********************** STATIC_LOCATION != null --> setting spaRoot to " + defaultPage);
+                config.spaRoot.addFile("/", defaultPage, Location.EXTERNAL);
+            }
+        });
+        // This must be the first "before" handler, so every request is counted
+        // and timed
+        app.before(ctx -> {
+            lifecycle.requestStarted();
+            var route = new Events.Route();
+            route.method = ctx.method().name();
+            route.begin();
+            ctx.attribute(ROUTE_EVENT, route);
+            Events.setRoute(route.method + " " + ctx.path());
+        });
+        return app;
+    }
+
+    /** The request attribute that holds the request's Events.Route */
+    private static final String ROUTE_EVENT = "jfr.route";
+
+    /**
+     * The path pattern of the handler that served a request (e.g.,
+     * /messages/{id}), so that requests for different ids are grouped
+     * together. Requests that no handler matched (e.g., static files) use
+     * their path.
+     */
+    private static String handlerPath(Context ctx) {
+        try {
+            return ctx.endpointHandlerPath();
+        } catch (IllegalStateException e) {
+            return ctx.path();
+        }
+    }
+
     public static void main(String[] args) {
         // get the port on which to listen. If this crashes the program, that's
         // fine... it means "configuration error".
@@ -17,6 +112,37 @@ public class App {
         String clientSecret = System.getenv("CLIENT_SECRET");
         String serverName = System.getenv("SERVER_NAME");
         String staticLocation = System.getenv("STATIC_LOCATION");
+        // When true, get profiles from the OpenID ID token instead of the
+        // People API
+        boolean useOpenId = Boolean.parseBoolean(System.getenv("OAUTH_OPENID"));
+        // For load tests only: send the OAuth and People API calls to a stub
+        // server at this URL, instead of to Google
+        String googleRootUrl = System.getenv("GOOGLE_ROOT_URL");
+        // Limits for the thread pool that handles Google logins
+        int loginThreads = Integer.parseInt(System.getenv().getOrDefault("LOGIN_THREADS", "4"));
+        int loginQueue = Integer.parseInt(System.getenv().getOrDefault("LOGIN_QUEUE", "64"));
+        int loginTimeoutMs = Integer.parseInt(System.getenv().getOrDefault("LOGIN_TIMEOUT_MS", "15000"));
+        // How long a cached email-to-person mapping is trusted. The admin app
+        // can change people, so this bounds how long a change goes unnoticed.
+        int personCacheTtl = Integer.parseInt(System.getenv().getOrDefault("PERSON_CACHE_TTL_S", "60"));
+        // When set, messages older than this many days are periodically moved
+        // to tblMessageArchive
+        int archiveAfterDays = Integer.parseInt(System.getenv().getOrDefault("ARCHIVE_AFTER_DAYS", "0"));
+        int archiveBatch = Integer.parseInt(System.getenv().getOrDefault("ARCHIVE_BATCH", "1000"));
+        int archiveIntervalMin = Integer.parseInt(System.getenv().getOrDefault("ARCHIVE_INTERVAL_MIN", "60"));
+        // At shutdown, how long to keep serving after /ready starts failing,
+        // and then how long to wait for in-flight requests. Together, they
+        // should be less than the time Docker waits before SIGKILL (10s).
+        int shutdownDelayMs = Integer.parseInt(System.getenv().getOrDefault("SHUTDOWN_DELAY_MS", "1000"));
+        int drainTimeoutMs = Integer.parseInt(System.getenv().getOrDefault("DRAIN_TIMEOUT_MS", "5000"));
+        // When true, keep a low-overhead Java Flight Recording of the last
+        // JFR_MAX_AGE_MIN minutes (at most JFR_MAX_SIZE_MB). When JFR_DUMP_KEY
+        // is also set, a request to /admin/recording with that key in its
+        // X-Dump-Key header downloads a copy of it.
+        boolean jfrContinuous = Boolean.parseBoolean(System.getenv("JFR_CONTINUOUS"));
+        int jfrMaxAgeMin = Integer.parseInt(System.getenv().getOrDefault("JFR_MAX_AGE_MIN", "60"));
+        int jfrMaxSizeMb = Integer.parseInt(System.getenv().getOrDefault("JFR_MAX_SIZE_MB", "100"));
+        String jfrDumpKey = System.getenv("JFR_DUMP_KEY");
 
         System.out.println("-".repeat(45));
         System.out.println("Using the following environment variables:");
@@ -28,6 +154,22 @@ public class App {
                 clientSecret.substring(clientSecret.length() - 5, clientSecret.length()));
         System.out.println("  SERVER_NAME=" + serverName);
         System.out.println("  STATIC_LOCATION=" + staticLocation);
+        System.out.println("  OAUTH_OPENID=" + useOpenId);
+        System.out.println("  GOOGLE_ROOT_URL=" + googleRootUrl);
+        System.out.println("  LOGIN_THREADS=" + loginThreads);
+        System.out.println("  LOGIN_QUEUE=" + loginQueue);
+        System.out.println("  LOGIN_TIMEOUT_MS=" + loginTimeoutMs);
+        System.out.println("  PERSON_CACHE_TTL_S=" + personCacheTtl);
+        System.out.println("  ARCHIVE_AFTER_DAYS=" + archiveAfterDays);
+        System.out.println("  ARCHIVE_BATCH=" + archiveBatch);
+        System.out.println("  ARCHIVE_INTERVAL_MIN=" + archiveIntervalMin);
+        System.out.println("  SHUTDOWN_DELAY_MS=" + shutdownDelayMs);
+        System.out.println("  DRAIN_TIMEOUT_MS=" + drainTimeoutMs);
+        System.out.println("  JFR_CONTINUOUS=" + jfrContinuous);
+        System.out.println("  JFR_MAX_AGE_MIN=" + jfrMaxAgeMin);
+        System.out.println("  JFR_MAX_SIZE_MB=" + jfrMaxSizeMb);
+        // Like the client secret, the dump key shouldn't be in the logs
+        System.out.println("  JFR_DUMP_KEY=" + (jfrDumpKey == null ? null : "*".repeat(jfrDumpKey.length())));
         System.out.println("-".repeat(45));
 
         // Do some quick validation to ensure the port is in range
@@ -38,72 +180,63 @@ public class App {
             return;
         }
 
+        // Everything that needs closing at shutdown is registered with the
+        // lifecycle, in dependency order
+        var lifecycle = new Lifecycle(shutdownDelayMs, drainTimeoutMs);
+
+        // Start recording first, so the recording covers startup, and is
+        // closed last. Failure isn't fatal: the server just isn't recorded.
+        FlightRecording recording = null;
+        if (jfrContinuous) {
+            try {
+                recording = new FlightRecording(Duration.ofMinutes(jfrMaxAgeMin), jfrMaxSizeMb * 1024L * 1024L);
+                lifecycle.register("flight recording", recording);
+            } catch (Exception e) {
+                System.err.println("WARNING: could not start the flight recording: " + e.getMessage());
+            }
+        }
+
         // Create the database interface and Gson object. We do this before
         // setting up the server, because failures will be fatal
         Database db;
         try {
-            db = new Database(dbUrl);
+            db = new Database(dbUrl, personCacheTtl);
         } catch (SQLException e) {
             e.printStackTrace();
             return;
         }
+        lifecycle.register("database", db);
+        // Archiving is optional, since the admin app can do it, too
+        if (archiveAfterDays > 0)
+            lifecycle.register("archiver", new Archiver(db, archiveAfterDays, archiveBatch, archiveIntervalMin));
         // gson lets us easily turn objects into JSON
         // This date format works nicely with SQLite and PostgreSQL
         Gson gson = new GsonBuilder().setDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").create();
 
         // Create the web server. This doesn't start it yet!
-        var app = Javalin.create(config -> {
-            // Attach a logger
-            config.requestLogger.http((ctx, ms) -> {
-                System.out.println("=".repeat(80));
-                System.out.printf("%-6s%-8s%-25s%s%n", ctx.scheme(), ctx.method().name(), ctx.path(),
-                        ctx.fullUrl());
-                if (ctx.queryString() != null)
-                    System.out.printf("query string:%s%n", ctx.queryString());
-                if (ctx.body().length() > 0)
-                    System.out.printf("request body:%s%n", ctx.body());
-            });
-            // Serve static files from JAR or FileSystem
-            config.staticFiles.add(staticFiles -> {
-                // This path is in the JAR, under main/resources
-                if (staticLocation == null) {
-                    System.out.println("Serving files from JAR");
-                    staticFiles.location = Location.CLASSPATH;
-                    staticFiles.directory = "/public";
-                }
-                // This path is in the file system
-                else {
-                    System.out.println("Serving files from EXTERNAL LOCATION");
-                    staticFiles.location = Location.EXTERNAL;
-                    staticFiles.directory = staticLocation;
-                }
-                System.out.printf("Using staticFiles.directory=%s%n", staticFiles.directory);
-                staticFiles.precompress = false; // Don't compress/cache in mem
-            });
-            // Support single-page apps
-            if (staticLocation == null) {
-                String defaultPage = "public/index.html";
-                System.out.println(
-                        "********************** STATIC_LOCATION == null --> setting spaRoot to " + defaultPage);
-                config.spaRoot.addFile("/", defaultPage, Location.CLASSPATH);
-            } else {
-                String defaultPage = staticLocation + "/index.html";
-                System.out.println(
-                        "********************** STATIC_LOCATION != null --> setting spaRoot to " + defaultPage);
-                config.spaRoot.addFile("/", defaultPage, Location.EXTERNAL);
-            }
-        });
+        var app = createServer(staticLocation, lifecycle);
 
         // NB: `Sessions` makes the back end stateful. This should get migrated
         // to a separate component, such as a memcache, so that it's possible to
         // scale out the backend to multiple servers without users getting
         // accidental logouts.
         var sessions = new Sessions();
-        var gOAuth = new GoogleOAuth(serverName, port, clientId, clientSecret, Routes.RT_AUTH_GOOGLE_CALLBACK);
+        var gOAuth = new GoogleOAuth(serverName, port, clientId, clientSecret, Routes.RT_AUTH_GOOGLE_CALLBACK,
+                googleRootUrl == null ? GoogleOAuth.Endpoints.GOOGLE : GoogleOAuth.Endpoints.at(googleRootUrl),
+                useOpenId);
+        // Logins run on their own threads, so a burst of them can't starve
+        // the other routes
+        var loginPool = new Bulkhead("login", loginThreads, loginQueue, loginTimeoutMs);
+        lifecycle.register("login pool", loginPool);
+        lifecycle.register("web server", app::stop);
 
         // Every interaction with the server requires the user to be
         // authenticated
         app.before(ctx -> {
+            // The readiness check must work without logging in, and the
+            // recording is protected by its own key
+            if (ctx.path().equals(Routes.RT_READY) || ctx.path().equals(Routes.RT_RECORDING))
+                return;
             // To avoid an infinite loop, we don't cry havoc if the user is in
             // the middle of an auth flow
             if (ctx.url().equals(gOAuth.redirectUri.replace("https://", "http://"))) {
@@ -113,7 +246,11 @@ public class App {
             String gId = ctx.cookie("auth.gId");
             String key = ctx.cookie("auth.key");
             // We also don't cry havoc if the user is logged in
-            if (sessions.checkValid(gId, key)) {
+            var check = new Events.SessionCheck();
+            check.begin();
+            check.valid = sessions.checkValid(gId, key);
+            check.commit();
+            if (check.valid) {
                 return;
             }
             System.out.println(">>>>>>> INVALID SESSION, redirecting to " + gOAuth.newAuthUrl);
@@ -124,7 +261,20 @@ public class App {
         // Handle Google oauth by extracting the "code" and authenticating it,
         // then redirecting
         app.get(Routes.RT_AUTH_GOOGLE_CALLBACK,
-                ctx -> Routes.authCallback(ctx, db, gson, sessions, gOAuth));
+                ctx -> Routes.authCallback(ctx, db, gson, sessions, gOAuth, loginPool));
+        // Report whether this server should get new requests
+        app.get(Routes.RT_READY, ctx -> Routes.readReady(ctx, gson, lifecycle));
+        // Report on the login thread pool
+        app.get("/metrics/login", ctx -> Routes.readLoginMetrics(ctx, gson, loginPool));
+        // Report how long each step of a login's calls to Google takes
+        app.get("/metrics/google", ctx -> Routes.readGoogleMetrics(ctx, gson, gOAuth));
+        // Report on the email-to-person cache that logins use
+        app.get("/metrics/person-cache", ctx -> Routes.readPersonCacheMetrics(ctx, db, gson));
+        // Download the flight recording, if there is one and it has a key
+        if (recording != null && jfrDumpKey != null) {
+            var rec = recording;
+            app.get(Routes.RT_RECORDING, ctx -> Routes.readRecording(ctx, gson, rec, jfrDumpKey));
+        }
         // Log out
         app.get("/logout", ctx -> Routes.authLogout(ctx, gson, sessions));
         // Get a list of all the people in the system
@@ -137,6 +287,8 @@ public class App {
         app.post("/messages", ctx -> Routes.createMessage(ctx, db, gson, sessions));
         // Get a list of all the messages in the system
         app.get("/messages", ctx -> Routes.readMessageAll(ctx, db, gson));
+        // Search the messages (this must come before /messages/{id})
+        app.get("/messages/search", ctx -> Routes.readMessageSearch(ctx, db, gson));
         // Get all details for a specific message
         app.get("/messages/{id}", ctx -> Routes.readMessageOne(ctx, db, gson));
         // Update a message's fields
@@ -144,37 +296,22 @@ public class App {
         // Delete a message
         app.delete("/messages/{id}", ctx -> Routes.deleteMessage(ctx, db, gson, sessions));
 
-        // The only way to stop the server is by pressing ctrl-c. At that point,
-        // the server should try to clean up as best it can.
-        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-            // Try to shut down Javalin before the database, because the
-            // database shouldn't shut down until it's 100% certain that no more
-            // requests will be sent to it.
-            try {
-                System.out.println("Shutting down Javalin...");
-                app.stop(); // Stops the Javalin instance gracefully
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-            // If Javalin didn't shut down nicely, and the Database shuts down,
-            // then some Javalin threads might crash when they try to use a null
-            // connection. Javalin shutdown failures are highly unlikely, and
-            // almost impossible to solve, so once a Javalin shutdown has been
-            // attempted, go ahead and try to shut down the database.
-            try {
-                System.out.println("Shutting down Database...");
-                db.close();
-                System.out.println("Done");
-            } catch (Exception e) {
-                // Database shutdown failures are almost impossible to solve,
-                // too, so if this happens, the best thing to do is print a
-                // message and return.
-                e.printStackTrace();
-            }
-        }));
+        // The server stops when it gets SIGTERM (e.g., from Dokku during a
+        // deploy) or ctrl-c. At that point, it stops advertising itself as
+        // ready, finishes the requests it has, and then closes the web
+        // server, login pool, archiver, and database, in that order, so that
+        // nothing is closed while something that uses it is still running.
+        Runtime.getRuntime().addShutdownHook(new Thread(lifecycle::shutdown, "shutdown"));
 
         // This next line launches the server, so it can start receiving
         // requests. Note that main will return, but the server keeps running.
         app.start(port);
+        lifecycle.ready();
+        System.out.printf("Listening after %d ms%n", StartupProbe.sinceJvmStart());
+        // Build the Google clients in the background, so the first login
+        // doesn't wait for them
+        var warmUp = new Thread(gOAuth::warmUp, "google-warmup");
+        warmUp.setDaemon(true);
+        warmUp.start();
     }
 }
@@ -0,0 +1,91 @@
+package quickstart.backend;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Archiver periodically moves old messages from tblMessage to
+ * tblMessageArchive, so that the tables that every request touches stay small.
+ *
+ * Each run moves messages in small batches. The Database is only locked for
+ * one batch at a time, and there is a short pause between batches, so requests
+ * never wait behind a long archival job.
+ */
+class Archiver implements AutoCloseable {
+    /** How long to pause between batches */
+    private static final long PAUSE_MS = 10;
+
+    /** The database */
+    private final Database db;
+
+    /** Messages older than this many days are archived */
+    private final int days;
+
+    /** The most messages to move per batch */
+    private final int batchSize;
+
+    /** The thread that runs the job */
+    private final ScheduledExecutorService timer;
+
+    /**
+     * Start archiving on a schedule
+     *
+     * @param db              The database
+     * @param days            Messages older than this many days are archived
+     * @param batchSize       The most messages to move per batch
+     * @param intervalMinutes How often to run
+     */
+    Archiver(Database db, int days, int batchSize, int intervalMinutes) {
+        this.db = db;
+        this.days = days;
+        this.batchSize = batchSize;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            var t = new Thread(r, "archiver");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleWithFixedDelay(this::runOnce, intervalMinutes, intervalMinutes, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Archive everything that is old enough, one batch at a time
+     *
+     * @return the number of messages moved
+     */
+    long runOnce() {
+        var cutoff = Date.valueOf(LocalDate.now().minusDays(days));
+        long start = System.nanoTime(), total = 0;
+        try {
+            while (!timer.isShutdown()) {
+                int moved = db.archiveBatch(cutoff, batchSize);
+                total += moved;
+                if (moved < batchSize)
+                    break;
+                Thread.sleep(PAUSE_MS);
+            }
+        } catch (SQLException e) {
+            // Try again next time
+            System.err.println("WARNING: archiving failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.out.printf("Archived %d messages dated before %s in %.1f ms%n", total, cutoff,
+                (System.nanoTime() - start) / 1e6);
+        return total;
+    }
+
+    /** Stop the job, and wait for a run that is in progress to finish */
+    @Override
+    public void close() {
+        timer.shutdown();
+        try {
+            timer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
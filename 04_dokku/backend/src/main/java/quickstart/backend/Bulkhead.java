@@ -0,0 +1,148 @@
+package quickstart.backend;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bulkhead runs one kind of slow work (e.g., talking to Google during login)
+ * on its own small, bounded thread pool. When the pool and its queue are
+ * full, new work is rejected right away, instead of tying up the web server's
+ * threads. That way, a surge of one kind of request can't starve the others.
+ */
+public class Bulkhead implements AutoCloseable {
+    /** A name for this bulkhead, used for thread names and reporting */
+    private final String name;
+
+    /** The threads that run the work */
+    private final ThreadPoolExecutor pool;
+
+    /** How long a caller will wait (queue time + run time) before giving up */
+    private final long timeoutMs;
+
+    /** The number of tasks that were rejected because the queue was full */
+    private final LongAdder rejected = new LongAdder();
+
+    /** The number of tasks that did not finish within the timeout */
+    private final LongAdder timedOut = new LongAdder();
+
+    /** The number of tasks that threw an exception */
+    private final LongAdder failed = new LongAdder();
+
+    /** Time that tasks spent waiting in the queue */
+    private final StepTiming queueWait;
+
+    /** Time that tasks spent running */
+    private final StepTiming runTime;
+
+    /**
+     * Create a bulkhead
+     *
+     * @param name      a name, for thread names and reporting
+     * @param threads   the number of worker threads
+     * @param queueSize the number of tasks that can wait for a thread
+     * @param timeoutMs how long a caller waits for a task before giving up
+     */
+    public Bulkhead(String name, int threads, int queueSize, long timeoutMs) {
+        this.name = name;
+        this.timeoutMs = timeoutMs;
+        this.queueWait = new StepTiming(name + " queue wait");
+        this.runTime = new StepTiming(name + " run");
+        var threadId = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), r -> {
+                    var t = new Thread(r, name + "-" + threadId.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Run a task on the bulkhead's threads
+     *
+     * @param task the work to do
+     *
+     * @return a future that completes with the task's result. It completes
+     *         exceptionally with a RejectedExecutionException if the bulkhead is
+     *         full, or a TimeoutException if the task takes too long.
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        var result = new CompletableFuture<T>();
+        long enqueued = System.nanoTime();
+        try {
+            pool.execute(() -> {
+                long started = System.nanoTime();
+                queueWait.record(started - enqueued);
+                // Don't bother if the caller already gave up
+                if (result.isDone())
+                    return;
+                try {
+                    result.complete(task.call());
+                } catch (Exception e) {
+                    failed.increment();
+                    result.completeExceptionally(e);
+                } finally {
+                    runTime.record(System.nanoTime() - started);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            result.completeExceptionally(e);
+            return result;
+        }
+        return result.orTimeout(timeoutMs, TimeUnit.MILLISECONDS).whenComplete((v, e) -> {
+            if (e instanceof TimeoutException)
+                timedOut.increment();
+        });
+    }
+
+    /**
+     * Check if an exception from a bulkhead future means the bulkhead was
+     * overloaded (full, or too slow), rather than that the task itself failed.
+     */
+    public static boolean isOverload(Throwable e) {
+        if (e instanceof CompletionException && e.getCause() != null)
+            e = e.getCause();
+        return e instanceof RejectedExecutionException || e instanceof TimeoutException;
+    }
+
+    /**
+     * Metrics is a snapshot of the bulkhead's state, in a form that is easy to
+     * turn into JSON
+     */
+    public static record Metrics(String name, int threads, int active, int queueDepth, int queueCapacity,
+            long completed, long rejected, long timedOut, long failed, double avgQueueWaitMs,
+            double maxQueueWaitMs, double avgRunMs, double maxRunMs) {
+    }
+
+    /** Get a snapshot of the bulkhead's state */
+    public Metrics metrics() {
+        var queue = pool.getQueue();
+        return new Metrics(name, pool.getMaximumPoolSize(), pool.getActiveCount(), queue.size(),
+                queue.size() + queue.remainingCapacity(), pool.getCompletedTaskCount(), rejected.sum(),
+                timedOut.sum(), failed.sum(), queueWait.averageMillis(), queueWait.maxMillis(),
+                runTime.averageMillis(), runTime.maxMillis());
+    }
+
+    /**
+     * Stop accepting work, and give running work a few seconds to finish
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+        try {
+            if (!pool.awaitTermination(5, TimeUnit.SECONDS))
+                pool.shutdownNow();
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package quickstart.backend;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Events holds the custom Java Flight Recorder events that the backend emits.
+ * In JDK Mission Control they are under the "Quickstart" category, next to
+ * the JVM's own events (e.g., "Java Monitor Blocked"), so a thread that is
+ * blocked on the Database can be matched to the route and query that were
+ * holding it.
+ *
+ * When no recording is running, an event costs one small allocation and a
+ * check of a flag.
+ */
+final class Events {
+    /** There are no Events objects; this just groups the event classes */
+    private Events() {
+    }
+
+    /**
+     * The route that the current thread is handling (e.g., "GET
+     * /messages/7"), so that database events can say who caused them
+     */
+    private static final ThreadLocal<String> route = new ThreadLocal<>();
+
+    /** The route that the current thread is handling, or null */
+    static String route() {
+        return route.get();
+    }
+
+    /** Set (or, with null, clear) the route that the current thread is handling */
+    static void setRoute(String value) {
+        if (value == null)
+            route.remove();
+        else
+            route.set(value);
+    }
+
+    /** One call to a Database method */
+    @Name("quickstart.DatabaseCall")
+    @Label("Database Call")
+    @Category({ "Quickstart", "Database" })
+    @Description("A call to one of the backend's Database methods, including the wait for the connection's lock")
+    @StackTrace(false)
+    static class DatabaseCall extends Event {
+        /** The Database method, which names the SQL that it runs */
+        @Label("SQL Id")
+        String sqlId;
+
+        /** The rows returned or changed */
+        @Label("Rows")
+        long rows;
+
+        /** How long the call waited for the connection's lock */
+        @Label("Lock Wait")
+        @Timespan(Timespan.NANOSECONDS)
+        long lockWait;
+
+        /** The route that made the call, or null for background work */
+        @Label("Route")
+        String route;
+
+        /** True if the call threw */
+        @Label("Failed")
+        boolean failed;
+    }
+
+    /** One HTTP request, from the first "before" handler until it was sent */
+    @Name("quickstart.Route")
+    @Label("Route")
+    @Category({ "Quickstart", "HTTP" })
+    @Description("One HTTP request, from the first before-handler until the response was sent")
+    @StackTrace(false)
+    static class Route extends Event {
+        /** The HTTP method */
+        @Label("Method")
+        String method;
+
+        /** The route's path pattern (e.g., /messages/{id}), or the path */
+        @Label("Path")
+        String path;
+
+        /** The response's status code */
+        @Label("Status")
+        int status;
+    }
+
+    /** One check of a request's session cookies */
+    @Name("quickstart.SessionCheck")
+    @Label("Session Check")
+    @Category({ "Quickstart", "HTTP" })
+    @StackTrace(false)
+    static class SessionCheck extends Event {
+        /** True if the cookies named a logged-in user */
+        @Label("Valid")
+        boolean valid;
+    }
+
+    /** One round trip to Google (or to whatever GOOGLE_ROOT_URL names) */
+    @Name("quickstart.GoogleCall")
+    @Label("Google Call")
+    @Category({ "Quickstart", "Google" })
+    @StackTrace(false)
+    static class GoogleCall extends Event {
+        /** The step of the login: "token", "idToken", or "profile" */
+        @Label("Step")
+        String step;
+
+        /** True if the call returned normally */
+        @Label("Succeeded")
+        boolean succeeded;
+
+        /** Create a GoogleCall for a step, and start timing it */
+        static GoogleCall started(String step) {
+            var call = new GoogleCall();
+            call.step = step;
+            call.begin();
+            return call;
+        }
+    }
+}
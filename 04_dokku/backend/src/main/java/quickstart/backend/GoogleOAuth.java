@@ -1,13 +1,25 @@
 package quickstart.backend;
 
 import java.io.IOException;
+import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
+import com.google.api.client.auth.openidconnect.IdToken;
+import com.google.api.client.auth.openidconnect.IdTokenVerifier;
 import com.google.api.client.googleapis.auth.oauth2.GoogleAuthorizationCodeFlow;
-import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.client.googleapis.auth.oauth2.GoogleAuthorizationCodeRequestUrl;
+import com.google.api.client.googleapis.auth.oauth2.GoogleOAuthConstants;
+import com.google.api.client.googleapis.auth.oauth2.GoogleTokenResponse;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.apache.v2.ApacheHttpTransport;
 import com.google.api.client.json.gson.GsonFactory;
 import com.google.api.services.people.v1.PeopleService;
+import com.google.api.services.people.v1.model.Person;
 
 /** All of the logic for interacting with Google OAuth. */
 public class GoogleOAuth {
@@ -23,18 +35,95 @@ public class GoogleOAuth {
     /** used by the PeopleService builder */
     public static final String APPLICATION_NAME = "CSE216 Tutorials";
 
-    /** The object used for sending HTTP requests to Google */
-    private NetHttpTransport httpTransport;
+    /** How long to wait when connecting to, or reading from, Google */
+    private static final int TIMEOUT_MS = 10_000;
 
-    /** The flow object for managing credentials */
-    private GoogleAuthorizationCodeFlow flow;
+    /**
+     * The URLs that the OAuth flow talks to. These are resolved once, when the
+     * GoogleOAuth object is constructed, and then reused for every login.
+     *
+     * @param authorizationUrl the page where users log in
+     * @param tokenUrl         the endpoint for exchanging a code for a token
+     * @param peopleRootUrl    the root of the People API (must end in '/')
+     * @param jwksUrl          the JSON Web Key Set used to sign ID tokens
+     * @param issuer           the issuer that ID tokens must name
+     */
+    public static record Endpoints(String authorizationUrl, String tokenUrl, String peopleRootUrl, String jwksUrl,
+            String issuer) {
+        /**
+         * The real Google endpoints. (The People API root is spelled out, rather
+         * than read from PeopleService, so that naming it doesn't load the
+         * People client.)
+         */
+        public static final Endpoints GOOGLE = new Endpoints(GoogleOAuthConstants.AUTHORIZATION_SERVER_URL,
+                GoogleOAuthConstants.TOKEN_SERVER_URL, "https://people.googleapis.com/",
+                "https://www.googleapis.com/oauth2/v3/certs", "https://accounts.google.com");
+
+        /**
+         * Endpoints that are all on one server (e.g., a stub for load tests),
+         * laid out the way the load-test stub serves them
+         *
+         * @param root the server's URL, ending in '/'
+         */
+        public static Endpoints at(String root) {
+            return new Endpoints(root + "auth", root + "token", root, root + "jwks", root);
+        }
+    }
+
+    /**
+     * Clients holds the objects that talk to Google. Building them loads a lot
+     * of classes (Apache HttpClient, the OAuth flow, the People API), so they
+     * are built on first use instead of at startup.
+     *
+     * @param httpTransport   the object used for sending HTTP requests to
+     *                        Google. It keeps a pool of keep-alive connections,
+     *                        so consecutive logins don't pay for a new TLS
+     *                        handshake.
+     * @param flow            the flow object for managing credentials
+     * @param peopleService   the People API client. Each request carries the
+     *                        user's access token in its own headers.
+     * @param signingKeys     the keys for verifying ID tokens locally when in
+     *                        OpenID mode, or null otherwise. They are cached
+     *                        from the JWKS endpoint, and re-fetched every hour
+     *                        so that Google's key rotation is picked up.
+     */
+    private static record Clients(HttpTransport httpTransport, GoogleAuthorizationCodeFlow flow,
+            PeopleService peopleService, SigningKeys signingKeys) {
+    }
+
+    /** The clients, or null if no login has needed them yet */
+    private volatile Clients clients;
+
+    /** The web client id */
+    private final String clientId;
+
+    /** The secret associated with clientId */
+    private final String clientSecret;
+
+    /** The OAuth scopes to request */
+    private final List<String> scopes;
+
+    /** The URLs for the OAuth and People servers */
+    private final Endpoints endpoints;
+
+    /** True to get the profile from a locally verified ID token */
+    private final boolean useOpenId;
+
+    /** Time spent exchanging codes for tokens */
+    final StepTiming tokenTiming = new StepTiming("token exchange");
+
+    /** Time spent asking the People API for profiles */
+    final StepTiming profileTiming = new StepTiming("profile fetch");
+
+    /** Time spent verifying and decoding ID tokens */
+    final StepTiming idTokenTiming = new StepTiming("id token verify");
 
     /**
      * Utility class for performing google oauth operations.
      * This sets up Google OAuth so we can get users email and profile data. It also
      * creates the URI where google returns after an auth, the redirectUri, as well
      * as the URI to redirect a user to to log them in, the newAuthUrl.
-     * 
+     *
      * @param serverName           the host on which this is running, e.g.
      *                             'http://localhost'
      * @param port                 the port on which the webserver is running, e.g.
@@ -46,54 +135,228 @@ public class GoogleOAuth {
      *                             event, e.g. '/auth/google/callback'
      */
     public GoogleOAuth(String serverName, int port, String clientId, String clientSecret, String authCallbackEndpoint) {
+        this(serverName, port, clientId, clientSecret, authCallbackEndpoint, Endpoints.GOOGLE, false);
+    }
+
+    /**
+     * Construct a GoogleOAuth object that talks to a specific set of endpoints.
+     * This is mostly useful for pointing the flow at a local stub server.
+     *
+     * @param serverName           the host on which this is running
+     * @param port                 the port on which the webserver is running
+     * @param clientId             the web client id
+     * @param clientSecret         the secret associated with clientId
+     * @param authCallbackEndpoint the callback endpoint used after signin
+     * @param endpoints            the URLs for the OAuth and People servers
+     * @param useOpenId            true to get the profile from a locally
+     *                             verified ID token instead of the People API
+     */
+    public GoogleOAuth(String serverName, int port, String clientId, String clientSecret, String authCallbackEndpoint,
+            Endpoints endpoints, boolean useOpenId) {
         var gApis = new ArrayList<String>(Arrays.asList(
                 "https://www.googleapis.com/auth/userinfo.email",
                 "https://www.googleapis.com/auth/userinfo.profile"));
+        if (useOpenId)
+            gApis.add("openid");
         if (serverName.toLowerCase().endsWith("cse.lehigh.edu"))
             this.redirectUri = serverName + authCallbackEndpoint;
         else // only specify the port when the host isn't in cse.lehigh.edu
             this.redirectUri = serverName + ":" + port + authCallbackEndpoint;
-        this.httpTransport = new NetHttpTransport();
-        this.flow = new GoogleAuthorizationCodeFlow.Builder(httpTransport, GsonFactory.getDefaultInstance(), clientId,
-                clientSecret, gApis)
-                .setAccessType("offline").build();
-        this.newAuthUrl = flow.newAuthorizationUrl().setRedirectUri(redirectUri).build();
+        this.clientId = clientId;
+        this.clientSecret = clientSecret;
+        this.scopes = List.copyOf(gApis);
+        this.endpoints = endpoints;
+        this.useOpenId = useOpenId;
+        // This is the same URL that flow.newAuthorizationUrl() would make, but
+        // it doesn't need the flow
+        this.newAuthUrl = new GoogleAuthorizationCodeRequestUrl(endpoints.authorizationUrl(), clientId, redirectUri,
+                scopes).setAccessType("offline").build();
         System.out.println("<".repeat(45));
         System.out.println("Using the following oauth information:");
         System.out.println("  redirectURI: " + redirectUri);
         System.out.println("  newAuthUrl: " + newAuthUrl);
+        System.out.println("  openid: " + useOpenId);
         System.out.println(">".repeat(45));
     }
 
+    /**
+     * Get the clients, building them if this is the first time they are needed
+     */
+    private Clients clients() {
+        var c = clients;
+        if (c != null)
+            return c;
+        synchronized (this) {
+            if (clients != null)
+                return clients;
+            long start = System.nanoTime();
+            var httpTransport = new ApacheHttpTransport(ApacheHttpTransport.newDefaultHttpClientBuilder()
+                    .setMaxConnPerRoute(20)
+                    .evictIdleConnections(60, TimeUnit.SECONDS)
+                    .build());
+            HttpRequestInitializer timeouts = request -> {
+                request.setConnectTimeout(TIMEOUT_MS);
+                request.setReadTimeout(TIMEOUT_MS);
+            };
+            var flow = new GoogleAuthorizationCodeFlow.Builder(httpTransport, GsonFactory.getDefaultInstance(),
+                    clientId, clientSecret, scopes)
+                    .setAuthorizationServerEncodedUrl(endpoints.authorizationUrl())
+                    .setTokenServerUrl(new GenericUrl(endpoints.tokenUrl()))
+                    .setRequestInitializer(timeouts)
+                    .setAccessType("offline").build();
+            var peopleService = new PeopleService.Builder(httpTransport, GsonFactory.getDefaultInstance(), timeouts)
+                    .setRootUrl(endpoints.peopleRootUrl())
+                    .setApplicationName(APPLICATION_NAME)
+                    .build();
+            var signingKeys = useOpenId ? new SigningKeys(httpTransport, timeouts, endpoints.jwksUrl()) : null;
+            clients = new Clients(httpTransport, flow, peopleService, signingKeys);
+            System.out.printf("Built the Google clients in %.1f ms%n", (System.nanoTime() - start) / 1e6);
+            return clients;
+        }
+    }
+
+    /**
+     * Build the Google clients now, instead of during the first login. The
+     * server calls this from a background thread once it is listening, so
+     * neither startup nor the first login has to wait for it.
+     */
+    public void warmUp() {
+        clients();
+    }
+
     /** An object holding the user's user information from Google */
     public static record OAuthProfile(String gId, String email, String name) {
     }
 
     /**
-     * Use the People API to get a user's information from Google
+     * Get a user's information from Google. In OpenID mode, this comes from the
+     * ID token that accompanies the access token, so it only takes one round
+     * trip. Otherwise (or if the ID token lacks a name or email), it comes from
+     * the People API.
      *
      * @param queryParamCode The data that Google returned after a successful OAuth
      *                       flow
-     * 
+     *
      * @return The user's information as an OAuthProfile object
-     * 
+     *
      * @throws IOException if there is an issue interacting with Google
      */
     public OAuthProfile getProfileInformation(String queryParamCode) throws IOException {
+        // Trade the code for an access token
+        var c = clients();
+        long start = System.nanoTime();
+        var call = Events.GoogleCall.started("token");
+        GoogleTokenResponse token;
+        try {
+            token = c.flow().newTokenRequest(queryParamCode).setRedirectUri(redirectUri).execute();
+            call.succeeded = true;
+        } finally {
+            call.commit();
+        }
+        long tokenDone = System.nanoTime();
+        tokenTiming.record(tokenDone - start);
+
+        // Try to avoid a second round trip by using the ID token
+        if (c.signingKeys() != null && token.getIdToken() != null) {
+            call = Events.GoogleCall.started("idToken");
+            OAuthProfile profile = null;
+            try {
+                profile = verifyIdToken(token.getIdToken());
+                call.succeeded = true;
+            } catch (InvalidIdTokenException e) {
+                throw e;
+            } catch (IOException e) {
+                // Google's keys couldn't be fetched. That says nothing about
+                // the token, so ask the People API, which doesn't need them.
+                System.out.println("Could not verify the ID token; using the People API: " + e.getMessage());
+            } finally {
+                call.commit();
+            }
+            idTokenTiming.record(System.nanoTime() - tokenDone);
+            if (profile != null && profile.email() != null && profile.name() != null)
+                return profile;
+            tokenDone = System.nanoTime();
+        }
+
         // Use PeopleService to ask Google for the user's name and email
-        var ps = new PeopleService.Builder(
-                httpTransport,
-                GsonFactory.getDefaultInstance(),
-                flow.createAndStoreCredential(
-                        flow.newTokenRequest(queryParamCode).setRedirectUri(redirectUri).execute(),
-                        null))
-                .setApplicationName(APPLICATION_NAME)
-                .build();
+        var request = c.peopleService().people().get("people/me").setPersonFields("names,emailAddresses");
+        request.getRequestHeaders().setAuthorization("Bearer " + token.getAccessToken());
+        call = Events.GoogleCall.started("profile");
+        Person profile;
+        try {
+            profile = request.execute();
+            call.succeeded = true;
+        } finally {
+            call.commit();
+        }
+        profileTiming.record(System.nanoTime() - tokenDone);
+
         // Extract fields
-        var profile = ps.people().get("people/me").setPersonFields("names,emailAddresses").execute();
         String email = profile.getEmailAddresses().get(0).getValue();
         String name = profile.getNames().get(0).getDisplayName();
         String gId = profile.getEmailAddresses().get(0).getMetadata().getSource().getId();
         return new OAuthProfile(gId, email, name);
     }
+
+    /** The ID token is malformed, or fails verification, so the login must fail */
+    static class InvalidIdTokenException extends IOException {
+        /** Exceptions are Serializable, so give this class a fixed version */
+        private static final long serialVersionUID = 1L;
+
+        /** Create an exception with a message */
+        InvalidIdTokenException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Check the signature, issuer, audience, and expiration of an ID token, and
+     * then extract the user's information from it.
+     *
+     * @param idTokenString The encoded ID token
+     *
+     * @return The user's information. The email and name may be null if the
+     *         token didn't include them.
+     *
+     * @throws InvalidIdTokenException if the token is malformed or fails
+     *                                 verification
+     * @throws IOException             if Google's signing keys can't be
+     *                                 fetched, so the token can't be checked
+     */
+    OAuthProfile verifyIdToken(String idTokenString) throws IOException {
+        IdToken idToken;
+        try {
+            idToken = IdToken.parse(GsonFactory.getDefaultInstance(), idTokenString);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new InvalidIdTokenException("ID token is malformed: " + e.getMessage());
+        }
+        // Google uses both forms of its issuer name
+        var issuers = List.of(endpoints.issuer(), endpoints.issuer().replaceFirst("^https://", ""));
+        if (!idToken.verifyIssuer(issuers) || !idToken.verifyAudience(List.of(clientId))
+                || !idToken.verifyTime(System.currentTimeMillis(), IdTokenVerifier.DEFAULT_TIME_SKEW_SECONDS)
+                || !"RS256".equals(idToken.getHeader().getAlgorithm()))
+            throw new InvalidIdTokenException("ID token has the wrong issuer, audience, time, or algorithm");
+        // This throws a plain IOException if the keys can't be fetched
+        var key = clients().signingKeys().get(idToken.getHeader().getKeyId());
+        boolean signed;
+        try {
+            signed = key != null && idToken.verifySignature(key);
+        } catch (GeneralSecurityException e) {
+            signed = false;
+        }
+        if (!signed)
+            throw new InvalidIdTokenException("ID token failed verification");
+        var payload = idToken.getPayload();
+        return new OAuthProfile(payload.getSubject(), (String) payload.get("email"), (String) payload.get("name"));
+    }
+
+    /** Describe how long each step of the login flow has been taking */
+    public String timingReport() {
+        return tokenTiming + "; " + profileTiming + "; " + idTokenTiming;
+    }
+
+    /** Get how long each step of the login flow has been taking, for reporting */
+    List<StepTiming.Snapshot> timings() {
+        return List.of(tokenTiming.snapshot(), profileTiming.snapshot(), idTokenTiming.snapshot());
+    }
 }
@@ -0,0 +1,180 @@
+package quickstart.backend;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lifecycle shuts the backend down without dropping requests. During a
+ * zero-downtime deploy, Dokku starts the new container, waits for it to pass
+ * its checks, points nginx at it, and then stops the old one (SIGTERM, and
+ * then SIGKILL if it takes too long). When the old one gets SIGTERM, there
+ * may still be requests in flight, and the database must not go away under
+ * them.
+ *
+ * Shutdown happens in phases:
+ *
+ * 1. Unready: /ready starts returning 503, so anything that is still routing
+ * by health check stops sending new requests. We wait a moment for it to
+ * notice, but keep serving whatever still arrives.
+ *
+ * 2. Drain: wait (up to a timeout) for the requests that are running to
+ * finish.
+ *
+ * 3. Close: close the resources in the reverse of the order they were
+ * registered, so that each one closes before the things it depends on (e.g.,
+ * the web server, then the login pool and archiver, then the database).
+ */
+public class Lifecycle {
+    /** The phases of the backend's life */
+    public enum State {
+        /** Setting up; not taking requests yet */
+        STARTING,
+        /** Taking requests */
+        READY,
+        /** Shutting down, but finishing the requests that are in flight */
+        DRAINING,
+        /** Shut down */
+        STOPPED
+    }
+
+    /**
+     * Resource is something that must be closed at shutdown
+     *
+     * @param name     a name, for logging
+     * @param resource the thing to close
+     */
+    private static record Resource(String name, AutoCloseable resource) {
+    }
+
+    /** The current phase */
+    private volatile State state = State.STARTING;
+
+    /** The number of requests that are running */
+    private final AtomicInteger active = new AtomicInteger();
+
+    /** The resources to close, in the order they were registered */
+    private final List<Resource> resources = new ArrayList<>();
+
+    /** How long to keep serving after becoming unready, before draining */
+    private final long unreadyDelayMs;
+
+    /** The longest to wait for in-flight requests to finish */
+    private final long drainTimeoutMs;
+
+    /**
+     * Create a lifecycle manager
+     *
+     * @param unreadyDelayMs How long to keep serving after /ready starts
+     *                       failing, so load balancers can notice
+     * @param drainTimeoutMs The longest to wait for in-flight requests
+     */
+    public Lifecycle(long unreadyDelayMs, long drainTimeoutMs) {
+        this.unreadyDelayMs = unreadyDelayMs;
+        this.drainTimeoutMs = drainTimeoutMs;
+    }
+
+    /** The current phase */
+    public State state() {
+        return state;
+    }
+
+    /** True if the backend should be sent new requests */
+    public boolean isReady() {
+        return state == State.READY;
+    }
+
+    /** The number of requests that are running */
+    public int active() {
+        return active.get();
+    }
+
+    /** Mark the backend as ready for requests */
+    public void ready() {
+        state = State.READY;
+    }
+
+    /**
+     * Register something to close at shutdown. Register things before the
+     * things that use them: they are closed in reverse order.
+     *
+     * @param name     a name, for logging
+     * @param resource the thing to close
+     */
+    public synchronized void register(String name, AutoCloseable resource) {
+        resources.add(new Resource(name, resource));
+    }
+
+    /** Note that a request has started */
+    public void requestStarted() {
+        active.incrementAndGet();
+    }
+
+    /** Note that a request has finished */
+    public void requestFinished() {
+        synchronized (active) {
+            if (active.decrementAndGet() == 0)
+                active.notifyAll();
+        }
+    }
+
+    /**
+     * Become unready, wait for in-flight requests, and then close everything.
+     * This is meant to be called from a shutdown hook.
+     */
+    public void shutdown() {
+        long start = System.nanoTime();
+        state = State.DRAINING;
+        System.out.println("Shutdown: no longer ready, " + active() + " request(s) in flight");
+        try {
+            Thread.sleep(unreadyDelayMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        boolean drained = awaitIdle(drainTimeoutMs);
+        System.out.printf("Shutdown: %s after %.1f ms%n",
+                drained ? "drained" : "gave up on " + active() + " request(s)", (System.nanoTime() - start) / 1e6);
+        List<Resource> toClose;
+        synchronized (this) {
+            toClose = new ArrayList<>(resources);
+            resources.clear();
+        }
+        for (int i = toClose.size() - 1; i >= 0; --i) {
+            var r = toClose.get(i);
+            try {
+                System.out.println("Shutdown: closing " + r.name());
+                r.resource().close();
+            } catch (Exception e) {
+                // Keep going: the rest still need to be closed
+                e.printStackTrace();
+            }
+        }
+        state = State.STOPPED;
+        System.out.printf("Shutdown: done after %.1f ms%n", (System.nanoTime() - start) / 1e6);
+    }
+
+    /**
+     * Wait for the number of running requests to reach zero
+     *
+     * @param timeoutMs The longest to wait
+     *
+     * @return true if no requests are running
+     */
+    boolean awaitIdle(long timeoutMs) {
+        long deadline = System.nanoTime() + timeoutMs * 1_000_000;
+        synchronized (active) {
+            while (active.get() > 0) {
+                long left = (deadline - System.nanoTime()) / 1_000_000;
+                if (left <= 0)
+                    return false;
+                try {
+                    active.wait(left);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package quickstart.backend;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * PersonCache maps email addresses to rows of tblPerson, so that logins don't
+ * need a database query.
+ *
+ * The backend writes through the cache whenever it changes a person, but the
+ * admin app can change tblPerson behind the backend's back. To keep that from
+ * causing trouble for long, every entry expires after a fixed time-to-live, and
+ * misses are never cached (so a newly-added person can log in right away).
+ * An expired entry is removed by the lookup that finds it. Entries for people
+ * who stop logging in are never looked up again, so lookups also sweep every
+ * expired entry out of the map, at most once per time-to-live. That keeps the
+ * map to about the people who have logged in during the last two TTLs.
+ */
+class PersonCache {
+    /** An entry in the cache: the person, and when it was loaded */
+    private static record Entry(Database.Person person, long loadedAtNanos) {
+    }
+
+    /** The cached people, keyed by lower-case email address */
+    private final ConcurrentHashMap<String, Entry> byEmail = new ConcurrentHashMap<>();
+
+    /** How long an entry is trusted before it must be re-read */
+    private final long ttlNanos;
+
+    /** The number of lookups that the cache answered */
+    private final LongAdder hits = new LongAdder();
+
+    /** The number of lookups that had to go to the database */
+    private final LongAdder misses = new LongAdder();
+
+    /** The number of expired entries that have been removed */
+    private final LongAdder evictions = new LongAdder();
+
+    /** When (per System.nanoTime) the next lookup should sweep the map */
+    private final AtomicLong nextSweepNanos;
+
+    /**
+     * Create an empty cache
+     *
+     * @param ttlSeconds how long an entry is trusted before it must be re-read
+     */
+    PersonCache(long ttlSeconds) {
+        this.ttlNanos = ttlSeconds * 1_000_000_000L;
+        this.nextSweepNanos = new AtomicLong(System.nanoTime() + ttlNanos);
+    }
+
+    /** Normalize an email address into a cache key */
+    static String key(String email) {
+        return email.toLowerCase();
+    }
+
+    /**
+     * Look up a person by email
+     *
+     * @return the person, or null if they aren't cached (or have expired)
+     */
+    Database.Person get(String email) {
+        long now = System.nanoTime();
+        sweepIfDue(now);
+        var key = key(email);
+        var e = byEmail.get(key);
+        if (e == null || now - e.loadedAtNanos() > ttlNanos) {
+            misses.increment();
+            // Only remove the entry we saw, in case another thread has just
+            // replaced it with a fresh one
+            if (e != null && byEmail.remove(key, e))
+                evictions.increment();
+            return null;
+        }
+        hits.increment();
+        return e.person();
+    }
+
+    /**
+     * Remove every expired entry, if a TTL has passed since the last sweep.
+     * Only the thread that moves nextSweepNanos forward does the work, so
+     * concurrent lookups don't all sweep at once.
+     */
+    private void sweepIfDue(long now) {
+        long due = nextSweepNanos.get();
+        if (now - due < 0 || !nextSweepNanos.compareAndSet(due, now + ttlNanos))
+            return;
+        // Like get, only remove entries that are still the expired ones
+        for (var entry : byEmail.entrySet()) {
+            var e = entry.getValue();
+            if (now - e.loadedAtNanos() > ttlNanos && byEmail.remove(entry.getKey(), e))
+                evictions.increment();
+        }
+    }
+
+    /** Add or replace a person in the cache */
+    void put(Database.Person person) {
+        byEmail.put(key(person.email()), new Entry(person, System.nanoTime()));
+    }
+
+    /** Update the name of the person with the given id, if they are cached */
+    void rename(int id, String name) {
+        byEmail.replaceAll((k, e) -> e.person().id() != id ? e
+                : new Entry(new Database.Person(id, e.person().email(), name), e.loadedAtNanos()));
+    }
+
+    /** The number of people in the cache */
+    int size() {
+        return byEmail.size();
+    }
+
+    /**
+     * A copy of the cache's counters, for reporting as JSON
+     *
+     * @param size      the number of people in the cache
+     * @param hits      the number of lookups that the cache answered
+     * @param misses    the number of lookups that had to go to the database
+     * @param evictions the number of expired entries that have been removed
+     */
+    static record Stats(int size, long hits, long misses, long evictions) {
+    }
+
+    /** Get a copy of the cache's counters */
+    Stats stats() {
+        return new Stats(size(), hits.sum(), misses.sum(), evictions.sum());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("person cache: size=%d hits=%d misses=%d evictions=%d", size(), hits.sum(),
+                misses.sum(), evictions.sum());
+    }
+}
@@ -5,6 +5,10 @@ import io.javalin.http.Context;
 
 import com.google.gson.*;
 
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
 import java.util.Base64;
 
 /**
@@ -21,6 +25,18 @@ public class Routes {
      */
     public static final String RT_AUTHERROR = "/autherror";
 
+    /**
+     * The path for the readiness check. It doesn't need a login, so that
+     * Dokku and load balancers can use it.
+     */
+    public static final String RT_READY = "/ready";
+
+    /**
+     * The path for downloading the continuous flight recording. It doesn't
+     * need a login, since it is protected by its own key.
+     */
+    public static final String RT_RECORDING = "/admin/recording";
+
     /**
      * StructuredResponse provides a common format for success and failure
      * messages, with an optional payload of type Object that can be converted
@@ -54,32 +70,59 @@ public class Routes {
     }
 
     /**
-     * Handle a code returned from Google during OAuth flow
+     * Handle a code returned from Google during OAuth flow. Talking to Google
+     * can take hundreds of milliseconds, so the work happens on the login
+     * bulkhead instead of on one of the web server's threads. If the bulkhead
+     * is overloaded, the user gets a 503 and can try again.
      *
-     * @param ctx      The HTTP context, with cookies, querystring, etc
-     * @param db       The database
-     * @param gson     A thread-safe object for converting to/from JSON
-     * @param sessions The session store
-     * @param gOAuth   A fully configured GoogleOAuth object
+     * @param ctx        The HTTP context, with cookies, querystring, etc
+     * @param db         The database
+     * @param gson       A thread-safe object for converting to/from JSON
+     * @param sessions   The session store
+     * @param gOAuth     A fully configured GoogleOAuth object
+     * @param loginPool  The bulkhead on which to run the login work
      */
-    public static void authCallback(Context ctx, Database db, Gson gson, Sessions sessions, GoogleOAuth gOAuth) {
+    public static void authCallback(Context ctx, Database db, Gson gson, Sessions sessions, GoogleOAuth gOAuth,
+            Bulkhead loginPool) {
         System.out.println(">>>>>>>>>>>>>> invoking authCallBack");
-        ctx.status(200);
-        ctx.contentType(ContentType.APPLICATION_JSON);
-        try {
-            GoogleOAuth.OAuthProfile profile = gOAuth.getProfileInformation(ctx.queryParam("code"));
-
-            // Make sure they're in the database
-            var user = db.getPersonByEmail(profile.email());
-            if (user == null) {
+        String code = ctx.queryParam("code");
+        // The work moves to another thread, so the route goes with it
+        String route = Events.route();
+        ctx.future(() -> loginPool.submit(() -> {
+            Events.setRoute(route);
+            try {
+                GoogleOAuth.OAuthProfile profile = gOAuth.getProfileInformation(code);
+                // Make sure they're in the database
+                var user = db.getPersonByEmail(profile.email());
+                return new LoginResult(profile, user);
+            } finally {
+                Events.setRoute(null);
+            }
+        }).handle((login, e) -> {
+            if (e != null) {
+                if (Bulkhead.isOverload(e)) {
+                    System.out.println("Login bulkhead overloaded: " + e);
+                    ctx.status(503);
+                    ctx.header("Retry-After", "1");
+                    ctx.result("Too many logins at once; please try again.");
+                } else {
+                    System.out.println("Authentication Error" + e);
+                    // NB: This actually redirects to OAuth login screen
+                    ctx.redirect(Routes.RT_AUTHERROR);
+                }
+                return null;
+            }
+            if (login.user() == null) {
                 // NB: "/autherror" is not a valid path, but using it will
                 // redirect to login
                 ctx.redirect(Routes.RT_AUTHERROR);
-                return;
+                return null;
             }
 
             // Set up a cookie with the user's important info, put the user in
             // the session store, and redirect to the home page
+            var profile = login.profile();
+            var user = login.user();
             var key = sessions.onLogin(profile.gId(), user.id(), profile.email(), profile.name());
             ctx.cookie("auth.gId", profile.gId());
             ctx.cookie("auth.key", key);
@@ -87,10 +130,101 @@ public class Routes {
             ctx.cookie("auth.name", Base64.getEncoder().encodeToString(profile.name().getBytes()));
             ctx.cookie("auth.id", "" + user.id());
             ctx.redirect("/");
+            return null;
+        }));
+    }
+
+    /** The result of the slow part of a login: Google's profile, and our row */
+    static record LoginResult(GoogleOAuth.OAuthProfile profile, Database.Person user) {
+    }
+
+    /**
+     * Report the state of the login bulkhead
+     *
+     * @param ctx       The HTTP context, with cookies, querystring, etc
+     * @param gson      A thread-safe object for converting to/from JSON
+     * @param loginPool The bulkhead on which logins run
+     */
+    public static void readLoginMetrics(Context ctx, Gson gson, Bulkhead loginPool) {
+        ctx.status(200);
+        ctx.contentType(ContentType.APPLICATION_JSON);
+        ctx.result(gson.toJson(new StructuredResponse("ok", null, loginPool.metrics())));
+    }
+
+    /**
+     * Report how long each step of talking to Google has been taking
+     *
+     * @param ctx    The HTTP context, with cookies, querystring, etc
+     * @param gson   A thread-safe object for converting to/from JSON
+     * @param gOAuth The GoogleOAuth object that logins use
+     */
+    public static void readGoogleMetrics(Context ctx, Gson gson, GoogleOAuth gOAuth) {
+        ctx.status(200);
+        ctx.contentType(ContentType.APPLICATION_JSON);
+        ctx.result(gson.toJson(new StructuredResponse("ok", null, gOAuth.timings())));
+    }
+
+    /**
+     * Report how well the email-to-person cache is saving logins from the
+     * database
+     *
+     * @param ctx  The HTTP context, with cookies, querystring, etc
+     * @param db   The database
+     * @param gson A thread-safe object for converting to/from JSON
+     */
+    public static void readPersonCacheMetrics(Context ctx, Database db, Gson gson) {
+        ctx.status(200);
+        ctx.contentType(ContentType.APPLICATION_JSON);
+        ctx.result(gson.toJson(new StructuredResponse("ok", null, db.personCacheStats())));
+    }
+
+    /**
+     * Report whether this server should be sent new requests. The answer is
+     * 200 once the server is up, and 503 once it starts shutting down.
+     *
+     * @param ctx       The HTTP context, with cookies, querystring, etc
+     * @param gson      A thread-safe object for converting to/from JSON
+     * @param lifecycle The server's lifecycle
+     */
+    public static void readReady(Context ctx, Gson gson, Lifecycle lifecycle) {
+        ctx.status(lifecycle.isReady() ? 200 : 503);
+        ctx.contentType(ContentType.APPLICATION_JSON);
+        ctx.result(gson.toJson(new StructuredResponse(lifecycle.isReady() ? "ok" : "error",
+                lifecycle.state().toString(), lifecycle.active())));
+    }
+
+    /**
+     * Download a copy of the continuous flight recording, as a .jfr file that
+     * JDK Mission Control or `jfr print` can open. The request must carry the
+     * dump key in its X-Dump-Key header.
+     *
+     * @param ctx       The HTTP context, with cookies, querystring, etc
+     * @param gson      A thread-safe object for converting to/from JSON
+     * @param recording The recording
+     * @param dumpKey   The key that the request must carry
+     */
+    public static void readRecording(Context ctx, Gson gson, FlightRecording recording, String dumpKey) {
+        var given = ctx.header("X-Dump-Key");
+        // Compare in constant time, so the key can't be guessed a byte at a
+        // time
+        if (given == null || !MessageDigest.isEqual(given.getBytes(StandardCharsets.UTF_8),
+                dumpKey.getBytes(StandardCharsets.UTF_8))) {
+            ctx.status(403);
+            ctx.contentType(ContentType.APPLICATION_JSON);
+            ctx.result(gson.toJson(new StructuredResponse("error", "Invalid dump key", null)));
+            return;
+        }
+        try {
+            var file = recording.dump();
+            ctx.status(200);
+            ctx.contentType(ContentType.APPLICATION_OCTET_STREAM);
+            ctx.header("Content-Disposition", "attachment; filename=\"backend.jfr\"");
+            // The copy is deleted once it has been sent
+            ctx.result(Files.newInputStream(file, StandardOpenOption.DELETE_ON_CLOSE));
         } catch (Exception e) {
-            System.out.println("Authentication Error" + e);
-            // NB: This actually redirects to OAuth login screen
-            ctx.redirect(Routes.RT_AUTHERROR);
+            ctx.status(500);
+            ctx.contentType(ContentType.APPLICATION_JSON);
+            ctx.result(gson.toJson(new StructuredResponse("error", e.getMessage(), null)));
         }
     }
 
@@ -144,8 +278,20 @@ public class Routes {
         ctx.contentType(ContentType.APPLICATION_JSON);
         try {
             var req = gson.fromJson(ctx.body(), Database.NameChangeRequest.class);
-            db.updatePersonName(sessions.get(ctx.cookie("auth.gId")).id(), req);
-            ctx.result(gson.toJson(new StructuredResponse("ok", null, null)));
+            int id = sessions.get(ctx.cookie("auth.gId")).id();
+            switch (db.updatePersonName(id, req)) {
+                case UPDATED:
+                    ctx.result(gson.toJson(new StructuredResponse("ok", null, null)));
+                    break;
+                case NOT_FOUND:
+                    throw new Exception("No such person");
+                case CONFLICT:
+                    // Send the current person, so the client can try again
+                    ctx.status(409);
+                    ctx.result(gson.toJson(new StructuredResponse("conflict",
+                            "Your profile was changed somewhere else", db.getOnePerson(id))));
+                    break;
+            }
         } catch (Exception e) {
             ctx.result(gson.toJson(new StructuredResponse("error", e.getMessage(), null)));
         }
@@ -190,6 +336,39 @@ public class Routes {
         }
     }
 
+    /** The number of search results per page, when the client doesn't say */
+    static final int SEARCH_PAGE_SIZE = 20;
+
+    /** The most search results that a client may ask for at once */
+    static final int SEARCH_MAX_PAGE_SIZE = 100;
+
+    /**
+     * Search the messages. The query string has the words to find (`q`), and
+     * optionally the page to return (`page`, starting at 0) and the number of
+     * results per page (`pageSize`).
+     *
+     * @param ctx  The HTTP context, with cookies, querystring, etc
+     * @param db   The database
+     * @param gson A thread-safe object for converting to/from JSON
+     */
+    public static void readMessageSearch(Context ctx, Database db, Gson gson) {
+        ctx.status(200);
+        ctx.contentType(ContentType.APPLICATION_JSON);
+        try {
+            String q = ctx.queryParam("q");
+            if (q == null || q.isBlank())
+                throw new Exception("Missing search query");
+            int page = ctx.queryParamAsClass("page", Integer.class).getOrDefault(0);
+            int pageSize = ctx.queryParamAsClass("pageSize", Integer.class).getOrDefault(SEARCH_PAGE_SIZE);
+            if (page < 0 || pageSize < 1 || pageSize > SEARCH_MAX_PAGE_SIZE)
+                throw new Exception("Invalid page");
+            ctx.result(gson.toJson(new StructuredResponse("ok", null,
+                    db.searchMessages(q, pageSize, page * pageSize))));
+        } catch (Exception e) {
+            ctx.result(gson.toJson(new StructuredResponse("error", e.getMessage(), null)));
+        }
+    }
+
     /**
      * Get everything about a single message
      *
@@ -224,8 +403,20 @@ public class Routes {
         ctx.contentType(ContentType.APPLICATION_JSON);
         try {
             var req = gson.fromJson(ctx.body(), Database.UpdateMessageRequest.class);
-            db.updateMessage(Integer.parseInt(ctx.pathParam("id")), req, sessions.get(ctx.cookie("auth.gId")).id());
-            ctx.result(gson.toJson(new StructuredResponse("ok", null, null)));
+            int id = Integer.parseInt(ctx.pathParam("id"));
+            switch (db.updateMessage(id, req, sessions.get(ctx.cookie("auth.gId")).id())) {
+                case UPDATED:
+                    ctx.result(gson.toJson(new StructuredResponse("ok", null, null)));
+                    break;
+                case NOT_FOUND:
+                    throw new Exception("No such message");
+                case CONFLICT:
+                    // Send the current message, so the client can try again
+                    ctx.status(409);
+                    ctx.result(gson.toJson(new StructuredResponse("conflict",
+                            "The message was changed by someone else", db.getOneMessage(id))));
+                    break;
+            }
         } catch (Exception e) {
             ctx.result(gson.toJson(new StructuredResponse("error", e.getMessage(), null)));
         }
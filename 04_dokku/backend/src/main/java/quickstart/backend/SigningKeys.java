@@ -0,0 +1,195 @@
+package quickstart.backend;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpTransport;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+/**
+ * SigningKeys fetches and caches the public keys (a JSON Web Key Set) that
+ * Google signs ID tokens with.
+ *
+ * This is kept apart from checking a token, so that a login can tell "the keys
+ * can't be fetched right now" (an IOException from get(), after which the
+ * People API can still be asked) from "the token's signature is wrong" (which
+ * must fail the login). The library's IdTokenVerifier reports both as false.
+ *
+ * A fetch can take as long as the request timeout, so it never holds a lock:
+ * one caller fetches, and any others that need the keys meanwhile wait for
+ * that same fetch. After a failed fetch, callers get an IOException right away
+ * (or the old keys, if they have the one that is needed) until the backoff
+ * has passed, instead of each waiting for another timeout.
+ */
+class SigningKeys {
+    /** How long a fetched key set is trusted; Google rotates keys every few days */
+    private static final long MAX_AGE_NANOS = TimeUnit.HOURS.toNanos(1);
+
+    /**
+     * The least time between fetches caused by an unknown key id, so that
+     * tokens with made-up key ids can't make every login fetch the key set
+     */
+    private static final long MIN_REFETCH_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    /** How long to wait after a failed fetch before trying again */
+    private static final long FAILURE_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    /**
+     * A fetched key set
+     *
+     * @param keys           the keys, by key id
+     * @param fetchedAtNanos when the keys were fetched
+     */
+    private static record KeySet(Map<String, PublicKey> keys, long fetchedAtNanos) {
+    }
+
+    /**
+     * A failed fetch
+     *
+     * @param cause         why the fetch failed
+     * @param failedAtNanos when the fetch failed
+     */
+    private static record Failure(IOException cause, long failedAtNanos) {
+    }
+
+    /** Sends the requests for the key set */
+    private final HttpTransport transport;
+
+    /** Sets the timeouts on each request */
+    private final HttpRequestInitializer initializer;
+
+    /** Where the key set is */
+    private final String jwksUrl;
+
+    /** The latest key set, or null before the first successful fetch */
+    private volatile KeySet current;
+
+    /** The latest failed fetch, or null if the latest fetch succeeded */
+    private volatile Failure lastFailure;
+
+    /** The fetch that is running now, if any */
+    private final AtomicReference<CompletableFuture<KeySet>> inFlight = new AtomicReference<>();
+
+    /**
+     * Create a SigningKeys that fetches on first use
+     *
+     * @param transport   Sends the requests for the key set
+     * @param initializer Sets the timeouts on each request
+     * @param jwksUrl     Where the key set is
+     */
+    SigningKeys(HttpTransport transport, HttpRequestInitializer initializer, String jwksUrl) {
+        this.transport = transport;
+        this.initializer = initializer;
+        this.jwksUrl = jwksUrl;
+    }
+
+    /**
+     * Get the key with the given id. The key set is fetched if it hasn't been
+     * yet, if it is old, or (at most once a minute) if it doesn't have the key.
+     * If the key set can't be fetched, an old key set is still used if it has
+     * the key.
+     *
+     * @param keyId The "kid" from the token's header
+     *
+     * @return The key, or null if the key set doesn't have it
+     *
+     * @throws IOException If the key set can't be fetched or parsed, or a
+     *                     fetch failed less than the backoff ago
+     */
+    PublicKey get(String keyId) throws IOException {
+        var set = current;
+        long now = System.nanoTime();
+        if (set != null) {
+            long age = now - set.fetchedAtNanos();
+            if (age <= MAX_AGE_NANOS && (set.keys().containsKey(keyId) || age <= MIN_REFETCH_NANOS))
+                return set.keys().get(keyId);
+        }
+        var failure = lastFailure;
+        IOException error;
+        if (failure != null && now - failure.failedAtNanos() < FAILURE_BACKOFF_NANOS) {
+            error = new IOException("Not fetching the key set again so soon after a failure: "
+                    + failure.cause().getMessage(), failure.cause());
+        } else {
+            try {
+                return refresh().keys().get(keyId);
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        if (set != null && set.keys().containsKey(keyId))
+            return set.keys().get(keyId);
+        throw error;
+    }
+
+    /**
+     * Fetch the key set, or wait for the fetch that another thread has already
+     * started
+     */
+    private KeySet refresh() throws IOException {
+        var mine = new CompletableFuture<KeySet>();
+        var running = inFlight.compareAndExchange(null, mine);
+        if (running != null) {
+            try {
+                return running.join();
+            } catch (CompletionException e) {
+                throw new IOException("Could not fetch the key set at " + jwksUrl, e.getCause());
+            }
+        }
+        try {
+            var set = new KeySet(fetch(), System.nanoTime());
+            current = set;
+            lastFailure = null;
+            mine.complete(set);
+            return set;
+        } catch (IOException e) {
+            lastFailure = new Failure(e, System.nanoTime());
+            mine.completeExceptionally(e);
+            throw e;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.set(null);
+        }
+    }
+
+    /** Fetch and parse the key set. Only RSA keys are kept. */
+    private Map<String, PublicKey> fetch() throws IOException {
+        var response = transport.createRequestFactory(initializer).buildGetRequest(new GenericUrl(jwksUrl))
+                .execute();
+        try {
+            var result = new HashMap<String, PublicKey>();
+            var factory = KeyFactory.getInstance("RSA");
+            var decoder = Base64.getUrlDecoder();
+            for (var element : JsonParser.parseString(response.parseAsString()).getAsJsonObject()
+                    .getAsJsonArray("keys")) {
+                var key = element.getAsJsonObject();
+                if (!"RSA".equals(key.get("kty").getAsString()))
+                    continue;
+                var n = new BigInteger(1, decoder.decode(key.get("n").getAsString()));
+                var e = new BigInteger(1, decoder.decode(key.get("e").getAsString()));
+                result.put(key.get("kid").getAsString(), factory.generatePublic(new RSAPublicKeySpec(n, e)));
+            }
+            return result;
+        } catch (GeneralSecurityException | JsonParseException | IllegalStateException | NullPointerException
+                | IllegalArgumentException e) {
+            throw new IOException("Could not parse the key set at " + jwksUrl, e);
+        } finally {
+            response.disconnect();
+        }
+    }
+}
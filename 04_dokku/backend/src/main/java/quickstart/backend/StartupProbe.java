@@ -0,0 +1,71 @@
+package quickstart.backend;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+
+import com.google.gson.GsonBuilder;
+
+/**
+ * StartupProbe walks through the backend's startup path without needing a
+ * database or real Google credentials, and reports how long it took to answer
+ * its first request. It has two uses:
+ *
+ * 1. It is the training run for the AppCDS archive. Running it with
+ * -XX:ArchiveClassesAtExit=target/backend.jsa records every class that startup
+ * loads, so that later runs (with -XX:SharedArchiveFile=target/backend.jsa)
+ * can map them from the archive instead of parsing and verifying them again.
+ *
+ * 2. It is a startup benchmark that can be run anywhere: compare
+ * "first response" with and without the archive (see support/startup_bench.sh).
+ *
+ * NB: It should load the same classes that App.main loads before it starts
+ * listening. When App's startup changes, change this, too.
+ */
+public class StartupProbe {
+    /**
+     * The number of milliseconds since the JVM started. This is when the
+     * process launched, so unlike a timer started in main, it includes JVM
+     * boot and class loading.
+     */
+    static long sinceJvmStart() {
+        var start = ProcessHandle.current().info().startInstant().orElse(Instant.now());
+        return Duration.between(start, Instant.now()).toMillis();
+    }
+
+    public static void main(String[] args) throws Exception {
+        // Load the JDBC driver and the Database class, as App.main does
+        Class.forName(Database.class.getName());
+        var gson = new GsonBuilder().setDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").create();
+        var sessions = new Sessions();
+        var gOAuth = new GoogleOAuth("http://localhost", 0, "client", "secret", Routes.RT_AUTH_GOOGLE_CALLBACK,
+                GoogleOAuth.Endpoints.GOOGLE, false);
+        var loginPool = new Bulkhead("login", 1, 1, 1000);
+        var lifecycle = new Lifecycle(0, 1000);
+        var app = App.createServer(System.getenv("STATIC_LOCATION"), lifecycle);
+        app.before(ctx -> sessions.checkValid(ctx.cookie("auth.gId"), ctx.cookie("auth.key")));
+        app.get(Routes.RT_READY, ctx -> Routes.readReady(ctx, gson, lifecycle));
+        app.get("/metrics/login", ctx -> Routes.readLoginMetrics(ctx, gson, loginPool));
+        app.start(0);
+        lifecycle.ready();
+        long listening = sinceJvmStart();
+
+        var client = HttpClient.newHttpClient();
+        var response = client.send(
+                HttpRequest.newBuilder(URI.create("http://localhost:" + app.port() + Routes.RT_READY)).build(),
+                HttpResponse.BodyHandlers.ofString());
+        long firstResponse = sinceJvmStart();
+
+        // The clients are built after startup in production, but their
+        // classes belong in the archive, too
+        gOAuth.warmUp();
+        lifecycle.register("login pool", loginPool);
+        lifecycle.register("web server", app::stop);
+        lifecycle.shutdown();
+        System.out.printf("startup: listening after %d ms, first response (%d) after %d ms%n", listening,
+                response.statusCode(), firstResponse);
+    }
+}
@@ -0,0 +1,72 @@
+package quickstart.backend;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * StepTiming keeps running totals for one step of some piece of work (e.g., a
+ * part of the login flow). It is thread-safe, so concurrent requests can all
+ * record into it.
+ */
+class StepTiming {
+    /** A name for this step, for reporting */
+    private final String name;
+
+    /** The number of times the step has run */
+    private final LongAdder count = new LongAdder();
+
+    /** The total time spent in the step */
+    private final LongAdder totalNanos = new LongAdder();
+
+    /** The slowest single run of the step */
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /** Construct a StepTiming with the given name */
+    StepTiming(String name) {
+        this.name = name;
+    }
+
+    /** Record one run of the step */
+    void record(long nanos) {
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /** The number of times the step has run */
+    long count() {
+        return count.sum();
+    }
+
+    /** The average duration of the step, in milliseconds */
+    double averageMillis() {
+        long n = count.sum();
+        return n == 0 ? 0 : totalNanos.sum() / 1e6 / n;
+    }
+
+    /** The longest duration of the step, in milliseconds */
+    double maxMillis() {
+        return maxNanos.get() / 1e6;
+    }
+
+    /**
+     * A copy of a StepTiming's totals, for reporting as JSON
+     *
+     * @param name  the step
+     * @param count the number of times the step has run
+     * @param avgMs the average duration of the step, in milliseconds
+     * @param maxMs the longest duration of the step, in milliseconds
+     */
+    static record Snapshot(String name, long count, double avgMs, double maxMs) {
+    }
+
+    /** Get a copy of the totals so far */
+    Snapshot snapshot() {
+        return new Snapshot(name, count(), averageMillis(), maxMillis());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: n=%d avg=%.2fms max=%.2fms", name, count(), averageMillis(), maxMillis());
+    }
+}
@@ -0,0 +1,58 @@
+package quickstart.backend;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/** Tests for the Bulkhead that runs logins off of the web server's threads */
+public class BulkheadTest {
+    /** A task should run, and its result should come back through the future */
+    @Test
+    @DisplayName("submit should return the task's result")
+    public void givenIdleBulkhead_whenSubmitting_thenResultIsReturned() throws Exception {
+        try (var b = new Bulkhead("test", 1, 1, 1000)) {
+            assertEquals(42, b.submit(() -> 42).get(1, TimeUnit.SECONDS));
+            assertEquals(0, b.metrics().rejected());
+        }
+    }
+
+    /** Once the threads and queue are full, new work should be rejected */
+    @Test
+    @DisplayName("submit should reject work when the queue is full")
+    public void givenFullBulkhead_whenSubmitting_thenRejectRightAway() throws Exception {
+        var release = new CountDownLatch(1);
+        try (var b = new Bulkhead("test", 1, 1, 5000)) {
+            var running = b.submit(() -> release.await(5, TimeUnit.SECONDS));
+            var queued = b.submit(() -> release.await(5, TimeUnit.SECONDS));
+            var ex = assertThrows(ExecutionException.class, () -> b.submit(() -> 1).get(1, TimeUnit.SECONDS));
+            assertTrue(Bulkhead.isOverload(ex.getCause()));
+            var m = b.metrics();
+            assertEquals(1, m.rejected());
+            assertEquals(1, m.queueDepth());
+            release.countDown();
+            running.get(1, TimeUnit.SECONDS);
+            queued.get(1, TimeUnit.SECONDS);
+        }
+    }
+
+    /** A task that runs too long should time out, and be counted */
+    @Test
+    @DisplayName("submit should time out slow work")
+    public void givenSlowTask_whenWaiting_thenTimeOut() throws Exception {
+        var release = new CountDownLatch(1);
+        try (var b = new Bulkhead("test", 1, 1, 50)) {
+            var ex = assertThrows(ExecutionException.class,
+                    () -> b.submit(() -> release.await(5, TimeUnit.SECONDS)).get(1, TimeUnit.SECONDS));
+            assertTrue(Bulkhead.isOverload(ex.getCause()));
+            assertEquals(1, b.metrics().timedOut());
+            release.countDown();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package quickstart.backend;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.google.gson.Gson;
+
+import jdk.jfr.consumer.RecordingFile;
+
+/** Tests for the continuous flight recording and the backend's JFR events */
+public class FlightRecordingTest {
+    /** The folder for the server's static files and the downloaded dump */
+    @TempDir
+    Path tempDir;
+
+    /** The dump endpoint should need the key, and its file should hold our events */
+    @Test
+    @DisplayName("the recording endpoint should check its key and return our events")
+    public void givenRecording_whenDumped_thenHoldsRouteAndGoogleEvents() throws Exception {
+        Files.writeString(tempDir.resolve("index.html"), "<html></html>");
+        var lifecycle = new Lifecycle(0, 100);
+        try (var recording = new FlightRecording(Duration.ofMinutes(5), 10 * 1024 * 1024)) {
+            var app = App.createServer(tempDir.toString(), lifecycle);
+            app.get("/messages/{id}", ctx -> ctx.result("ok"));
+            app.get(Routes.RT_RECORDING, ctx -> Routes.readRecording(ctx, new Gson(), recording, "sekrit"));
+            app.start(0);
+            try {
+                var client = HttpClient.newHttpClient();
+                var base = "http://localhost:" + app.port();
+                for (int id = 1; id <= 3; ++id)
+                    client.send(HttpRequest.newBuilder(URI.create(base + "/messages/" + id)).build(),
+                            HttpResponse.BodyHandlers.discarding());
+                var call = Events.GoogleCall.started("token");
+                call.succeeded = true;
+                call.commit();
+
+                var denied = client.send(HttpRequest.newBuilder(URI.create(base + Routes.RT_RECORDING))
+                        .header("X-Dump-Key", "wrong").build(), HttpResponse.BodyHandlers.discarding());
+                assertEquals(403, denied.statusCode());
+
+                var file = tempDir.resolve("dump.jfr");
+                var dumped = client.send(HttpRequest.newBuilder(URI.create(base + Routes.RT_RECORDING))
+                        .header("X-Dump-Key", "sekrit").build(), HttpResponse.BodyHandlers.ofFile(file));
+                assertEquals(200, dumped.statusCode());
+
+                // Count our events by name, and check the route events' fields
+                var counts = new HashMap<String, Integer>();
+                for (var event : RecordingFile.readAllEvents(file)) {
+                    var name = event.getEventType().getName();
+                    counts.merge(name, 1, Integer::sum);
+                    if (name.equals("quickstart.Route") && event.getString("path").startsWith("/messages")) {
+                        assertEquals("/messages/{id}", event.getString("path"));
+                        assertEquals("GET", event.getString("method"));
+                        assertEquals(200, event.getInt("status"));
+                    }
+                }
+                // The 403 was sent before the dump, so it was recorded, too
+                assertTrue(counts.getOrDefault("quickstart.Route", 0) >= 4, counts.toString());
+                assertEquals(1, counts.getOrDefault("quickstart.GoogleCall", 0), counts.toString());
+            } finally {
+                app.stop();
+            }
+        }
+    }
+}
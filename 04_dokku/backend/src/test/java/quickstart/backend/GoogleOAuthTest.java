@@ -0,0 +1,261 @@
+package quickstart.backend;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.google.api.client.auth.openidconnect.IdToken;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.json.webtoken.JsonWebSignature;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Runs the whole GoogleOAuth login flow against a local stub of Google's
+ * token, JWKS, and People endpoints, so that logins can be tested (and timed)
+ * without a network connection.
+ */
+public class GoogleOAuthTest {
+    /** A stub that pretends to be both the OAuth token server and People API */
+    static HttpServer stub;
+
+    /** The number of token exchanges the stub has seen */
+    static AtomicInteger tokenRequests = new AtomicInteger();
+
+    /** The number of profile requests the stub has seen */
+    static AtomicInteger peopleRequests = new AtomicInteger();
+
+    /** The GoogleOAuth object under test, pointed at the stub */
+    static GoogleOAuth gOAuth;
+
+    /** A second GoogleOAuth object, in OpenID mode */
+    static GoogleOAuth gOAuthOpenId;
+
+    /** The key the stub uses to sign ID tokens */
+    static KeyPair signingKey;
+
+    /** A key that is not in the stub's key set, for forging ID tokens */
+    static KeyPair forgingKey;
+
+    /** The audience the stub puts in ID tokens */
+    static volatile String idTokenAudience = "client";
+
+    /** Start the stub server and point GoogleOAuth objects at it */
+    @BeforeAll
+    static void initAll() throws IOException, GeneralSecurityException {
+        var gen = KeyPairGenerator.getInstance("RSA");
+        gen.initialize(2048);
+        signingKey = gen.generateKeyPair();
+        forgingKey = gen.generateKeyPair();
+
+        // Without this, Nagle's algorithm adds ~40ms to every stub reply
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stub.createContext("/token", ex -> {
+            tokenRequests.incrementAndGet();
+            ex.getRequestBody().readAllBytes();
+            reply(ex, """
+                    {"access_token": "stub-token", "token_type": "Bearer", "expires_in": 3600}""");
+        });
+        stub.createContext("/openid/token", ex -> {
+            tokenRequests.incrementAndGet();
+            ex.getRequestBody().readAllBytes();
+            reply(ex, "{\"access_token\": \"stub-token\", \"token_type\": \"Bearer\", \"expires_in\": 3600, "
+                    + "\"id_token\": \"" + signIdToken(signingKey) + "\"}");
+        });
+        stub.createContext("/forged/token", ex -> {
+            tokenRequests.incrementAndGet();
+            ex.getRequestBody().readAllBytes();
+            reply(ex, "{\"access_token\": \"stub-token\", \"token_type\": \"Bearer\", \"expires_in\": 3600, "
+                    + "\"id_token\": \"" + signIdToken(forgingKey) + "\"}");
+        });
+        stub.createContext("/jwks", ex -> {
+            var key = (RSAPublicKey) signingKey.getPublic();
+            var b64 = Base64.getUrlEncoder().withoutPadding();
+            reply(ex, "{\"keys\": [{\"kty\": \"RSA\", \"alg\": \"RS256\", \"use\": \"sig\", \"kid\": \"k1\", "
+                    + "\"n\": \"" + b64.encodeToString(unsigned(key.getModulus().toByteArray())) + "\", "
+                    + "\"e\": \"" + b64.encodeToString(key.getPublicExponent().toByteArray()) + "\"}]}");
+        });
+        stub.createContext("/broken-jwks", ex -> {
+            var body = "unavailable".getBytes(StandardCharsets.UTF_8);
+            ex.sendResponseHeaders(503, body.length);
+            try (var out = ex.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        stub.createContext("/v1/people/me", ex -> {
+            peopleRequests.incrementAndGet();
+            if (!"Bearer stub-token".equals(ex.getRequestHeaders().getFirst("Authorization"))) {
+                ex.sendResponseHeaders(401, -1);
+                ex.close();
+                return;
+            }
+            reply(ex, """
+                    {"names": [{"displayName": "Stub Person"}],
+                     "emailAddresses": [{"value": "stub@example.com", "metadata": {"source": {"id": "1234"}}}]}""");
+        });
+        stub.start();
+        String root = "http://127.0.0.1:" + stub.getAddress().getPort() + "/";
+        gOAuth = new GoogleOAuth("http://localhost", 3000, "client", "secret", Routes.RT_AUTH_GOOGLE_CALLBACK,
+                new GoogleOAuth.Endpoints(root + "auth", root + "token", root, root + "jwks", "https://stub"), false);
+        gOAuthOpenId = new GoogleOAuth("http://localhost", 3000, "client", "secret",
+                Routes.RT_AUTH_GOOGLE_CALLBACK,
+                new GoogleOAuth.Endpoints(root + "auth", root + "openid/token", root, root + "jwks", "https://stub"),
+                true);
+    }
+
+    /** Stop the stub server */
+    @AfterAll
+    static void tearDownAll() {
+        stub.stop(0);
+    }
+
+    /** Send a JSON reply from the stub */
+    static void reply(HttpExchange ex, String json) throws IOException {
+        var body = json.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().add("Content-Type", "application/json");
+        ex.sendResponseHeaders(200, body.length);
+        try (var out = ex.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /** Strip the sign byte that BigInteger.toByteArray() may add */
+    static byte[] unsigned(byte[] bytes) {
+        return bytes[0] == 0 ? Arrays.copyOfRange(bytes, 1, bytes.length) : bytes;
+    }
+
+    /** Create an ID token for the stub user, signed with the given key */
+    static String signIdToken(KeyPair key) throws IOException {
+        var header = new JsonWebSignature.Header().setAlgorithm("RS256").setKeyId("k1");
+        long now = System.currentTimeMillis() / 1000;
+        var payload = new IdToken.Payload().setIssuer("https://stub").setAudience(idTokenAudience)
+                .setSubject("1234").setIssuedAtTimeSeconds(now).setExpirationTimeSeconds(now + 3600);
+        payload.set("email", "stub@example.com");
+        payload.set("name", "Stub Person");
+        try {
+            return JsonWebSignature.signUsingRsaSha256(key.getPrivate(), GsonFactory.getDefaultInstance(),
+                    header, payload);
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /** The auth URL should be built from the configured endpoint */
+    @Test
+    @DisplayName("newAuthUrl should use the configured authorization endpoint")
+    public void givenEndpoints_whenConstructed_thenAuthUrlUsesThem() {
+        assertTrue(gOAuth.newAuthUrl.startsWith("http://127.0.0.1:" + stub.getAddress().getPort() + "/auth"));
+        assertTrue(gOAuth.newAuthUrl.contains("redirect_uri=http://localhost:3000/auth/google/callback"));
+        // These used to come from the flow, which is now built lazily
+        assertTrue(gOAuth.newAuthUrl.contains("client_id=client"));
+        assertTrue(gOAuth.newAuthUrl.contains("response_type=code"));
+        assertTrue(gOAuth.newAuthUrl.contains("access_type=offline"));
+        assertTrue(gOAuthOpenId.newAuthUrl.contains("openid"));
+    }
+
+    /** A login should produce the profile that the People API reported */
+    @Test
+    @DisplayName("getProfileInformation should exchange the code and fetch the profile")
+    public void givenStubServer_whenLoggingIn_thenProfileMatches() throws IOException {
+        var profile = gOAuth.getProfileInformation("some-code");
+        assertEquals("1234", profile.gId());
+        assertEquals("stub@example.com", profile.email());
+        assertEquals("Stub Person", profile.name());
+    }
+
+    /**
+     * Repeated logins should each make exactly one call to each endpoint, and
+     * should be timed. The average latencies are printed, as an offline
+     * benchmark of the login path.
+     */
+    @Test
+    @DisplayName("Repeated logins should record per-step timings")
+    public void givenStubServer_whenLoggingInRepeatedly_thenTimingsAreRecorded() throws IOException {
+        int tokensBefore = tokenRequests.get(), peopleBefore = peopleRequests.get();
+        long tokenCountBefore = gOAuth.tokenTiming.count();
+        final int logins = 200;
+        long start = System.nanoTime();
+        for (int i = 0; i < logins; ++i) {
+            gOAuth.getProfileInformation("code-" + i);
+        }
+        long elapsed = System.nanoTime() - start;
+        assertEquals(logins, tokenRequests.get() - tokensBefore);
+        assertEquals(logins, peopleRequests.get() - peopleBefore);
+        assertEquals(logins, gOAuth.tokenTiming.count() - tokenCountBefore);
+        // The same totals are what /metrics/google reports
+        assertEquals(gOAuth.tokenTiming.count(), gOAuth.timings().get(0).count());
+        System.out.printf("%d stub logins, %.3f ms/login (%s)%n", logins, elapsed / 1e6 / logins,
+                gOAuth.timingReport());
+    }
+
+    /** In OpenID mode, a login should not need the People API */
+    @Test
+    @DisplayName("OpenID mode should get the profile from the ID token alone")
+    public void givenOpenIdMode_whenLoggingIn_thenPeopleApiIsSkipped() throws IOException {
+        int peopleBefore = peopleRequests.get();
+        var profile = gOAuthOpenId.getProfileInformation("some-code");
+        assertEquals("1234", profile.gId());
+        assertEquals("stub@example.com", profile.email());
+        assertEquals("Stub Person", profile.name());
+        assertEquals(peopleBefore, peopleRequests.get());
+    }
+
+    /** An ID token for some other client must be rejected */
+    @Test
+    @DisplayName("OpenID mode should reject an ID token with the wrong audience")
+    public void givenOpenIdMode_whenAudienceIsWrong_thenRejectLogin() {
+        idTokenAudience = "someone-else";
+        try {
+            assertThrows(IOException.class, () -> gOAuthOpenId.getProfileInformation("some-code"));
+        } finally {
+            idTokenAudience = "client";
+        }
+    }
+
+    /** If Google's keys can't be fetched, the People API should still work */
+    @Test
+    @DisplayName("OpenID mode should fall back to the People API when the key set can't be fetched")
+    public void givenUnreachableKeySet_whenLoggingIn_thenUsePeopleApi() throws IOException {
+        String root = "http://127.0.0.1:" + stub.getAddress().getPort() + "/";
+        // Fetching the keys gets a 503
+        var noKeys = new GoogleOAuth("http://localhost", 3000, "client", "secret", Routes.RT_AUTH_GOOGLE_CALLBACK,
+                new GoogleOAuth.Endpoints(root + "auth", root + "openid/token", root, root + "broken-jwks",
+                        "https://stub"),
+                true);
+        int peopleBefore = peopleRequests.get();
+        var profile = noKeys.getProfileInformation("some-code");
+        assertEquals("1234", profile.gId());
+        assertEquals("stub@example.com", profile.email());
+        assertEquals(peopleBefore + 1, peopleRequests.get());
+    }
+
+    /** A token with a bad signature must fail the login, not fall back */
+    @Test
+    @DisplayName("OpenID mode should reject an ID token signed with the wrong key")
+    public void givenForgedIdToken_whenLoggingIn_thenRejectLogin() {
+        String root = "http://127.0.0.1:" + stub.getAddress().getPort() + "/";
+        var forged = new GoogleOAuth("http://localhost", 3000, "client", "secret", Routes.RT_AUTH_GOOGLE_CALLBACK,
+                new GoogleOAuth.Endpoints(root + "auth", root + "forged/token", root, root + "jwks", "https://stub"),
+                true);
+        int peopleBefore = peopleRequests.get();
+        assertThrows(GoogleOAuth.InvalidIdTokenException.class, () -> forged.getProfileInformation("some-code"));
+        assertEquals(peopleBefore, peopleRequests.get());
+    }
+}
@@ -0,0 +1,68 @@
+package quickstart.backend;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/** Tests for the Lifecycle that shuts the backend down gracefully */
+public class LifecycleTest {
+    /** Shutdown should flip readiness before it waits for requests */
+    @Test
+    @DisplayName("shutdown should become unready, then wait for in-flight requests")
+    public void givenRequestInFlight_whenShuttingDown_thenUnreadyThenDrain() throws Exception {
+        var lifecycle = new Lifecycle(0, 5000);
+        lifecycle.ready();
+        assertTrue(lifecycle.isReady());
+        lifecycle.requestStarted();
+        var closed = new CountDownLatch(1);
+        lifecycle.register("resource", closed::countDown);
+        var shutdown = new Thread(lifecycle::shutdown);
+        shutdown.start();
+        // The request is still running, so nothing may be closed yet
+        assertFalse(closed.await(200, TimeUnit.MILLISECONDS));
+        assertFalse(lifecycle.isReady());
+        assertEquals(Lifecycle.State.DRAINING, lifecycle.state());
+        lifecycle.requestFinished();
+        assertTrue(closed.await(1, TimeUnit.SECONDS));
+        shutdown.join(1000);
+        assertEquals(Lifecycle.State.STOPPED, lifecycle.state());
+    }
+
+    /** A request that never finishes must not block shutdown forever */
+    @Test
+    @DisplayName("shutdown should give up on requests after the drain timeout")
+    public void givenStuckRequest_whenShuttingDown_thenGiveUpAfterTimeout() {
+        var lifecycle = new Lifecycle(0, 100);
+        lifecycle.ready();
+        lifecycle.requestStarted();
+        long start = System.nanoTime();
+        lifecycle.shutdown();
+        long ms = (System.nanoTime() - start) / 1_000_000;
+        assertTrue(ms >= 100 && ms < 2000, "took " + ms + " ms");
+        assertEquals(Lifecycle.State.STOPPED, lifecycle.state());
+    }
+
+    /** Resources should close in reverse order, even if one fails */
+    @Test
+    @DisplayName("shutdown should close resources in reverse order")
+    public void givenResources_whenShuttingDown_thenCloseInReverseOrder() {
+        var lifecycle = new Lifecycle(0, 100);
+        var order = Collections.synchronizedList(new ArrayList<String>());
+        lifecycle.register("database", () -> order.add("database"));
+        lifecycle.register("pool", () -> {
+            order.add("pool");
+            throw new IllegalStateException("expected");
+        });
+        lifecycle.register("server", () -> order.add("server"));
+        lifecycle.shutdown();
+        assertEquals(java.util.List.of("server", "pool", "database"), order);
+    }
+}
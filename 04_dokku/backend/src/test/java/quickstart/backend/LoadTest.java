@@ -0,0 +1,416 @@
+package quickstart.backend;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParser;
+
+/**
+ * LoadTest drives the backend with a mix of requests at a fixed arrival rate,
+ * and reports throughput and latency percentiles for each route.
+ *
+ * It needs a PostgreSQL database (DATABASE_URL) with the schema in place. It
+ * adds LOAD_USERS people (load0@example.com, ...) if they are missing, starts
+ * an OAuthStub, starts the backend in a child process with GOOGLE_ROOT_URL
+ * pointed at the stub, logs every user in through the real OAuth callback, and
+ * then runs the load. At the end, it stops the backend with SIGTERM.
+ *
+ * The load is "open loop": request i is due at start + i / rate, whether or not
+ * earlier requests have finished, the way real users arrive. A closed loop
+ * (send, wait, send) slows down when the server does, so it never measures
+ * the queueing that users would see ("coordinated omission"). So, each
+ * request's latency is measured from when it was due, not from when it was
+ * sent. Both are reported: "service" time is from the send, and "response"
+ * time is from when it was due. When the server keeps up, they match; when it
+ * doesn't, the gap is the queueing.
+ *
+ * Every run adds messages (createMessage), and GET /messages returns all of
+ * them, so the same load gets slower as tblMessage grows. To compare runs,
+ * start each one from the same data (e.g., delete the load users' messages).
+ *
+ * Requests are sent with HttpClient.sendAsync, so one scheduling thread can
+ * keep any number of requests in flight without a thread per request.
+ *
+ * LoadTest and OAuthStub are test code, so they aren't in the jar that Dokku
+ * runs. The backend under load is that jar, though, so build it first, and
+ * then run the harness next to it:
+ *
+ * mvn package
+ * java -cp target/backend-1.0.jar:target/test-classes quickstart.backend.LoadTest
+ */
+public class LoadTest {
+    /** The routes that the load can include, and their default weights */
+    static final String DEFAULT_MIX = "listMessages=40,readMessage=25,listPeople=10,readPerson=10,search=5,"
+            + "createMessage=5,updateMessage=4,updatePerson=1";
+
+    /**
+     * User is a logged-in load-test user
+     *
+     * @param id        the user's person id
+     * @param cookie    the Cookie header that carries the session
+     * @param messageId a message that the user created, for updates
+     */
+    static record User(int id, String cookie, long messageId) {
+    }
+
+    /**
+     * Recorder collects the latencies for one route
+     */
+    static class Recorder {
+        /** The route's name */
+        final String name;
+
+        /** Nanoseconds from when each request was due until it finished */
+        final ConcurrentLinkedQueue<Long> response = new ConcurrentLinkedQueue<>();
+
+        /** Nanoseconds from when each request was sent until it finished */
+        final ConcurrentLinkedQueue<Long> service = new ConcurrentLinkedQueue<>();
+
+        /** Requests that failed, or didn't get an "ok" */
+        final LongAdder errors = new LongAdder();
+
+        Recorder(String name) {
+            this.name = name;
+        }
+
+        /** Record one request */
+        void record(long due, long sent, long done, boolean ok) {
+            response.add(done - due);
+            service.add(done - sent);
+            if (!ok)
+                errors.increment();
+        }
+
+        /** Format one row of the report */
+        String report(double seconds) {
+            var r = sorted(response);
+            var s = sorted(service);
+            if (r.length == 0)
+                return String.format("%-14s %8d", name, 0);
+            return String.format("%-14s %8d %6d %8.1f | %8.2f %8.2f %8.2f %8.2f %8.2f | %8.2f %8.2f %8.2f", name,
+                    r.length, errors.sum(), r.length / seconds, ms(pct(r, 50)), ms(pct(r, 90)), ms(pct(r, 99)),
+                    ms(pct(r, 99.9)), ms(r[r.length - 1]), ms(pct(s, 50)), ms(pct(s, 99)), ms(s[s.length - 1]));
+        }
+    }
+
+    /** The backend's base URL */
+    private final String base;
+
+    /** The client for every request */
+    private final HttpClient client;
+
+    /** Converts request bodies to JSON */
+    private final Gson gson = new Gson();
+
+    /** The logged-in users */
+    private final List<User> users = new ArrayList<>();
+
+    /** Message ids to read */
+    private final List<Long> messageIds = new ArrayList<>();
+
+    /** Chooses routes, users, and messages, reproducibly */
+    private final Random random = new Random(216);
+
+    /**
+     * Create a load generator for a backend
+     *
+     * @param base The backend's base URL, e.g. http://localhost:18080
+     */
+    LoadTest(String base) {
+        this.base = base;
+        this.client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5))
+                .followRedirects(HttpClient.Redirect.NEVER).build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        String dbUrl = System.getenv("DATABASE_URL");
+        int port = Integer.parseInt(System.getenv().getOrDefault("LOAD_PORT", "18080"));
+        double rate = Double.parseDouble(System.getenv().getOrDefault("LOAD_RATE", "200"));
+        int durationS = Integer.parseInt(System.getenv().getOrDefault("LOAD_DURATION_S", "30"));
+        int warmupS = Integer.parseInt(System.getenv().getOrDefault("LOAD_WARMUP_S", "5"));
+        int userCount = Integer.parseInt(System.getenv().getOrDefault("LOAD_USERS", "20"));
+        String mix = System.getenv().getOrDefault("LOAD_MIX", DEFAULT_MIX);
+
+        System.out.println("-".repeat(45));
+        System.out.println("Using the following environment variables:");
+        System.out.println("  DATABASE_URL=" + dbUrl);
+        System.out.println("  LOAD_PORT=" + port);
+        System.out.println("  LOAD_RATE=" + rate);
+        System.out.println("  LOAD_DURATION_S=" + durationS);
+        System.out.println("  LOAD_WARMUP_S=" + warmupS);
+        System.out.println("  LOAD_USERS=" + userCount);
+        System.out.println("  LOAD_MIX=" + mix);
+        System.out.println("-".repeat(45));
+        if (dbUrl == null || rate <= 0 || durationS < 1 || userCount < 1) {
+            System.err.println("Error in environment configuration");
+            return;
+        }
+        var weights = parseMix(mix);
+
+        // Make sure the load-test users exist
+        try (var conn = Database.connect(dbUrl);
+                var ps = conn.prepareStatement(
+                        "INSERT INTO tblPerson (email, name) VALUES (?, ?) ON CONFLICT (email) DO NOTHING;")) {
+            for (int i = 0; i < userCount; ++i) {
+                ps.setString(1, OAuthStub.email("load" + i));
+                ps.setString(2, "load" + i);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+
+        try (var stub = new OAuthStub()) {
+            var backend = startBackend(dbUrl, port, stub.rootUrl());
+            try {
+                var load = new LoadTest("http://localhost:" + port);
+                load.awaitReady(Duration.ofSeconds(60));
+                load.setUp(userCount);
+                if (warmupS > 0) {
+                    System.out.println("Warming up for " + warmupS + " s...");
+                    load.run(weights, rate, warmupS);
+                }
+                System.out.printf("Running %.0f requests/sec for %d s...%n", rate, durationS);
+                var recorders = load.run(weights, rate, durationS);
+                report(recorders, rate, durationS);
+            } finally {
+                // SIGTERM, so the backend drains and shuts down cleanly
+                backend.destroy();
+                if (!backend.waitFor(30, TimeUnit.SECONDS))
+                    backend.destroyForcibly();
+            }
+        }
+    }
+
+    /**
+     * Parse a route mix, e.g. "listMessages=3,search=1"
+     *
+     * @return the weight of each route, in order
+     */
+    static Map<String, Integer> parseMix(String mix) {
+        var weights = new LinkedHashMap<String, Integer>();
+        var known = parseKnown();
+        for (var part : mix.split(",")) {
+            var kv = part.strip().split("=");
+            if (kv.length != 2 || !known.contains(kv[0]))
+                throw new RuntimeException("Invalid mix entry '" + part + "'; routes are " + known);
+            int w = Integer.parseInt(kv[1].strip());
+            if (w < 0)
+                throw new RuntimeException("Invalid weight in '" + part + "'");
+            if (w > 0)
+                weights.put(kv[0], w);
+        }
+        if (weights.isEmpty())
+            throw new RuntimeException("The mix has no routes");
+        return weights;
+    }
+
+    /** The names of the routes that a mix can include */
+    private static List<String> parseKnown() {
+        return Arrays.stream(DEFAULT_MIX.split(",")).map(p -> p.split("=")[0]).toList();
+    }
+
+    /**
+     * Start the backend from target/backend-1.0.jar in a child process, with
+     * its output going to target/loadtest-backend.log. The jar only has the
+     * frontend if it was built into src/main/resources/public, and the backend
+     * won't start without an index.html, so it gets a placeholder page in
+     * target/loadtest-static instead (no route in the mix reads it).
+     */
+    static Process startBackend(String dbUrl, int port, String googleRootUrl) throws IOException {
+        var jar = new File("target/backend-1.0.jar");
+        if (!jar.exists())
+            throw new IOException("Missing " + jar + ": run 'mvn package' first");
+        var staticDir = new File("target/loadtest-static");
+        staticDir.mkdirs();
+        java.nio.file.Files.writeString(new File(staticDir, "index.html").toPath(), "<!DOCTYPE html>load test");
+        var java = ProcessHandle.current().info().command().orElse("java");
+        var pb = new ProcessBuilder(java, "-cp", jar.getPath(), App.class.getName());
+        var env = pb.environment();
+        env.put("PORT", "" + port);
+        env.put("DATABASE_URL", dbUrl);
+        env.put("CLIENT_ID", "loadtest");
+        env.put("CLIENT_SECRET", "loadtest-secret");
+        env.put("SERVER_NAME", "http://localhost");
+        env.put("GOOGLE_ROOT_URL", googleRootUrl);
+        env.put("STATIC_LOCATION", staticDir.getAbsolutePath());
+        var log = new File("target/loadtest-backend.log");
+        pb.redirectErrorStream(true).redirectOutput(log);
+        System.out.println("Starting the backend; its output is in " + log);
+        return pb.start();
+    }
+
+    /** Wait for the backend's /ready to say it's up */
+    void awaitReady(Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (System.nanoTime() < deadline) {
+            try {
+                var r = client.send(get(Routes.RT_READY, null), HttpResponse.BodyHandlers.discarding());
+                if (r.statusCode() == 200)
+                    return;
+            } catch (IOException e) {
+                // Not listening yet
+            }
+            Thread.sleep(200);
+        }
+        throw new RuntimeException("The backend wasn't ready after " + timeout);
+    }
+
+    /**
+     * Log every user in through the OAuth callback, give each one a message,
+     * and collect message ids to read
+     */
+    void setUp(int userCount) throws IOException, InterruptedException {
+        for (int i = 0; i < userCount; ++i) {
+            var r = client.send(get(Routes.RT_AUTH_GOOGLE_CALLBACK + "?code=load" + i, null),
+                    HttpResponse.BodyHandlers.discarding());
+            var cookies = new LinkedHashMap<String, String>();
+            for (var c : r.headers().allValues("Set-Cookie")) {
+                var nv = c.split(";", 2)[0].split("=", 2);
+                cookies.put(nv[0], nv.length > 1 ? nv[1] : "");
+            }
+            if (!cookies.containsKey("auth.key"))
+                throw new RuntimeException("Login failed for load" + i + " (status " + r.statusCode() + ")");
+            var cookie = String.join("; ", cookies.entrySet().stream().map(e -> e.getKey() + "=" + e.getValue())
+                    .toList());
+            var created = client.send(post("/messages", cookie, "POST",
+                    gson.toJson(new Database.NewMessageRequest("load test", "created by load" + i))),
+                    HttpResponse.BodyHandlers.ofString());
+            long messageId = Long.parseLong(
+                    JsonParser.parseString(created.body()).getAsJsonObject().get("data").getAsString());
+            users.add(new User(Integer.parseInt(cookies.get("auth.id")), cookie, messageId));
+        }
+        var all = client.send(get("/messages", users.get(0).cookie()), HttpResponse.BodyHandlers.ofString());
+        for (var m : JsonParser.parseString(all.body()).getAsJsonObject().getAsJsonArray("data"))
+            messageIds.add(m.getAsJsonObject().get("id").getAsLong());
+        System.out.println("Logged in " + users.size() + " users; " + messageIds.size() + " messages to read");
+    }
+
+    /**
+     * Send requests at a fixed rate for a while, and wait for them to finish
+     *
+     * @param weights   The weight of each route
+     * @param rate      Requests per second
+     * @param durationS How long to send for
+     *
+     * @return the latencies for each route
+     */
+    Map<String, Recorder> run(Map<String, Integer> weights, double rate, int durationS) {
+        var recorders = new LinkedHashMap<String, Recorder>();
+        var routes = new ArrayList<String>();
+        for (var e : weights.entrySet()) {
+            recorders.put(e.getKey(), new Recorder(e.getKey()));
+            for (int i = 0; i < e.getValue(); ++i)
+                routes.add(e.getKey());
+        }
+        long total = (long) (rate * durationS);
+        double intervalNs = 1e9 / rate;
+        var pending = new ArrayList<CompletableFuture<?>>();
+        long start = System.nanoTime();
+        for (long i = 0; i < total; ++i) {
+            long due = start + (long) (i * intervalNs);
+            long wait;
+            while ((wait = due - System.nanoTime()) > 0)
+                LockSupport.parkNanos(wait);
+            var route = routes.get(random.nextInt(routes.size()));
+            var recorder = recorders.get(route);
+            var request = request(route);
+            long sent = System.nanoTime();
+            pending.add(client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).whenComplete((r, e) -> {
+                boolean ok = e == null && r.statusCode() == 200 && r.body().contains("\"status\":\"ok\"");
+                recorder.record(due, sent, System.nanoTime(), ok);
+            }));
+        }
+        CompletableFuture.allOf(pending.toArray(CompletableFuture[]::new)).exceptionally(e -> null).join();
+        return recorders;
+    }
+
+    /** Build a request for one route, for a random user */
+    private HttpRequest request(String route) {
+        var user = users.get(random.nextInt(users.size()));
+        var other = users.get(random.nextInt(users.size()));
+        long messageId = messageIds.isEmpty() ? user.messageId()
+                : messageIds.get(random.nextInt(messageIds.size()));
+        return switch (route) {
+            case "listMessages" -> get("/messages", user.cookie());
+            case "readMessage" -> get("/messages/" + messageId, user.cookie());
+            case "listPeople" -> get("/people", user.cookie());
+            case "readPerson" -> get("/people/" + other.id(), user.cookie());
+            case "search" -> get("/messages/search?q=load", user.cookie());
+            case "createMessage" -> post("/messages", user.cookie(), "POST",
+                    gson.toJson(new Database.NewMessageRequest("load test", "more load")));
+            case "updateMessage" -> post("/messages/" + user.messageId(), user.cookie(), "PUT",
+                    gson.toJson(new Database.UpdateMessageRequest("updated by load", null)));
+            case "updatePerson" -> post("/people", user.cookie(), "PUT",
+                    gson.toJson(new Database.NameChangeRequest("load " + user.id(), null)));
+            default -> throw new RuntimeException("Unknown route " + route);
+        };
+    }
+
+    /** Build a GET request */
+    private HttpRequest get(String path, String cookie) {
+        var b = HttpRequest.newBuilder(URI.create(base + path)).timeout(Duration.ofSeconds(30));
+        if (cookie != null)
+            b.header("Cookie", cookie);
+        return b.GET().build();
+    }
+
+    /** Build a request with a JSON body */
+    private HttpRequest post(String path, String cookie, String method, String json) {
+        return HttpRequest.newBuilder(URI.create(base + path)).timeout(Duration.ofSeconds(30))
+                .header("Cookie", cookie).header("Content-Type", "application/json")
+                .method(method, HttpRequest.BodyPublishers.ofString(json)).build();
+    }
+
+    /** Print the report */
+    static void report(Map<String, Recorder> recorders, double rate, int durationS) {
+        System.out.println();
+        System.out.printf("%-14s %8s %6s %8s | %8s %8s %8s %8s %8s | %8s %8s %8s%n", "route", "count", "errors",
+                "req/s", "p50", "p90", "p99", "p99.9", "max", "svc p50", "svc p99", "svc max");
+        System.out.printf("%-14s %8s %6s %8s | %44s | %26s%n", "", "", "", "",
+                "response time (ms, from when it was due)", "service time (ms, from send)");
+        var all = new Recorder("all");
+        for (var r : recorders.values()) {
+            System.out.println(r.report(durationS));
+            all.response.addAll(r.response);
+            all.service.addAll(r.service);
+            all.errors.add(r.errors.sum());
+        }
+        System.out.println(all.report(durationS));
+        System.out.printf("(target %.0f req/s for %d s)%n", rate, durationS);
+    }
+
+    /** Sort a queue of latencies */
+    private static long[] sorted(ConcurrentLinkedQueue<Long> q) {
+        var a = q.stream().mapToLong(Long::longValue).toArray();
+        Arrays.sort(a);
+        return a;
+    }
+
+    /** Find a percentile of some sorted numbers, by the nearest-rank method */
+    static long pct(long[] sorted, double p) {
+        int rank = (int) Math.ceil(p / 100 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+
+    /** Convert nanoseconds to milliseconds */
+    private static double ms(long nanos) {
+        return nanos / 1e6;
+    }
+}
@@ -0,0 +1,81 @@
+package quickstart.backend;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * OAuthStub pretends to be Google's token endpoint and People API, so that a
+ * backend started with GOOGLE_ROOT_URL pointing here can be logged into
+ * without a network connection. It is only for load tests.
+ *
+ * The login code names the user: exchanging code "load7" yields an access
+ * token for load7, and asking the People API about that token yields
+ * load7@example.com. So visiting /auth/google/callback?code=load7 on the
+ * backend logs in as load7@example.com.
+ */
+public class OAuthStub implements AutoCloseable {
+    /** The server */
+    private final HttpServer server;
+
+    /** Start the stub on a free port */
+    public OAuthStub() throws IOException {
+        // Without this, Nagle's algorithm adds ~40ms to every stub reply
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newFixedThreadPool(4, r -> {
+            var t = new Thread(r, "oauth-stub");
+            t.setDaemon(true);
+            return t;
+        }));
+        server.createContext("/token", ex -> {
+            var form = new String(ex.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            String code = "";
+            for (var pair : form.split("&"))
+                if (pair.startsWith("code="))
+                    code = java.net.URLDecoder.decode(pair.substring(5), StandardCharsets.UTF_8);
+            reply(ex, 200, "{\"access_token\": \"" + code + "\", \"token_type\": \"Bearer\", \"expires_in\": 3600}");
+        });
+        server.createContext("/v1/people/me", ex -> {
+            var auth = ex.getRequestHeaders().getFirst("Authorization");
+            if (auth == null || !auth.startsWith("Bearer ")) {
+                reply(ex, 401, "{}");
+                return;
+            }
+            var user = auth.substring(7);
+            reply(ex, 200, "{\"names\": [{\"displayName\": \"" + user + "\"}], \"emailAddresses\": [{\"value\": \""
+                    + email(user) + "\", \"metadata\": {\"source\": {\"id\": \"" + user + "\"}}}]}");
+        });
+        server.start();
+    }
+
+    /** The email address that the stub reports for a login code */
+    public static String email(String code) {
+        return code + "@example.com";
+    }
+
+    /** The URL to pass to the backend as GOOGLE_ROOT_URL */
+    public String rootUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    /** Send a JSON reply */
+    private static void reply(HttpExchange ex, int status, String json) throws IOException {
+        var body = json.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().add("Content-Type", "application/json");
+        ex.sendResponseHeaders(status, body.length);
+        try (var out = ex.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /** Stop the stub */
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,34 @@
+package quickstart.backend;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/** Tests for the OAuth stub that load tests log in through */
+public class OAuthStubTest {
+    /** The login code should decide who the stub says the user is */
+    @Test
+    @DisplayName("A login through the stub should name the user from the code")
+    public void givenStub_whenLoggingIn_thenCodeNamesTheUser() throws IOException {
+        try (var stub = new OAuthStub()) {
+            var gOAuth = new GoogleOAuth("http://localhost", 3000, "client", "secret",
+                    Routes.RT_AUTH_GOOGLE_CALLBACK, GoogleOAuth.Endpoints.at(stub.rootUrl()), false);
+            var profile = gOAuth.getProfileInformation("load7");
+            assertEquals("load7@example.com", profile.email());
+            assertEquals("load7", profile.gId());
+            assertEquals("load7", profile.name());
+        }
+    }
+
+    /** A mix should only name routes that the load test knows */
+    @Test
+    @DisplayName("parseMix should reject unknown routes")
+    public void givenUnknownRoute_whenParsingMix_thenReject() {
+        assertEquals(2, LoadTest.parseMix("listMessages=3,search=1,listPeople=0").size());
+        assertThrows(RuntimeException.class, () -> LoadTest.parseMix("listMessages=3,nope=1"));
+    }
+}
@@ -0,0 +1,64 @@
+package quickstart.backend;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/** Tests for the email-to-person cache used during login */
+public class PersonCacheTest {
+    /** Lookups should ignore the case of the email address */
+    @Test
+    @DisplayName("get should find a person regardless of email case")
+    public void givenCachedPerson_whenLookingUpMixedCase_thenFindThem() {
+        var cache = new PersonCache(60);
+        cache.put(new Database.Person(7, "someone@example.com", "Some One"));
+        assertEquals(7, cache.get("SomeOne@Example.COM").id());
+        assertNull(cache.get("nobody@example.com"));
+    }
+
+    /** A rename through the backend should be visible right away */
+    @Test
+    @DisplayName("rename should write through to the cached person")
+    public void givenCachedPerson_whenRenamed_thenCacheHasNewName() {
+        var cache = new PersonCache(60);
+        cache.put(new Database.Person(7, "someone@example.com", "Some One"));
+        cache.rename(7, "Another Name");
+        assertEquals("Another Name", cache.get("someone@example.com").name());
+    }
+
+    /** Entries must not outlive their TTL, since the admin app can change rows */
+    @Test
+    @DisplayName("get should not return expired entries")
+    public void givenZeroTtl_whenLookingUp_thenMiss() throws InterruptedException {
+        var cache = new PersonCache(0);
+        cache.put(new Database.Person(7, "someone@example.com", "Some One"));
+        Thread.sleep(1);
+        assertNull(cache.get("someone@example.com"));
+    }
+
+    /** An expired entry should be dropped, so the map doesn't only grow */
+    @Test
+    @DisplayName("get should evict the expired entry it finds")
+    public void givenExpiredEntry_whenLookingUp_thenEvictIt() throws InterruptedException {
+        var cache = new PersonCache(0);
+        cache.put(new Database.Person(7, "someone@example.com", "Some One"));
+        Thread.sleep(1);
+        assertNull(cache.get("someone@example.com"));
+        assertEquals(0, cache.size());
+        assertEquals(new PersonCache.Stats(0, 0, 1, 1), cache.stats());
+    }
+
+    /** People who stop logging in should not stay in the map forever */
+    @Test
+    @DisplayName("get should sweep out expired entries that nobody looks up")
+    public void givenExpiredEntries_whenLookingUpSomeoneElse_thenSweepThem() throws InterruptedException {
+        var cache = new PersonCache(0);
+        cache.put(new Database.Person(7, "someone@example.com", "Some One"));
+        cache.put(new Database.Person(8, "other@example.com", "Other One"));
+        Thread.sleep(1);
+        assertNull(cache.get("nobody@example.com"));
+        assertEquals(new PersonCache.Stats(0, 0, 1, 2), cache.stats());
+    }
+}
@@ -0,0 +1,126 @@
+package quickstart.backend;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.sun.net.httpserver.HttpServer;
+
+/** Tests for fetching and caching Google's signing keys */
+public class SigningKeysTest {
+    /** A stub key set server */
+    static HttpServer stub;
+
+    /** The stub's key set, as JSON */
+    static String jwks;
+
+    /** The number of requests for /slow-jwks */
+    static AtomicInteger slowRequests = new AtomicInteger();
+
+    /** Lets requests for /slow-jwks finish */
+    static CountDownLatch release = new CountDownLatch(1);
+
+    /** The number of requests for /broken-jwks */
+    static AtomicInteger brokenRequests = new AtomicInteger();
+
+    /** The stub's address */
+    static String root;
+
+    /** Start the stub server */
+    @BeforeAll
+    static void initAll() throws IOException, GeneralSecurityException {
+        var key = (RSAPublicKey) KeyPairGenerator.getInstance("RSA").generateKeyPair().getPublic();
+        var b64 = Base64.getUrlEncoder().withoutPadding();
+        jwks = "{\"keys\": [{\"kty\": \"RSA\", \"kid\": \"k1\", "
+                + "\"n\": \"" + b64.encodeToString(GoogleOAuthTest.unsigned(key.getModulus().toByteArray()))
+                + "\", \"e\": \"" + b64.encodeToString(key.getPublicExponent().toByteArray()) + "\"}]}";
+
+        stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stub.setExecutor(Executors.newCachedThreadPool());
+        stub.createContext("/slow-jwks", ex -> {
+            slowRequests.incrementAndGet();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            GoogleOAuthTest.reply(ex, jwks);
+        });
+        stub.createContext("/broken-jwks", ex -> {
+            brokenRequests.incrementAndGet();
+            var body = "unavailable".getBytes(StandardCharsets.UTF_8);
+            ex.sendResponseHeaders(503, body.length);
+            try (var out = ex.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        stub.start();
+        root = "http://127.0.0.1:" + stub.getAddress().getPort() + "/";
+    }
+
+    /** Stop the stub server */
+    @AfterAll
+    static void tearDownAll() {
+        stub.stop(0);
+    }
+
+    /** Logins that arrive during a fetch should share it, not queue behind a lock */
+    @Test
+    @DisplayName("concurrent lookups should share a single fetch")
+    public void givenSlowKeySet_whenManyLookUpAtOnce_thenFetchOnce() throws Exception {
+        var keys = new SigningKeys(new NetHttpTransport(), r -> {
+        }, root + "slow-jwks");
+        var pool = Executors.newFixedThreadPool(8);
+        try {
+            var results = new ArrayList<Future<Object>>();
+            for (int i = 0; i < 8; ++i)
+                results.add(pool.submit(() -> keys.get("k1")));
+            // Give every thread time to reach the fetch before it finishes
+            Thread.sleep(200);
+            release.countDown();
+            for (var r : results)
+                assertNotNull(r.get(10, TimeUnit.SECONDS));
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(1, slowRequests.get());
+        // An unknown key id doesn't cause a fetch within a minute of the last one
+        assertNull(keys.get("k2"));
+        assertEquals(1, slowRequests.get());
+    }
+
+    /** A failed fetch shouldn't be retried by every login that follows it */
+    @Test
+    @DisplayName("lookups right after a failed fetch should fail without fetching")
+    public void givenBrokenKeySet_whenLookingUpAgain_thenBackOff() {
+        var keys = new SigningKeys(new NetHttpTransport(), r -> {
+        }, root + "broken-jwks");
+        assertThrows(IOException.class, () -> keys.get("k1"));
+        assertEquals(1, brokenRequests.get());
+        var e = assertThrows(IOException.class, () -> keys.get("k1"));
+        assertTrue(e.getMessage().contains("so soon after a failure"));
+        assertEquals(1, brokenRequests.get());
+    }
+}
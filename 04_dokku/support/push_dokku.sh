@@ -40,6 +40,7 @@ rm -rf "${DIR_DOKKU}/src"
 rm -f "${DIR_DOKKU}/pom.xml"
 rm -f "${DIR_DOKKU}/Procfile"
 rm -f "${DIR_DOKKU}/system.properties"
+rm -f "${DIR_DOKKU}/app.json"
 
 echo "Press <enter> to copy to deploy folder, or <ctrl-c> to quit"
 read -r x
@@ -47,6 +48,8 @@ cp -R backend/src "${DIR_DOKKU}"
 cp backend/pom.xml "${DIR_DOKKU}"
 cp backend/Procfile "${DIR_DOKKU}"
 cp backend/system.properties "${DIR_DOKKU}"
+# app.json is optional
+[ -f backend/app.json ] && cp backend/app.json "${DIR_DOKKU}"
 
 echo "Press <enter> to commit deploy folder, or <ctrl-c> to quit"
 read -r x
@@ -0,0 +1,34 @@
+#!/bin/bash
+
+# Measure backend startup with and without the AppCDS archive
+# - This should be run from the backend folder, after `mvn -Pcds package`
+# - It runs StartupProbe, which needs no database or Google credentials, RUNS
+#   times each way, and reports the median time from JVM launch to listening
+#   and to the first response
+# - If the frontend hasn't been copied into the jar, set STATIC_LOCATION to a
+#   folder with an index.html in it
+
+RUNS="${RUNS:-10}"
+JAR='target/backend-1.0.jar'
+JSA='target/backend.jsa'
+
+[ ! -f "${JAR}" ] && echo "Missing ${JAR}: run 'mvn package' first" && exit 1
+[ ! -f "${JSA}" ] && echo "Missing ${JSA}: run 'mvn -Pcds package' first" && exit 1
+
+# Print the middle line of sorted numbers
+median() {
+    sort -n | awk '{ v[NR] = $1 } END { print v[int((NR + 1) / 2)] }'
+}
+
+# Run the probe RUNS times, and print the median of each number it reports
+bench() {
+    local out
+    out=$(for _ in $(seq "${RUNS}"); do
+        java "$@" -cp "${JAR}" quickstart.backend.StartupProbe 2>/dev/null | grep '^startup:'
+    done | sed -E 's/.*listening after ([0-9]+) ms.*after ([0-9]+) ms/\1 \2/')
+    printf "listening %5d ms   first response %5d ms   (median of %d runs)\n" \
+        "$(cut -d' ' -f1 <<<"${out}" | median)" "$(cut -d' ' -f2 <<<"${out}" | median)" "$(wc -l <<<"${out}")"
+}
+
+echo -n "without archive: " && bench -Xshare:auto
+echo -n "with archive:    " && bench -XX:SharedArchiveFile="${JSA}"